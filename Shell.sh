@@ -1,3 +1,9 @@
 #!/bin/sh
-# Navigate to the directory containing this script and run the JAR
-exec java --enable-preview -jar "$(dirname "$0")/target/mini-shell.jar" "$@"
+# Run the JAR next to this script, with the AOT cache from the build's training run
+# when there is one at least as new as the jar (a stale cache would only be rejected)
+jar="$(dirname "$0")/target/mini-shell.jar"
+aot="$(dirname "$0")/target/mini-shell.aot"
+if [ -f "$aot" ] && ! [ "$jar" -nt "$aot" ]; then
+    exec java --enable-preview -XX:AOTCache="$aot" -jar "$jar" "$@"
+fi
+exec java --enable-preview -jar "$jar" "$@"
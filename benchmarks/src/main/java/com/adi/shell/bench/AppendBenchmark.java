@@ -0,0 +1,73 @@
+package com.adi.shell.bench;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A script of 100k `echo x >> f` lines, in lines per second. The lines go round-robin
+ * over `targets` files: with one, or fewer than the pool keeps open, every line reuses
+ * an open channel; with more, the least recently used one is always the next needed,
+ * so every line opens and closes its file as it did before the pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class AppendBenchmark {
+
+    static final int LINES = 100_000;
+
+    @Param({"1", "32", "256"})
+    public int targets;
+
+    private Path dir;
+    private Path script;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("append");
+        script = dir.resolve("script.sh");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append("echo x >> ").append(dir.resolve("f" + (i % targets))).append('\n');
+        }
+        Files.writeString(script, sb);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int appendLines() throws Throwable {
+        try (InputStream in = new FileInputStream(script.toFile())) {
+            return Shell.runScript(in);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.adi.shell.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: the regular JMH command line, except that results are
+ * written as JSON (jmh-result.json) unless -rf/-rff say otherwise, so runs from different
+ * releases can be compared.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar                       all benchmarks
+ *   java -jar benchmarks/target/benchmarks.jar Parse -prof gc        parser with allocation rates
+ *   java -jar benchmarks/target/benchmarks.jar -rff release-1.0.3.json
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> argv = new ArrayList<>(Arrays.asList(args));
+        if (!argv.contains("-rf")) {
+            argv.add("-rf");
+            argv.add("json");
+        }
+        if (!argv.contains("-rff")) {
+            argv.add("-rff");
+            argv.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(argv.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,58 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Regression check for pipelines whose end stops reading: each of these has an endless
+ * producer and must return in milliseconds, with head and cat both external and both
+ * in-process (the producer then writes into a pipe the shell itself reads).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class BrokenPipeBenchmark {
+
+    @Param({"yes | head -n 1", "yes | cat | head -n 1", "yes | head -n 1 | cat"})
+    public String line;
+
+    @Param({"true", "false"})
+    public boolean inProcess;
+
+    private Object pipeline;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        String toggle = inProcess ? "enable cat head" : "enable -n cat head";
+        Shell.runSimple(Shell.firstCommand(Shell.parse(toggle)));
+        pipeline = Shell.parse(line);
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int pipeline() throws Throwable {
+        return Shell.runPipeline(pipeline);
+    }
+}
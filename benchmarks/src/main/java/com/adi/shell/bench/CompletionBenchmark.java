@@ -0,0 +1,90 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Completing a command name against a Nix-sized PATH (one directory of generated
+ * executables): the prefix trie of ExecutableIndex against listing the directory on
+ * every Tab. "git-" has a few hundred matches, "zz" none.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class CompletionBenchmark {
+
+    private static final String[] STEMS = {"git-", "x", "nix-", "py", "k", "g", "lib", "perl", "e2", "ssh-"};
+
+    @Param({"1000", "12000"})
+    public int executables;
+
+    @Param({"g", "git-", "zz"})
+    public String prefix;
+
+    private Path dir;
+    private Object index;
+
+    @Setup
+    public void setup() throws Throwable {
+        dir = Files.createTempDirectory("bin");
+        Random random = new Random(1);
+        for (int i = 0; i < executables; i++) {
+            String name = STEMS[random.nextInt(STEMS.length)] + Integer.toString(random.nextInt(1 << 20), 36) + i;
+            File f = Files.createFile(dir.resolve(name)).toFile();
+            f.setExecutable(true);
+        }
+        index = Shell.executables(dir.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public List<String> trie() throws Throwable {
+        List<String> names = new ArrayList<>();
+        Shell.completeCommand(index, prefix, names::add);
+        return names;
+    }
+
+    /** Baseline: list the PATH directory and check each match, as a completer without an index would. */
+    @Benchmark
+    public List<String> listDirectory() {
+        List<String> names = new ArrayList<>();
+        File d = dir.toFile();
+        String[] entries = d.list();
+        if (entries == null) return names;
+        for (String name : entries) {
+            if (name.startsWith(prefix) && new File(d, name).canExecute()) names.add(name);
+        }
+        names.sort(null);
+        return names;
+    }
+}
@@ -0,0 +1,79 @@
+package com.adi.shell.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The same coreutils command lines with the in-process implementations enabled
+ * (`enable`) and disabled (`enable -n`), so the difference is the spawn cost saved.
+ * Every line reads a 1000-line file; `%s` is replaced with its path.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class CoreUtilsBenchmark {
+
+    @Param({
+            "head -n 1 %s > /dev/null",
+            "tail -n 5 %s > /dev/null",
+            "wc -l %s > /dev/null",
+            "grep -c 99 %s > /dev/null",
+            "cat %s | grep -q 999",
+    })
+    public String line;
+
+    @Param({"true", "false"})
+    public boolean inProcess;
+
+    private Path data;
+    private Object parsed;
+    private Object simple;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        data = Files.createTempFile("coreutils-bench", ".txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 1000; i++) sb.append("line ").append(i).append('\n');
+        Files.writeString(data, sb);
+
+        String toggle = inProcess ? "enable cat head tail wc grep" : "enable -n cat head tail wc grep";
+        Shell.runSimple(Shell.firstCommand(Shell.parse(toggle)));
+
+        parsed = Shell.parse(line.replace("%s", data.toString()));
+        List<?> commands = Shell.commands(parsed);
+        simple = commands.size() == 1 ? commands.get(0) : null;
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void restore() throws IOException {
+        System.setOut(stdout);
+        Files.deleteIfExists(data);
+    }
+
+    @Benchmark
+    public int run() throws Throwable {
+        return simple != null ? Shell.runSimple(simple) : Shell.runPipeline(parsed);
+    }
+}
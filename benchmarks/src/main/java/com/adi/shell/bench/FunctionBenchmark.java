@@ -0,0 +1,64 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of a function call: `f one two` with f() { echo "$1" "$2"; } against the
+ * same echo written inline, both parsed beforehand as in a loop body, and against
+ * tokenizing and parsing the echo on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class FunctionBenchmark {
+
+    private static final String INLINE = "echo one two";
+
+    private Object call;
+    private Object inline;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        Shell.execute("f() { echo \"$1\" \"$2\"; }");
+        call = Shell.firstCommand(Shell.parse("f one two"));
+        inline = Shell.firstCommand(Shell.parse(INLINE));
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int function() throws Throwable {
+        return Shell.runSimple(call);
+    }
+
+    @Benchmark
+    public int inline() throws Throwable {
+        return Shell.runSimple(inline);
+    }
+
+    @Benchmark
+    public int reparsed() throws Throwable {
+        return Shell.runSimple(Shell.firstCommand(Shell.parse(INLINE)));
+    }
+}
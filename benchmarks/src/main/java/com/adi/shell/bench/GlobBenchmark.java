@@ -0,0 +1,91 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Expanding a pattern the way a script does, over and over, in a directory of 2000
+ * files with 64 subdirectories of 100: Glob (cached listings, parallel walk) against
+ * walking everything, sorting it and matching each path with a PathMatcher. The
+ * directories' mtimes are set an hour back so their listings can be cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class GlobBenchmark {
+
+    @Param({"*.log", "f1??.txt", "d*/*.log", "**/*.log"})
+    public String pattern;
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("glob");
+        for (int i = 0; i < 2000; i++) Files.createFile(dir.resolve("f" + i + (i % 2 == 0 ? ".log" : ".txt")));
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        for (int d = 0; d < 64; d++) {
+            Path sub = Files.createDirectory(dir.resolve("d" + d));
+            for (int i = 0; i < 100; i++) Files.createFile(sub.resolve("g" + i + (i % 4 == 0 ? ".log" : ".txt")));
+            Files.setLastModifiedTime(sub, old);
+        }
+        Files.setLastModifiedTime(dir, old);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public List<String> glob() throws Throwable {
+        List<String> out = new ArrayList<>();
+        Shell.glob(pattern, dir.toFile(), out);
+        return out;
+    }
+
+    /** Baseline: list the whole tree into memory, sort it, then match. */
+    @Benchmark
+    public List<String> listAndSort() throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+        List<Path> all;
+        try (Stream<Path> paths = Files.walk(dir, depth)) {
+            all = new ArrayList<>(paths.map(dir::relativize).toList());
+        }
+        all.sort(null);
+        List<String> out = new ArrayList<>();
+        for (Path p : all) {
+            if (matcher.matches(p)) out.add(p.toString());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,87 @@
+package com.adi.shell.bench;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reverse search (Ctrl-R, `history -g`) in a generated history: through the trigram
+ * index against scanning the mapped log, for a command a tenth of the way in (so
+ * nearly all of the history is newer) and for one that isn't there at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    private static final String[] WORDS = {
+        "git", "status", "commit", "push", "ls", "cd", "grep", "find", "docker", "make",
+        "mvn", "java", "python", "echo", "cat", "sed", "ssh", "curl", "-la", "src"
+    };
+
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    @Param({"kubectl rollout restart", "no such command"})
+    public String term;
+
+    private Path file;
+    private Object indexed;
+    private Object scanned;
+
+    @Setup
+    public void setup() throws Throwable {
+        file = Files.createTempFile("history", "");
+        Random random = new Random(1);
+        try (BufferedWriter w = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < entries; i++) {
+                if (i == entries / 10) {
+                    w.write("kubectl rollout restart deployment/web\n");
+                    continue;
+                }
+                int n = 1 + random.nextInt(4);
+                for (int k = 0; k < n; k++) w.write(WORDS[random.nextInt(WORDS.length)] + " ");
+                w.write(random.nextInt(100000) + "\n");
+            }
+        }
+        indexed = Shell.history(file);
+        Shell.indexHistory(indexed);
+        scanned = Shell.history(file);
+        Shell.historySize(scanned);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + ".idx"));
+    }
+
+    @Benchmark
+    public int indexed() throws Throwable {
+        return Shell.searchHistory(indexed, term, Integer.MAX_VALUE, true);
+    }
+
+    /** Baseline: every entry newer than the match compared byte by byte. */
+    @Benchmark
+    public int scan() throws Throwable {
+        return Shell.searchHistory(scanned, term, Integer.MAX_VALUE, true);
+    }
+}
@@ -0,0 +1,63 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A loop of 1,000,000 iterations made of builtins only: six nested `for d in 0 ... 9`
+ * whose body assigns the six digits and tests them with `false ||`. The loop is parsed
+ * once and its tree run; reparsed runs the same body as a line of its own each time,
+ * tokenized and parsed on every iteration like a script with the loop unrolled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class LoopBenchmark {
+
+    private static final int ITERATIONS = 1_000_000;
+    private static final String BODY = "x=$a$b$c$d$e$f; false || :";
+
+    private Object loop;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        StringBuilder sb = new StringBuilder();
+        for (String name : new String[] {"a", "b", "c", "d", "e", "f"}) {
+            sb.append("for ").append(name).append(" in 0 1 2 3 4 5 6 7 8 9; do ");
+        }
+        sb.append(BODY).append("; done".repeat(6));
+        loop = Shell.parse(sb.toString());
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void loop() throws Throwable {
+        Shell.run(loop);
+    }
+
+    @Benchmark
+    public void reparsed() throws Throwable {
+        for (int i = 0; i < ITERATIONS; i++) Shell.execute(BODY);
+    }
+}
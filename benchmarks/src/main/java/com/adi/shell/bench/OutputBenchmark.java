@@ -0,0 +1,118 @@
+package com.adi.shell.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * `yes | head -n N`-style output through the old and new stdout paths, written to
+ * /dev/null so only the shell's own overhead (mostly write syscalls) is measured.
+ *
+ *   lines*  - println of N short lines: the old autoflush System.out against the
+ *             64 KiB batch buffer ShellOutput uses when stdout is not a terminal
+ *   copy*   - pumping N lines from a stream: the old 8 KiB flush-per-read copy against
+ *             Main.streamCopy, which flushes only when its input runs dry
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int lines;
+
+    private FileOutputStream devNull;
+
+    @Setup
+    public void setup() throws FileNotFoundException {
+        devNull = new FileOutputStream("/dev/null");
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        devNull.close();
+    }
+
+    @Benchmark
+    public void linesAutoflush() {
+        // what System.out was before: line-flushed whatever stdout is
+        PrintStream out = new PrintStream(new BufferedOutputStream(devNull, 8192), true);
+        for (int i = 0; i < lines; i++) out.println("y");
+        out.flush();
+    }
+
+    @Benchmark
+    public void linesBatched() {
+        PrintStream out = new PrintStream(new BufferedOutputStream(devNull, 64 * 1024), false);
+        for (int i = 0; i < lines; i++) out.println("y");
+        out.flush();
+    }
+
+    @Benchmark
+    public void copyFlushPerRead() throws IOException {
+        InputStream in = new Yes(lines);
+        PrintStream out = new PrintStream(new BufferedOutputStream(devNull, 8192), true);
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+            out.flush();
+        }
+    }
+
+    @Benchmark
+    public void copyAdaptive() throws Throwable {
+        PrintStream out = new PrintStream(new BufferedOutputStream(devNull, 64 * 1024), false);
+        Shell.streamCopy(new Yes(lines), out, false);
+    }
+
+    /** Produces "y\n" n times, delivered in small reads like a pipe from a slow-ish writer. */
+    static final class Yes extends InputStream {
+        private static final int CHUNK = 4096;
+        private long remaining;
+
+        Yes(long lines) {
+            this.remaining = lines * 2;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) return -1;
+            return (remaining-- % 2 == 0) ? 'y' : '\n';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) return -1;
+            int n = (int) Math.min(Math.min(len, CHUNK), remaining);
+            for (int i = 0; i < n; i++) b[off + i] = (byte) read();
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, CHUNK);
+        }
+    }
+}
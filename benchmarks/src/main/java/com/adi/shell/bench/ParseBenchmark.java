@@ -0,0 +1,41 @@
+package com.adi.shell.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Main.parseCommand over realistic lines. Run with -prof gc to see the lexer's
+ * allocation per parsed line (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({
+            "ls -la /tmp",
+            "echo 'hello   world' \"it's $HOME\" plain\\ escaped",
+            "grep -v '^#' /etc/hosts 2>/dev/null | sort -u >> out.txt",
+            "cat \"/var/log/app log.txt\" | grep -F 'ERROR' | cut -d ' ' -f 1-3 | sort | uniq -c | sort -rn | head -n 20",
+            "printf '%s\\n' \"a\\\"b\" 'c\\d' e\\ f ${USER}_x $1 \"$@\" > \"/tmp/x y\" 2>&1",
+    })
+    public String line;
+
+    @Benchmark
+    public Object parse() throws Throwable {
+        return Shell.parse(line);
+    }
+}
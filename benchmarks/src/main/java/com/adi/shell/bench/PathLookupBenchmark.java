@@ -0,0 +1,72 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PATH resolution as done by `type`: the hashed lookup against the per-directory
+ * exists/canExecute scan it replaced. Commands near the end of PATH show the
+ * difference best.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class PathLookupBenchmark {
+
+    @Param({"ls", "sort", "no-such-command"})
+    public String command;
+
+    private List<String> argv;
+    private PrintWriter sink;
+    private String[] dirs;
+
+    @Setup
+    public void setup() throws Throwable {
+        argv = List.of("type", command);
+        sink = new PrintWriter(OutputStream.nullOutputStream());
+        String path = System.getenv("PATH");
+        dirs = (path == null ? "" : path).split(":");
+        Shell.clearHash();
+    }
+
+    /** Main.type as the shell runs it (hash table, after the first call). */
+    @Benchmark
+    public int type() throws Throwable {
+        return Shell.type(argv, sink);
+    }
+
+    /** The hash table on its own. */
+    @Benchmark
+    public String hashedLookup() throws Throwable {
+        return Shell.lookup(command);
+    }
+
+    /** Baseline: the linear PATH scan every command used to do. */
+    @Benchmark
+    public String linearScan() {
+        for (String dir : dirs) {
+            if (dir.isEmpty()) continue;
+            File file = new File(dir, command);
+            if (file.exists() && file.canExecute()) return file.getAbsolutePath();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Main.runMultiPipeline for builtin-only, external-only and mixed pipelines.
+ * Throughput is pipelines per second; sample time gives the latency distribution.
+ * Pipelines end in a builtin or a silent command so the run does not print.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({
+            "builtin:echo one two | echo three | pwd",
+            "external:seq 1 100000 | sort -r | grep -q 99999",
+            "mixed:seq 1 100000 | cat | type cat",
+            "mixed-middle:echo hello | cat | echo world | cat | pwd",
+    })
+    public String pipeline;
+
+    private Object parsed;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        parsed = Shell.parse(pipeline.substring(pipeline.indexOf(':') + 1));
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void restore() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int run() throws Throwable {
+        return Shell.runPipeline(parsed);
+    }
+}
@@ -0,0 +1,99 @@
+package com.adi.shell.bench;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Non-interactive script throughput in lines per second, on a generated script of
+ * builtin commands. readLines* compare the input readers alone: the old Scanner loop
+ * against LineInput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class ScriptBenchmark {
+
+    static final int LINES = 100_000;
+
+    private Path script;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws IOException {
+        script = Files.createTempFile("bench-script", ".sh");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            switch (i % 4) {
+                case 0 -> sb.append("echo line ").append(i).append(" \"quoted $HOME\"\n");
+                case 1 -> sb.append("pwd\n");
+                case 2 -> sb.append("type echo\n");
+                default -> sb.append("# comment ").append(i).append('\n');
+            }
+        }
+        Files.writeString(script, sb);
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void cleanup() throws IOException {
+        System.setOut(stdout);
+        Files.deleteIfExists(script);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int runScript() throws Throwable {
+        try (InputStream in = new FileInputStream(script.toFile())) {
+            return Shell.runScript(in);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int readLinesScanner() throws IOException {
+        int n = 0;
+        try (Scanner scanner = new Scanner(new BufferedInputStream(new FileInputStream(script.toFile())))) {
+            while (scanner.hasNextLine()) {
+                n += scanner.nextLine().length();
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int readLinesLineInput() throws Throwable {
+        int n = 0;
+        try (InputStream in = new FileInputStream(script.toFile())) {
+            Object reader = Shell.newLineInput(in);
+            String line;
+            while ((line = Shell.readLine(reader)) != null) {
+                n += line.length();
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,99 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Commands per second through `mini-shell --server` with ShellClient.run, one session
+ * per command, against a cold `java -jar mini-shell.jar -c command` per command.
+ * Run from the repository root, after mvn -B package.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class ServerBenchmark {
+
+    @Param({"target/mini-shell.jar"})
+    public String jar;
+
+    @Param({"echo hello", "true", "echo hello | cat"})
+    public String command;
+
+    private Path socket;
+    private Process server;
+    private List<String> args;
+    private File cwd;
+    private Map<String, String> env;
+
+    @Setup
+    public void setup() throws Exception {
+        if (!new File(jar).isFile()) throw new IllegalStateException(jar + " not found; run mvn -B package first");
+        socket = Files.createTempDirectory("mini-shell-bench").resolve("shell.sock");
+        server = new ProcessBuilder(java("--server", socket.toString())).inheritIO().start();
+        // listening once the socket file exists
+        for (int i = 0; i < 300 && !Files.exists(socket); i++) {
+            if (!server.isAlive()) throw new IllegalStateException("server exited with " + server.exitValue());
+            Thread.sleep(50);
+        }
+        if (!Files.exists(socket)) throw new IllegalStateException("server did not start");
+
+        args = List.of("-c", command);
+        cwd = new File(System.getProperty("user.dir"));
+        env = System.getenv();
+    }
+
+    @TearDown
+    public void stop() throws Exception {
+        server.destroy();
+        server.waitFor();
+        Files.deleteIfExists(socket);
+        Files.deleteIfExists(socket.getParent());
+    }
+
+    @Benchmark
+    public int client() throws Throwable {
+        return Shell.clientRun(socket, args, cwd, env, null, OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public int coldLaunch() throws IOException, InterruptedException {
+        return new ProcessBuilder(java("-c", command))
+                .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start().waitFor();
+    }
+
+    private List<String> java(String... shellArgs) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("--enable-preview");
+        cmd.add("-jar");
+        cmd.add(jar);
+        cmd.addAll(List.of(shellArgs));
+        return cmd;
+    }
+}
@@ -0,0 +1,230 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Handles on the shell's package-private entry points.
+ *
+ * Main and its helpers live in the unnamed package, which a named package cannot import,
+ * and JMH refuses benchmarks in the unnamed package. The handles are looked up once and
+ * stored in static finals, so calls through them are as cheap as direct calls.
+ */
+final class Shell {
+
+    private static final MethodHandle PARSE;
+    private static final MethodHandle RUN_PIPELINE;
+    private static final MethodHandle RUN_SIMPLE;
+    private static final MethodHandle EXECUTE;
+    private static final MethodHandle RUN;
+    private static final MethodHandle COMMANDS;
+    private static final MethodHandle TYPE;
+    private static final MethodHandle LOOKUP;
+    private static final MethodHandle HASH_CLEAR;
+    private static final MethodHandle STREAM_COPY;
+    private static final MethodHandle NEW_LINE_INPUT;
+    private static final MethodHandle RUN_LINES;
+    private static final MethodHandle READ_LINE;
+    private static final MethodHandle CLIENT_RUN;
+    private static final MethodHandle NEW_HISTORY;
+    private static final MethodHandle HISTORY_SIZE;
+    private static final MethodHandle HISTORY_SEARCH;
+    private static final MethodHandle HISTORY_INDEX_CHUNK;
+    private static final MethodHandle NEW_EXECUTABLES;
+    private static final MethodHandle EXECUTABLES_SYNC;
+    private static final MethodHandle EXECUTABLES_SCAN;
+    private static final MethodHandle EXECUTABLES_NAMES;
+    private static final MethodHandle GLOB;
+
+    static {
+        try {
+            MethodHandles.Lookup caller = MethodHandles.lookup();
+            Class<?> main = Class.forName("Main");
+            Class<?> hash = Class.forName("CommandHash");
+            Class<?> node = Class.forName("Ast$Node");
+            Class<?> ast = Class.forName("Ast$Pipeline");
+            Class<?> simple = Class.forName("Ast$SimpleCommand");
+            Class<?> lineInput = Class.forName("LineInput");
+            MethodHandles.Lookup m = MethodHandles.privateLookupIn(main, caller);
+            MethodHandles.Lookup h = MethodHandles.privateLookupIn(hash, caller);
+            MethodHandles.Lookup l = MethodHandles.privateLookupIn(lineInput, caller);
+
+            PARSE = m.findStatic(main, "parseCommand", MethodType.methodType(node, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            RUN_PIPELINE = m.findStatic(main, "runMultiPipeline", MethodType.methodType(int.class, ast))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            RUN_SIMPLE = m.findStatic(main, "runSimpleCommand", MethodType.methodType(int.class, simple))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            EXECUTE = m.findStatic(main, "execute", MethodType.methodType(void.class, String.class));
+            RUN = m.findStatic(main, "run", MethodType.methodType(void.class, node))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            COMMANDS = MethodHandles.privateLookupIn(ast, caller).findVirtual(ast, "commands", MethodType.methodType(List.class))
+                    .asType(MethodType.methodType(List.class, Object.class));
+            TYPE = m.findStatic(main, "type", MethodType.methodType(int.class, List.class, PrintWriter.class));
+            LOOKUP = h.findStatic(hash, "lookup", MethodType.methodType(String.class, String.class));
+            HASH_CLEAR = h.findStatic(hash, "clear", MethodType.methodType(void.class));
+            STREAM_COPY = m.findStatic(main, "streamCopy", MethodType.methodType(void.class, InputStream.class, OutputStream.class, boolean.class));
+            NEW_LINE_INPUT = l.findConstructor(lineInput, MethodType.methodType(void.class, InputStream.class))
+                    .asType(MethodType.methodType(Object.class, InputStream.class));
+            READ_LINE = l.findVirtual(lineInput, "readLine", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            RUN_LINES = m.findStatic(main, "runLines", MethodType.methodType(int.class, lineInput, boolean.class))
+                    .asType(MethodType.methodType(int.class, Object.class, boolean.class));
+            Class<?> client = Class.forName("ShellClient");
+            CLIENT_RUN = MethodHandles.privateLookupIn(client, caller).findStatic(client, "run", MethodType.methodType(int.class,
+                    Path.class, List.class, File.class, Map.class, InputStream.class, OutputStream.class, OutputStream.class));
+            Class<?> history = Class.forName("HistoryLog");
+            MethodHandles.Lookup hl = MethodHandles.privateLookupIn(history, caller);
+            NEW_HISTORY = hl.findConstructor(history, MethodType.methodType(void.class, Path.class))
+                    .asType(MethodType.methodType(Object.class, Path.class));
+            HISTORY_SIZE = hl.findVirtual(history, "size", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            HISTORY_SEARCH = hl.findVirtual(history, "search", MethodType.methodType(int.class, String.class, int.class, boolean.class, boolean.class))
+                    .asType(MethodType.methodType(int.class, Object.class, String.class, int.class, boolean.class, boolean.class));
+            HISTORY_INDEX_CHUNK = hl.findVirtual(history, "indexChunk", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            Class<?> executables = Class.forName("ExecutableIndex");
+            MethodHandles.Lookup ex = MethodHandles.privateLookupIn(executables, caller);
+            NEW_EXECUTABLES = ex.findConstructor(executables, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            EXECUTABLES_SYNC = ex.findVirtual(executables, "sync", MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class));
+            EXECUTABLES_SCAN = ex.findVirtual(executables, "scan", MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class));
+            EXECUTABLES_NAMES = ex.findVirtual(executables, "names", MethodType.methodType(void.class, String.class, Consumer.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, Consumer.class));
+            Class<?> glob = Class.forName("Glob");
+            GLOB = MethodHandles.privateLookupIn(glob, caller).findStatic(glob, "expand",
+                    MethodType.methodType(boolean.class, String.class, File.class, List.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Shell() {}
+
+    /** Main.parseCommand: the parsed line (a pipeline unless it has several) as an opaque object. */
+    static Object parse(String line) throws Throwable {
+        return (Object) PARSE.invokeExact(line);
+    }
+
+    /** Main.runMultiPipeline on a pipeline returned by {@link #parse}. */
+    static int runPipeline(Object pipeline) throws Throwable {
+        return (int) RUN_PIPELINE.invokeExact(pipeline);
+    }
+
+    /** Main.execute: parse and run a line in the current session (e.g. a function definition). */
+    static void execute(String line) throws Throwable {
+        EXECUTE.invokeExact(line);
+    }
+
+    /** Main.run on anything returned by {@link #parse}, e.g. a loop. */
+    static void run(Object node) throws Throwable {
+        RUN.invokeExact(node);
+    }
+
+    /** The commands of a parsed pipeline, each usable with {@link #runSimple}. */
+    static List<?> commands(Object pipeline) throws Throwable {
+        return (List<?>) COMMANDS.invokeExact(pipeline);
+    }
+
+    /** The first command of a parsed pipeline, for {@link #runSimple}. */
+    static Object firstCommand(Object pipeline) throws Throwable {
+        return commands(pipeline).get(0);
+    }
+
+    /** Main.runSimpleCommand (builtin or external, outside a pipeline). */
+    static int runSimple(Object command) throws Throwable {
+        return (int) RUN_SIMPLE.invokeExact(command);
+    }
+
+    /** Main.type, i.e. builtin check plus PATH resolution. */
+    static int type(List<String> argv, PrintWriter out) throws Throwable {
+        return (int) TYPE.invokeExact(argv, out);
+    }
+
+    static String lookup(String name) throws Throwable {
+        return (String) LOOKUP.invokeExact(name);
+    }
+
+    static void clearHash() throws Throwable {
+        HASH_CLEAR.invokeExact();
+    }
+
+    static void streamCopy(InputStream in, OutputStream out, boolean close) throws Throwable {
+        STREAM_COPY.invokeExact(in, out, close);
+    }
+
+    /** Main.runLines over a non-interactive input; returns the last exit status. */
+    static int runScript(InputStream in) throws Throwable {
+        return (int) RUN_LINES.invokeExact(newLineInput(in), false);
+    }
+
+    static Object newLineInput(InputStream in) throws Throwable {
+        return (Object) NEW_LINE_INPUT.invokeExact(in);
+    }
+
+    static String readLine(Object lineInput) throws Throwable {
+        return (String) READ_LINE.invokeExact(lineInput);
+    }
+
+    /** ShellClient.run: one session on a server, returns its exit status. */
+    static int clientRun(Path socket, List<String> args, File cwd, Map<String, String> env,
+                         InputStream script, OutputStream out, OutputStream err) throws Throwable {
+        return (int) CLIENT_RUN.invokeExact(socket, args, cwd, env, script, out, err);
+    }
+
+    /** A HistoryLog on file of its own (not shared with the shell's), nothing read or indexed yet. */
+    static Object history(Path file) throws Throwable {
+        return (Object) NEW_HISTORY.invokeExact(file);
+    }
+
+    static int historySize(Object history) throws Throwable {
+        return (int) HISTORY_SIZE.invokeExact(history);
+    }
+
+    /** HistoryLog.search: the nearest matching entry before or after from, or -1. */
+    static int searchHistory(Object history, String term, int from, boolean backward) throws Throwable {
+        return (int) HISTORY_SEARCH.invokeExact(history, term, from, backward, false);
+    }
+
+    /** Build the whole search index on the calling thread. */
+    static void indexHistory(Object history) throws Throwable {
+        while ((boolean) HISTORY_INDEX_CHUNK.invokeExact(history)) {}
+    }
+
+    /** An ExecutableIndex of the directories in path, scanned on the calling thread. */
+    static Object executables(String path) throws Throwable {
+        Object index = (Object) NEW_EXECUTABLES.invokeExact();
+        EXECUTABLES_SYNC.invokeExact(index, path);
+        for (String dir : path.split(":")) EXECUTABLES_SCAN.invokeExact(index, dir);
+        return index;
+    }
+
+    /** The names in an index from {@link #executables} starting with prefix. */
+    static void completeCommand(Object executables, String prefix, Consumer<String> out) throws Throwable {
+        EXECUTABLES_NAMES.invokeExact(executables, prefix, out);
+    }
+
+    /** Glob.expand: adds the sorted matches of pattern below cwd to out, false if there are none. */
+    static boolean glob(String pattern, File cwd, List<String> out) throws Throwable {
+        return (boolean) GLOB.invokeExact(pattern, cwd, out);
+    }
+
+    /** Point builtin output at a sink for the duration of a benchmark; returns the old stdout. */
+    static PrintStream silenceStdout() {
+        PrintStream old = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return old;
+    }
+}
@@ -0,0 +1,40 @@
+package com.adi.shell.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Latency of one external command through Main.runExternalCommand, spawn to exit. */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class SpawnBenchmark {
+
+    @Param({"true", "/bin/true", "true > /dev/null 2>&1"})
+    public String line;
+
+    private Object command;
+
+    @Setup
+    public void setup() throws Throwable {
+        command = Shell.firstCommand(Shell.parse(line));
+    }
+
+    @Benchmark
+    public int spawn() throws Throwable {
+        return Shell.runSimple(command);
+    }
+}
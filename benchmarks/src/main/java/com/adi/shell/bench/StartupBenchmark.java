@@ -0,0 +1,101 @@
+package com.adi.shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start of the packaged shell, one fresh JVM per operation: time to exit for
+ * `-c 'exit 0'`, and time until the first "$ " prompt is printed (-i, stdin a pipe).
+ * cache=aot launches with the AOT cache from the build's training run, cache=none
+ * without; -p jar=... points at another build (e.g. a previous release) to compare.
+ * Run from the repository root, after mvn -B package.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({"target/mini-shell.jar"})
+    public String jar;
+
+    @Param({"none", "aot"})
+    public String cache;
+
+    private List<String> java;
+    private Process prompting;
+
+    @Setup
+    public void setup() {
+        File jarFile = new File(jar);
+        if (!jarFile.isFile()) throw new IllegalStateException(jar + " not found; run mvn -B package first");
+
+        java = new ArrayList<>();
+        java.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        java.add("--enable-preview");
+        if (cache.equals("aot")) {
+            File aot = new File(jarFile.getParentFile(), "mini-shell.aot");
+            if (!aot.isFile()) throw new IllegalStateException(aot + " not found; the training run did not produce it");
+            java.add("-XX:AOTCache=" + aot.getPath());
+        }
+        java.add("-jar");
+        java.add(jarFile.getPath());
+    }
+
+    @Benchmark
+    public int exitZero() throws Exception {
+        List<String> cmd = new ArrayList<>(java);
+        cmd.add("-c");
+        cmd.add("exit 0");
+        return new ProcessBuilder(cmd)
+                .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start().waitFor();
+    }
+
+    @Benchmark
+    public int firstPrompt() throws Exception {
+        List<String> cmd = new ArrayList<>(java);
+        cmd.add("-i");
+        prompting = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        InputStream out = prompting.getInputStream();
+        // the prompt is the first thing the shell writes
+        int prev = -1, b;
+        while ((b = out.read()) >= 0) {
+            if (prev == '$' && b == ' ') return 0;
+            prev = b;
+        }
+        throw new IOException("shell exited before printing a prompt");
+    }
+
+    // Shutting the prompting shell down is not part of the measurement
+    @TearDown(Level.Invocation)
+    public void closePrompt() throws Exception {
+        if (prompting == null) return;
+        prompting.getOutputStream().close(); // end of input makes the shell exit
+        prompting.waitFor();
+        prompting.getInputStream().close();
+        prompting = null;
+    }
+}
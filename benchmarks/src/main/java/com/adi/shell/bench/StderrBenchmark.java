@@ -0,0 +1,60 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A stage writing 200k lines of data and up to as many to stderr, piped through an
+ * in-process cat into wc. With the stage's stderr discarded the time should not depend
+ * on how much it writes there; with 2>&1 the error lines are data like any other.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class StderrBenchmark {
+
+    @Param({"0", "200000"})
+    public int errors;
+
+    @Param({"2>/dev/null", "2>&1"})
+    public String stderr;
+
+    private Object pipeline;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        Shell.runSimple(Shell.firstCommand(Shell.parse("enable cat")));
+        // both streams written at once, each block-buffered by seq
+        String producer = "sh -c 'seq 1 " + errors + " >&2 & seq 1 200000; wait'";
+        pipeline = Shell.parse(producer + " " + stderr + " | cat | wc -l");
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        System.setOut(stdout);
+        Shell.runSimple(Shell.firstCommand(Shell.parse("enable -n cat")));
+    }
+
+    @Benchmark
+    public int pipeline() throws Throwable {
+        return Shell.runPipeline(pipeline);
+    }
+}
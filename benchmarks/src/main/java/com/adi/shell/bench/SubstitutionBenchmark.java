@@ -0,0 +1,43 @@
+package com.adi.shell.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One `x=$(...)` assignment, as run by every iteration of a loop: the pwd builtin in the
+ * in-process subshell against /bin/pwd, which forks a child and is read back over a pipe.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class SubstitutionBenchmark {
+
+    @Param({"x=$(pwd)", "x=$(/bin/pwd)", "x=`echo $x`"})
+    public String line;
+
+    private Object command;
+
+    @Setup
+    public void setup() throws Throwable {
+        command = Shell.firstCommand(Shell.parse(line));
+    }
+
+    @Benchmark
+    public int assign() throws Throwable {
+        return Shell.runSimple(command);
+    }
+}
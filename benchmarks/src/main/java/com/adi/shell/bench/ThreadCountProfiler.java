@@ -0,0 +1,41 @@
+package com.adi.shell.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports the peak number of live platform threads during each iteration.
+ * Virtual threads are not counted by the JVM's thread MXBean, only their carriers.
+ *
+ *   java -jar benchmarks.jar WidePipeline -prof com.adi.shell.bench.ThreadCountProfiler
+ */
+public class ThreadCountProfiler implements InternalProfiler {
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Override
+    public String getDescription() {
+        return "Peak live platform thread count per iteration";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        threads.resetPeakThreadCount();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+                                                       IterationResult result) {
+        return List.of(new ScalarResult("threads.peak", threads.getPeakThreadCount(), "threads", AggregationPolicy.MAX));
+    }
+}
@@ -0,0 +1,66 @@
+package com.adi.shell.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test: a 200-stage pipeline. "alternating" puts a builtin between every pair of
+ * external commands so every boundary needs a Java task; "external" is one OS-piped run.
+ * Run with -prof com.adi.shell.bench.ThreadCountProfiler to get the peak thread count.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class WidePipelineBenchmark {
+
+    @Param({"200"})
+    public int stages;
+
+    @Param({"alternating", "external", "builtin"})
+    public String shape;
+
+    private Object parsed;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        StringBuilder line = new StringBuilder("echo start");
+        for (int i = 1; i < stages - 1; i++) {
+            boolean builtin = switch (shape) {
+                case "alternating" -> i % 2 == 0;
+                case "builtin" -> true;
+                default -> false;
+            };
+            line.append(builtin ? " | echo stage" + i : " | cat");
+        }
+        line.append(" | pwd");
+        parsed = Shell.parse(line.toString());
+        stdout = Shell.silenceStdout();
+    }
+
+    @TearDown
+    public void restore() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int run() throws Throwable {
+        return Shell.runPipeline(parsed);
+    }
+}
@@ -6,8 +6,13 @@ REM =====================================
 title Mini Shell
 color 0A
 
-REM Launch new terminal running the JAR that sits next to this script
-start "" cmd /k java --enable-preview -jar "%~dp0mini-shell.jar"
+REM Launch new terminal running the JAR that sits next to this script,
+REM with the AOT cache from the build (mini-shell.aot) when it was copied along
+if exist "%~dp0mini-shell.aot" (
+    start "" cmd /k java --enable-preview -XX:AOTCache="%~dp0mini-shell.aot" -jar "%~dp0mini-shell.jar"
+) else (
+    start "" cmd /k java --enable-preview -jar "%~dp0mini-shell.jar"
+)
 
 REM Close this launcher cleanly
 exit /b
@@ -0,0 +1,20 @@
+# Training run for the AOT cache (see pom.xml): a few lines that load and link what a
+# typical session needs -- the lexer and parser, builtins, PATH lookup, external
+# commands, pipelines, redirections and background jobs.
+# Nothing is printed.
+echo "training $0 with 'quoted' args" > /dev/null
+pwd >> /dev/null
+type echo cat > /dev/null
+hash > /dev/null
+true
+echo status $? 2> /dev/null > /dev/null
+seq 1 1000 | grep 7 | wc -l | grep -q 271
+echo a b c | cat | grep -q b
+enable cat head tail wc tee grep
+seq 1 1000 | grep -c 9 | tee /dev/null | head -n 1 | grep -q 271
+tail -n 2 "$0" | wc -l | grep -q 2
+enable -n cat head tail wc tee grep
+true &
+wait
+metrics > /dev/null
+exit 0
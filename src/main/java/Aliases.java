@@ -0,0 +1,83 @@
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * `alias` and `unalias`. The Parser does the expansion: a command's first word that
+ * names an alias is replaced by its text when the line is parsed, so an alias defined
+ * on a line is used from the next line on, and a function keeps the aliases that were
+ * in effect when it was defined, as in bash.
+ */
+final class Aliases {
+
+    private Aliases() {}
+
+    // Characters the lexer would split the name at or treat specially
+    private static final String INVALID = " \t\n|&;()<>=$`\\\"'/";
+
+    /** `alias [name[=value]...]`: define, or print in a form that can be read back. */
+    static int alias(List<String> cmd, PrintWriter out, PrintWriter err) {
+        Map<String, String> aliases = Session.current().aliases;
+        if (cmd.size() == 1) {
+            new TreeMap<>(aliases).forEach((name, value) -> print(name, value, out));
+            return 0;
+        }
+        int status = 0;
+        for (String arg : cmd.subList(1, cmd.size())) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                String value = aliases.get(arg);
+                if (value != null) {
+                    print(arg, value, out);
+                } else {
+                    err.println("alias: " + arg + ": not found");
+                    status = 1;
+                }
+                continue;
+            }
+            String name = arg.substring(0, eq);
+            if (!valid(name)) {
+                err.println("alias: `" + name + "': invalid alias name");
+                status = 1;
+                continue;
+            }
+            aliases.put(name, arg.substring(eq + 1));
+        }
+        return status;
+    }
+
+    /** `unalias [-a] name...` */
+    static int unalias(List<String> cmd, PrintWriter err) {
+        Map<String, String> aliases = Session.current().aliases;
+        if (cmd.size() > 1 && cmd.get(1).equals("-a")) {
+            aliases.clear();
+            return 0;
+        }
+        if (cmd.size() == 1) {
+            err.println("unalias: usage: unalias [-a] name [name ...]");
+            return 2;
+        }
+        int status = 0;
+        for (String name : cmd.subList(1, cmd.size())) {
+            if (aliases.remove(name) == null) {
+                err.println("unalias: " + name + ": not found");
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    private static boolean valid(String name) {
+        if (name.isEmpty()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (INVALID.indexOf(name.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+
+    // alias name='value', with ' written as '\''
+    private static void print(String name, String value, PrintWriter out) {
+        out.println("alias " + name + "='" + value.replace("'", "'\\''") + "'");
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Open channels for `>>` targets of builtins, kept from one command to the next, so a
+ * script that appends to the same log on every line opens it once.
+ *
+ * Channels are opened with O_APPEND, so every write lands at the current end of the
+ * file whoever else writes to it or truncates it. Before a channel is reused the path
+ * is checked to still name the same file (its fileKey, i.e. device and inode): a file
+ * that was deleted, or replaced by a rename, gets a fresh channel. A `>` on the path
+ * drops the pooled channel too. At most BUDGET channels are kept, least recently used
+ * ones closed first; a channel still being written through is closed when released.
+ */
+final class AppendTargets {
+
+    private AppendTargets() {}
+
+    private static final int BUDGET = 64;
+
+    /** A channel lent out by {@link #acquire}; give it back with {@link #release}. */
+    static final class Lease {
+        final Path path;
+        final FileChannel channel;
+        private final Object fileKey;
+        private int users;
+        private boolean retired;   // out of the pool: closed once nobody uses it
+
+        private Lease(Path path, FileChannel channel, Object fileKey) {
+            this.path = path;
+            this.channel = channel;
+            this.fileKey = fileKey;
+        }
+    }
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final LinkedHashMap<Path, Lease> pool = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** A channel appending to file, creating it if needed. */
+    static Lease acquire(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        Object key = fileKey(path);
+        lock.lock();
+        try {
+            Lease lease = pool.get(path);
+            if (lease != null) {
+                if (key != null && key.equals(lease.fileKey) && lease.channel.isOpen()) {
+                    lease.users++;
+                    return lease;
+                }
+                retire(lease);
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            lease = new Lease(path, channel, fileKey(path));
+            lease.users = 1;
+            if (lease.fileKey == null) {
+                // nothing to tell a replaced file by: not kept
+                lease.retired = true;
+                return lease;
+            }
+            pool.put(path, lease);
+            evict();
+            return lease;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void release(Lease lease) throws IOException {
+        lock.lock();
+        try {
+            if (--lease.users == 0 && lease.retired) lease.channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The file is about to be truncated or replaced by `>`: stop reusing its channel. */
+    static void forget(Path file) {
+        lock.lock();
+        try {
+            if (pool.isEmpty()) return;
+            Lease lease = pool.get(file.toAbsolutePath().normalize());
+            if (lease != null) retire(lease);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lock held
+    private static void retire(Lease lease) {
+        pool.remove(lease.path);
+        lease.retired = true;
+        if (lease.users == 0) close(lease);
+    }
+
+    // Lock held; channels in use stay, even over the budget
+    private static void evict() {
+        for (Iterator<Lease> it = pool.values().iterator(); it.hasNext() && pool.size() > BUDGET; ) {
+            Lease lease = it.next();
+            if (lease.users > 0) continue;
+            it.remove();
+            lease.retired = true;
+            close(lease);
+        }
+    }
+
+    private static void close(Lease lease) {
+        try {
+            lease.channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.List;
+
+/**
+ * Parsed form of a command line, produced by {@link Parser}.
+ *
+ * All nodes are immutable: nothing in them depends on shell state, so a parsed tree can
+ * be kept and executed any number of times. Parameters are only looked up when a
+ * {@link Word} is expanded right before the command runs.
+ */
+final class Ast {
+
+    private Ast() {}
+
+    /** Anything that can be executed. */
+    sealed interface Node permits Pipeline, CommandList, Function, AndOr, Not, If, While, For {}
+
+    /**
+     * cmd1 | cmd2 | ... ; a single command is a pipeline of one.
+     * A pipeline followed by '&' runs as a background job; text is its source, shown by `jobs`.
+     * time is non-null for `time [options] pipeline`, whose commands may then be empty.
+     */
+    record Pipeline(List<SimpleCommand> commands, boolean background, String text, TimeOptions time) implements Node {
+        Pipeline {
+            commands = List.copyOf(commands);
+        }
+    }
+
+    /** Options of the `time` prefix: -p (POSIX format), -v (per-stage table), -j (JSON). */
+    record TimeOptions(boolean posix, boolean stages, boolean json) {}
+
+    /** Several commands in a row (a; b, a & b, or one per line), run one after the other. */
+    record CommandList(List<Node> items) implements Node {
+        CommandList {
+            items = List.copyOf(items);
+        }
+    }
+
+    /** left && right (and set) or left || right: right runs depending on left's status. */
+    record AndOr(Node left, boolean and, Node right) implements Node {}
+
+    /** ! body: the status inverted. */
+    record Not(Node body) implements Node {}
+
+    /** if condition; then ...; else ...; fi, an elif being an If in otherwise; otherwise may be null. */
+    record If(Node condition, Node then, Node otherwise) implements Node {}
+
+    /** while condition; do body; done, or until when until is set. */
+    record While(Node condition, Node body, boolean until) implements Node {}
+
+    /** for name in words; do body; done; words is null for `for name`, which goes over $@. */
+    record For(String name, List<Word> words, Node body) implements Node {
+        For {
+            if (words != null) words = List.copyOf(words);
+        }
+    }
+
+    /**
+     * name() { body; }: running it defines the function, whose calls then run body.
+     * text is the definition as written, shown by `type`.
+     */
+    record Function(String name, Node body, String text) implements Node {}
+
+    /**
+     * Argument vector plus the redirections written anywhere on the command, and the
+     * NAME=value words before it.
+     */
+    record SimpleCommand(List<Word> words, List<Redirect> redirects, List<Assignment> assignments) {
+        SimpleCommand {
+            words = List.copyOf(words);
+            redirects = List.copyOf(redirects);
+            assignments = List.copyOf(assignments);
+        }
+
+        /** True if expanding the command runs a command substitution anywhere. */
+        boolean substitutes() {
+            for (Word w : words) {
+                if (w.substitutes()) return true;
+            }
+            for (Redirect r : redirects) {
+                if (r.target().substitutes()) return true;
+            }
+            for (Assignment a : assignments) {
+                if (a.value().substitutes()) return true;
+            }
+            return false;
+        }
+    }
+
+    /** NAME=value: sets a shell variable, or only the command's environment when one follows. */
+    record Assignment(String name, Word value) {}
+
+    /** One shell word, made of literal and expandable pieces glued together. */
+    record Word(List<Part> parts) {
+        Word {
+            parts = List.copyOf(parts);
+        }
+
+        /** True if any part was quoted, so the word survives even when it expands to "". */
+        boolean hasQuotes() {
+            for (Part p : parts) {
+                if (p.quoted()) return true;
+            }
+            return false;
+        }
+
+        boolean substitutes() {
+            for (Part p : parts) {
+                if (p instanceof Substitution) return true;
+            }
+            return false;
+        }
+
+        /**
+         * True if an unquoted $param or $(...) may split the word into several (and glob
+         * characters in its value expand to file names), as bash does; so does "$@".
+         */
+        boolean splits() {
+            for (Part p : parts) {
+                if (!p.quoted() && !(p instanceof Literal)) return true;
+                if (p instanceof Param param && param.name().equals("@")) return true;
+            }
+            return false;
+        }
+
+        /** True if an unquoted part has a `*`, `?` or `[`, so the word may expand to file names. */
+        boolean globs() {
+            for (Part p : parts) {
+                if (!(p instanceof Literal l) || l.quoted()) continue;
+                String text = l.text();
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '*' || c == '?' || c == '[') return true;
+                }
+            }
+            return false;
+        }
+
+        /** The text of a word that contains nothing to expand, or null. */
+        String literal() {
+            StringBuilder sb = new StringBuilder();
+            for (Part p : parts) {
+                if (!(p instanceof Literal l)) return null;
+                sb.append(l.text());
+            }
+            return sb.toString();
+        }
+
+        static Word of(String text) {
+            return new Word(List.of(new Literal(text, false)));
+        }
+    }
+
+    sealed interface Part permits Literal, Param, Substitution {
+        boolean quoted();
+    }
+
+    /** Plain text; quoted if it came from inside '...' or "...". */
+    record Literal(String text, boolean quoted) implements Part {}
+
+    /** $name, ${name}, $1, $? ... */
+    record Param(String name, boolean quoted) implements Part {}
+
+    /** $(commands) or `commands`; body is null when there are none. */
+    record Substitution(Node body, boolean quoted) implements Part {}
+
+    enum RedirectOp {
+        /** n>file */
+        WRITE,
+        /** n>>file */
+        APPEND,
+        /** n<file */
+        READ,
+        /** n>&m */
+        DUP
+    }
+
+    /** One redirection: fd 0 for input, 1 for stdout, 2 for stderr. */
+    record Redirect(int fd, RedirectOp op, Word target) {}
+}
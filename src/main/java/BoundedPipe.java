@@ -0,0 +1,146 @@
+import java.io.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory pipe with a fixed-size ring buffer, used between builtin stages of a pipeline.
+ *
+ * Writers block while the buffer is full (backpressure) and readers block while it is
+ * empty, so a stage producing any amount of data only ever holds {@link #capacity()}
+ * bytes on the heap. Closing the reading end makes further writes fail with an
+ * IOException, like writing to a pipe nobody reads from.
+ */
+class BoundedPipe {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024; // same as a Linux pipe
+
+    private final byte[] buf;
+    private int head = 0;   // next byte to read
+    private int count = 0;  // bytes currently buffered
+    private boolean writerClosed = false;
+    private boolean readerClosed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final InputStream source = new Source();
+    private final OutputStream sink = new Sink();
+
+    BoundedPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    BoundedPipe(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    /** Reading end, handed to the downstream stage. */
+    InputStream source() {
+        return source;
+    }
+
+    /** Writing end, handed to the upstream stage. */
+    OutputStream sink() {
+        return sink;
+    }
+
+    private final class Source extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            lock.lock();
+            try {
+                while (count == 0) {
+                    if (writerClosed || readerClosed) return -1;
+                    notEmpty.awaitUninterruptibly();
+                }
+                int n = Math.min(len, count);
+                int first = Math.min(n, buf.length - head);
+                System.arraycopy(buf, head, b, off, first);
+                System.arraycopy(buf, 0, b, off + first, n - first);
+                head = (head + n) % buf.length;
+                count -= n;
+                notFull.signal();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                count = 0;
+                notFull.signalAll();
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class Sink extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    if (writerClosed) throw new IOException("Stream closed");
+                    if (readerClosed) throw new IOException("Broken pipe");
+                    if (count == buf.length) {
+                        notFull.awaitUninterruptibly();
+                        continue;
+                    }
+                    int tail = (head + count) % buf.length;
+                    int n = Math.min(len, Math.min(buf.length - count, buf.length - tail));
+                    System.arraycopy(b, off, buf, tail, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bash-style command hash table: remembers where each command name was found on PATH
+ * so repeated commands skip the per-directory exists/canExecute probing.
+ *
+ * There is one table per PATH value, shared by the sessions using that PATH: server
+ * clients and subshells with different PATHs neither evict each other's entries nor
+ * resolve against each other's directories. At most {@link #MAX_TABLES} are kept, the
+ * least recently used dropped first. A table is filled lazily and dropped as a whole
+ * when the mtime of one of its directories changes (something was added or removed).
+ * Directory mtimes are re-checked at most once per {@link #RECHECK_INTERVAL_MS}.
+ */
+class CommandHash {
+
+    static final long RECHECK_INTERVAL_MS = 1000;
+    static final int MAX_TABLES = 16;
+
+    static final class Entry {
+        final String path;
+        final AtomicLong hits = new AtomicLong();
+
+        Entry(String path) {
+            this.path = path;
+        }
+    }
+
+    private static final class Table {
+        final String[] dirs;
+        final long[] dirMtimes;
+        long lastCheck;
+        // insertion order kept so `hash` lists entries the way they were learned
+        final Map<String, Entry> entries = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        Table(String path) {
+            dirs = path.split(":");
+            dirMtimes = new long[dirs.length];
+            for (int i = 0; i < dirs.length; i++) {
+                dirMtimes[i] = dirs[i].isEmpty() ? 0 : new File(dirs[i]).lastModified();
+            }
+            lastCheck = System.currentTimeMillis();
+        }
+
+        synchronized void revalidate() {
+            long now = System.currentTimeMillis();
+            if (now - lastCheck < RECHECK_INTERVAL_MS) return;
+            lastCheck = now;
+
+            boolean changed = false;
+            for (int i = 0; i < dirs.length; i++) {
+                if (dirs[i].isEmpty()) continue;
+                long m = new File(dirs[i]).lastModified();
+                if (m != dirMtimes[i]) {
+                    dirMtimes[i] = m;
+                    changed = true;
+                }
+            }
+            if (changed) entries.clear();
+        }
+
+        // Linear PATH scan, only done on a miss
+        String search(String name) {
+            for (String dir : dirs) {
+                if (dir.isEmpty()) continue;
+                File file = new File(dir, name);
+                if (file.isFile() && file.canExecute()) {
+                    return file.getAbsolutePath();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Map<String, Table> tables = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Table> eldest) {
+            return size() > MAX_TABLES;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Resolve a command name to the absolute path of an executable on the session's PATH,
+     * or null if it cannot be found. Names containing '/' are never hashed.
+     */
+    static String lookup(String name) {
+        return lookup(name, sessionPath());
+    }
+
+    /** As above, on the given PATH. */
+    static String lookup(String name, String path) {
+        if (name.isEmpty() || name.indexOf('/') >= 0) return null;
+        Table table = table(path);
+
+        ShellEvents.PathResolved event = ShellEvents.pathResolved();
+
+        Entry e = table.entries.get(name);
+        if (e != null) {
+            e.hits.incrementAndGet();
+            hits.incrementAndGet();
+            resolved(event, name, e.path, true);
+            return e.path;
+        }
+
+        misses.incrementAndGet();
+        String found = table.search(name);
+        if (found != null) {
+            Entry fresh = new Entry(found);
+            fresh.hits.incrementAndGet();
+            table.entries.put(name, fresh);
+        }
+        resolved(event, name, found, false);
+        return found;
+    }
+
+    private static void resolved(ShellEvents.PathResolved event, String name, String path, boolean hit) {
+        if (event != null && event.shouldCommit()) {
+            event.command = name;
+            event.path = path;
+            event.hashHit = hit;
+            event.commit();
+        }
+    }
+
+    /** Drop a single entry of the session's PATH, e.g. after the hashed path failed to execute. */
+    static void forget(String name) {
+        table(sessionPath()).entries.remove(name);
+    }
+
+    /** Forget every location remembered for the session's PATH. */
+    static void clear() {
+        table(sessionPath()).entries.clear();
+    }
+
+    static long hits() {
+        return hits.get();
+    }
+
+    static long misses() {
+        return misses.get();
+    }
+
+    private static String sessionPath() {
+        String path = Session.current().getenv("PATH");
+        return path == null ? "" : path;
+    }
+
+    // The table for a PATH value, checked against its directories' mtimes
+    private static Table table(String path) {
+        Table table;
+        synchronized (tables) {
+            table = tables.computeIfAbsent(path, Table::new);
+        }
+        table.revalidate();
+        return table;
+    }
+
+    /**
+     * The `hash` builtin.
+     *   hash            list remembered commands with their hit counts
+     *   hash -r         forget all remembered locations
+     *   hash -t name..  print the remembered location of each name
+     *   hash -s         print table hit/miss counters
+     *   hash name..     look up and remember each name
+     * Returns the exit status.
+     */
+    static int builtin(List<String> cmd, PrintWriter out, PrintWriter err) {
+        Map<String, Entry> table = table(sessionPath()).entries;
+        if (cmd.size() == 1) {
+            synchronized (table) {
+                if (table.isEmpty()) {
+                    out.println("hash: hash table empty");
+                } else {
+                    out.println("hits\tcommand");
+                    for (Entry e : table.values()) {
+                        out.printf("%4d\t%s%n", e.hits.get(), e.path);
+                    }
+                }
+            }
+            out.flush();
+            return 0;
+        }
+
+        int status = 0;
+        String opt = cmd.get(1);
+        switch (opt) {
+            case "-r":
+                clear();
+                break;
+
+            case "-s":
+                out.println("hits " + hits() + " misses " + misses() + " entries " + table.size());
+                break;
+
+            case "-t":
+                if (cmd.size() < 3) {
+                    err.println("hash: -t: option requires an argument");
+                    status = 2;
+                    break;
+                }
+                for (int i = 2; i < cmd.size(); i++) {
+                    String name = cmd.get(i);
+                    Entry e = table.get(name);
+                    if (e == null) {
+                        err.println("hash: " + name + ": not found");
+                        status = 1;
+                    } else if (cmd.size() > 3) {
+                        out.println(name + "\t" + e.path);
+                    } else {
+                        out.println(e.path);
+                    }
+                }
+                break;
+
+            default:
+                for (int i = 1; i < cmd.size(); i++) {
+                    String name = cmd.get(i);
+                    if (Main.isBuiltin(name)) continue;
+                    if (lookup(name) == null) {
+                        err.println("hash: " + name + ": not found");
+                        status = 1;
+                    }
+                }
+                break;
+        }
+        out.flush();
+        return status;
+    }
+}
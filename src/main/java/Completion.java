@@ -0,0 +1,191 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import org.jline.reader.Candidate;
+import org.jline.reader.Completer;
+import org.jline.reader.CompletingParsedLine;
+import org.jline.reader.LineReader;
+import org.jline.reader.ParsedLine;
+import org.jline.reader.Parser;
+
+/**
+ * Tab completion at the prompt. A word in command position (first on the line or
+ * after | & ; ( ) completes to builtins and the executables in ExecutableIndex; any
+ * other word, and a command with a '/', to file names relative to the session's
+ * directory (`~/` is the home directory). Hidden files only show for a word starting
+ * with a dot.
+ *
+ * It is also JLine's parser, splitting words the way the shell does (quotes,
+ * backslashes and operators) so that the word under the cursor is the one replaced.
+ * It never asks for more input: the line is whatever was typed.
+ */
+final class Completion implements Completer, Parser {
+
+    /** The words of a line, and the one under the cursor. */
+    static final class Words implements CompletingParsedLine {
+        final String line;
+        final int cursor;
+        final List<String> words = new ArrayList<>();
+        int wordIndex = -1;
+        String word = "";
+        int wordCursor;
+        int rawStart;
+        int rawEnd;
+        char quote;           // the quote the cursor word starts with, if any
+        boolean command;      // whether the cursor word is in command position
+
+        Words(String line, int cursor) {
+            this.line = line;
+            this.cursor = cursor;
+            this.rawStart = cursor;
+            this.rawEnd = cursor;
+        }
+
+        @Override public String word() { return word; }
+        @Override public int wordCursor() { return wordCursor; }
+        @Override public int wordIndex() { return wordIndex; }
+        @Override public List<String> words() { return words; }
+        @Override public String line() { return line; }
+        @Override public int cursor() { return cursor; }
+        @Override public int rawWordCursor() { return cursor - rawStart; }
+        @Override public int rawWordLength() { return rawEnd - rawStart; }
+
+        @Override
+        public CharSequence escape(CharSequence candidate, boolean complete) {
+            String s = candidate.toString();
+            if (quote == '\'' && s.indexOf('\'') < 0) return "'" + s + (complete ? "'" : "");
+            StringBuilder sb = new StringBuilder();
+            if (quote == '"') sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (quote == '"' ? "\"\\$`".indexOf(c) >= 0 : " \t\\'\"$`&|;<>()*?[]#!{}".indexOf(c) >= 0) sb.append('\\');
+                sb.append(c);
+            }
+            if (quote == '"' && complete) sb.append('"');
+            return sb;
+        }
+    }
+
+    @Override
+    public ParsedLine parse(String line, int cursor, ParseContext context) {
+        Words w = new Words(line, cursor);
+        StringBuilder cur = null;
+        int start = 0;
+        char quote = 0;
+        char firstQuote = 0;
+        boolean escaped = false;
+        boolean commandNext = true;
+        boolean curCommand = false;
+        boolean atCursor = false;
+
+        for (int i = 0; ; i++) {
+            if (i == cursor && w.wordIndex < 0) {
+                if (cur != null) {
+                    atCursor = true;
+                    w.wordCursor = cur.length();
+                } else {
+                    // between words: complete an empty one here
+                    w.wordIndex = w.words.size();
+                    w.command = commandNext;
+                }
+            }
+            char c = i < line.length() ? line.charAt(i) : 0;
+            boolean end = i == line.length()
+                    || (!escaped && quote == 0 && (Character.isWhitespace(c) || "|&;()<>".indexOf(c) >= 0));
+            if (end) {
+                if (cur != null) {
+                    if (atCursor) {
+                        w.wordIndex = w.words.size();
+                        w.word = cur.toString();
+                        w.rawStart = start;
+                        w.rawEnd = i;
+                        w.quote = firstQuote;
+                        w.command = curCommand;
+                        atCursor = false;
+                    }
+                    w.words.add(cur.toString());
+                    cur = null;
+                    commandNext = false;
+                }
+                if (i == line.length()) break;
+                if ("|&;()".indexOf(c) >= 0) commandNext = true;
+                else if (c == '<' || c == '>') commandNext = false;
+                continue;
+            }
+            if (cur == null) {
+                cur = new StringBuilder();
+                start = i;
+                firstQuote = c == '\'' || c == '"' ? c : 0;
+                curCommand = commandNext;
+            }
+            if (escaped) {
+                cur.append(c);
+                escaped = false;
+            } else if (quote != 0) {
+                if (c == quote) quote = 0;
+                else if (c == '\\' && quote == '"') escaped = true;
+                else cur.append(c);
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else {
+                cur.append(c);
+            }
+        }
+        return w;
+    }
+
+    @Override
+    public void complete(LineReader reader, ParsedLine line, List<Candidate> candidates) {
+        String word = line.word().substring(0, line.wordCursor());
+        boolean command = line instanceof Words w && w.command;
+        if (command && word.indexOf('/') < 0) {
+            TreeSet<String> names = new TreeSet<>();
+            for (String b : Main.BUILTINS) {
+                if (b.startsWith(word)) names.add(b);
+            }
+            Session session = Session.current();
+            for (String f : session.functions.keySet()) {
+                if (f.startsWith(word)) names.add(f);
+            }
+            for (String a : session.aliases.keySet()) {
+                if (a.startsWith(word)) names.add(a);
+            }
+            ExecutableIndex.get().complete(word, names::add);
+            for (String name : names) candidates.add(new Candidate(name, name, null, null, null, null, true));
+            return;
+        }
+        files(word, command, candidates);
+    }
+
+    // Entries of the word's directory starting with its last component
+    private static void files(String word, boolean command, List<Candidate> candidates) {
+        Session session = Session.current();
+        int slash = word.lastIndexOf('/');
+        String dirPart = word.substring(0, slash + 1);
+        String prefix = word.substring(slash + 1);
+
+        String path = dirPart;
+        if (path.startsWith("~/")) {
+            String home = session.getenv("HOME");
+            path = (home != null ? home : System.getProperty("user.home")) + path.substring(1);
+        }
+        File dir = new File(path);
+        if (path.isEmpty()) dir = session.cwd;
+        else if (!dir.isAbsolute()) dir = new File(session.cwd, path);
+
+        String[] names = dir.list();
+        if (names == null) return;
+        for (String name : names) {
+            if (!name.startsWith(prefix) || (name.startsWith(".") && !prefix.startsWith("."))) continue;
+            File f = new File(dir, name);
+            boolean isDir = f.isDirectory();
+            // a command with a path can only be an executable (or a directory on the way to one)
+            if (command && !isDir && !f.canExecute()) continue;
+            String shown = isDir ? name + "/" : name;
+            candidates.add(new Candidate(dirPart + shown, shown, null, null, null, null, !isDir));
+        }
+    }
+}
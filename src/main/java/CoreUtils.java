@@ -0,0 +1,789 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * In-process versions of the coreutils most used in log-processing one-liners:
+ * cat, head, tail, wc, tee and grep.
+ *
+ * They are opt-in (`enable cat grep ...`) and only cover the common options; a command
+ * line using anything else is not claimed by {@link #handles} and runs the external
+ * binary as before. Data is read through NIO channels in 64 KiB chunks and lines are
+ * handled as byte ranges, so nothing is decoded unless a regex has to look at it.
+ */
+class CoreUtils {
+
+    static final List<String> NAMES = List.of("cat", "head", "tail", "wc", "tee", "grep");
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Parsed command line: single-letter flags, option values and operands. */
+    record Options(Set<Character> flags, Map<Character, String> values, List<String> operands) {
+        boolean has(char c) {
+            return flags.contains(c);
+        }
+    }
+
+    // Enabled names belong to the session, like the rest of the shell's state
+    private static Set<String> enabled() {
+        return Session.current().enabledUtils;
+    }
+
+    static boolean isEnabled(String name) {
+        return enabled().contains(name);
+    }
+
+    /** True if this command line can run in-process: the utility is enabled and all its options are supported. */
+    static boolean handles(List<String> argv) {
+        return !argv.isEmpty() && enabled().contains(argv.get(0)) && options(argv) != null;
+    }
+
+    /** Run a command line accepted by {@link #handles}; returns the exit status. */
+    static int run(List<String> argv, InputStream in, OutputStream out, OutputStream err) throws IOException {
+        Options o = options(argv);
+        PrintStream errors = new PrintStream(err, true);
+        return switch (argv.get(0)) {
+            case "cat" -> cat(o, in, out, errors);
+            case "head" -> head(o, in, out, errors);
+            case "tail" -> tail(o, in, out, errors);
+            case "wc" -> wc(o, in, out, errors);
+            case "tee" -> tee(o, in, out, errors);
+            case "grep" -> grep(o, in, out, errors);
+            default -> 127;
+        };
+    }
+
+    /**
+     * The `enable` builtin.
+     *   enable            list the enabled in-process utilities
+     *   enable -a         list all of them with their state
+     *   enable name..     use the in-process version of each name
+     *   enable -n name..  go back to the external binary
+     */
+    static int enable(List<String> argv, PrintWriter out, PrintWriter err) {
+        boolean disable = false, all = false;
+        int i = 1;
+        for (; i < argv.size() && argv.get(i).startsWith("-"); i++) {
+            switch (argv.get(i)) {
+                case "-n" -> disable = true;
+                case "-a" -> all = true;
+                default -> {
+                    err.println("enable: " + argv.get(i) + ": invalid option");
+                    return 2;
+                }
+            }
+        }
+
+        Set<String> enabled = enabled();
+        if (i == argv.size()) {
+            for (String name : NAMES) {
+                if (enabled.contains(name)) out.println("enable " + name);
+                else if (all) out.println("enable -n " + name);
+            }
+            return 0;
+        }
+
+        int status = 0;
+        for (; i < argv.size(); i++) {
+            String name = argv.get(i);
+            if (!NAMES.contains(name)) {
+                err.println("enable: " + name + ": not a shell builtin");
+                status = 1;
+            } else if (disable) {
+                enabled.remove(name);
+            } else {
+                enabled.add(name);
+            }
+        }
+        return status;
+    }
+
+    // ---- option parsing ----
+
+    private static Options options(List<String> argv) {
+        return switch (argv.get(0)) {
+            case "cat" -> getopt(argv, "u", "", false);
+            case "head" -> headOptions(argv);
+            case "tail" -> tailOptions(argv);
+            case "wc" -> getopt(argv, "lwc", "", false);
+            case "tee" -> getopt(argv, "a", "", false);
+            case "grep" -> grepOptions(argv);
+            default -> null;
+        };
+    }
+
+    // Negative counts (all but the last N), size suffixes (5K) and huge counts are left to the binary
+    private static Options headOptions(List<String> argv) {
+        Options o = getopt(argv, "qv", "nc", true);
+        if (o == null) return null;
+        for (String v : o.values().values()) {
+            if (!isCount(v)) return null;
+        }
+        return o;
+    }
+
+    // -n N or -n +N (from line N on); no -c
+    private static Options tailOptions(List<String> argv) {
+        Options o = getopt(argv, "qv", "n", true);
+        if (o == null) return null;
+        String n = o.values().get('n');
+        if (n != null && !isCount(n.startsWith("+") || n.startsWith("-") ? n.substring(1) : n)) return null;
+        return o;
+    }
+
+    /**
+     * Minimal getopt: combined flags (-in), attached or separate values (-n5, -n 5),
+     * "--" and "-" (stdin). Returns null for anything not listed, including long options,
+     * and for an option with a value given twice (grep -e a -e b has two patterns).
+     * With numericShorthand, -5 means -n 5 (head/tail).
+     */
+    private static Options getopt(List<String> argv, String flags, String valued, boolean numericShorthand) {
+        Set<Character> set = new HashSet<>();
+        Map<Character, String> values = new HashMap<>();
+        List<String> operands = new ArrayList<>();
+
+        int i = 1;
+        for (; i < argv.size(); i++) {
+            String a = argv.get(i);
+            if (a.equals("--")) {
+                i++;
+                break;
+            }
+            if (!a.startsWith("-") || a.equals("-")) {
+                operands.add(a);
+                continue;
+            }
+            if (a.startsWith("--")) return null;
+
+            if (numericShorthand && isNumber(a.substring(1))) {
+                if (values.put('n', a.substring(1)) != null) return null;
+                continue;
+            }
+
+            for (int j = 1; j < a.length(); j++) {
+                char c = a.charAt(j);
+                if (valued.indexOf(c) >= 0) {
+                    String v;
+                    if (j + 1 < a.length()) v = a.substring(j + 1);
+                    else if (i + 1 < argv.size()) v = argv.get(++i);
+                    else return null;
+                    if (values.put(c, v) != null) return null;
+                    break;
+                }
+                if (flags.indexOf(c) < 0) return null;
+                set.add(c);
+            }
+        }
+        for (; i < argv.size(); i++) operands.add(argv.get(i));
+        return new Options(set, values, operands);
+    }
+
+    // A number that fits a long
+    private static boolean isCount(String s) {
+        return isNumber(s) && s.length() <= 18;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    // ---- input helpers ----
+
+    /** Open an operand: "-" is stdin, anything else a file relative to the current directory. */
+    private static ReadableByteChannel open(String operand, InputStream in) throws IOException {
+        if (operand.equals("-")) {
+            // stdin redirected from a file: its channel can be transferred from and seeked
+            if (in instanceof FileInputStream fis && fis.getChannel().isOpen()) return fis.getChannel();
+            return new StreamChannel(in);
+        }
+        Path p = path(operand);
+        if (Files.isDirectory(p)) throw new IOException("Is a directory");
+        try {
+            return FileChannel.open(p, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new IOException("No such file or directory");
+        } catch (AccessDeniedException e) {
+            throw new IOException("Permission denied");
+        }
+    }
+
+    /**
+     * Channel over a pipe or stdin stream. Unlike Channels.newChannel it reads straight
+     * into the (heap) buffer and holds no monitor while blocked, so a stage waiting on a
+     * {@link BoundedPipe} does not pin its carrier thread.
+     */
+    private static final class StreamChannel implements ReadableByteChannel {
+        private final InputStream in;
+        private boolean open = true;
+
+        StreamChannel(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) return 0;
+            int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) dst.position(dst.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        // The stream belongs to the caller (stdin or a pipeline stage), it is not closed here
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    private static Path path(String operand) {
+        Path p = Paths.get(operand);
+        return p.isAbsolute() ? p : Session.current().cwd.toPath().resolve(p);
+    }
+
+    private static List<String> operandsOrStdin(Options o) {
+        return o.operands().isEmpty() ? List.of("-") : o.operands();
+    }
+
+    /** Receives one line as buf[start, end) including its '\n' if there is one; false stops reading. */
+    interface LineSink {
+        boolean line(byte[] buf, int start, int end) throws IOException;
+    }
+
+    /** Split a channel into lines without decoding; the buffer grows only for lines longer than it. */
+    static void forEachLine(ReadableByteChannel ch, LineSink sink) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            int n = ch.read(bb);
+            byte[] buf = bb.array();
+            int limit = bb.position();
+            int start = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    if (!sink.line(buf, start, i + 1)) return;
+                    start = i + 1;
+                }
+            }
+            if (n == -1) {
+                if (start < limit) sink.line(buf, start, limit);
+                return;
+            }
+            // keep the unfinished line at the front
+            int rest = limit - start;
+            if (start == 0 && rest == buf.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(buf.length * 2);
+                bigger.put(buf, 0, rest);
+                bb = bigger;
+            } else {
+                System.arraycopy(buf, start, buf, 0, rest);
+                bb.position(rest);
+            }
+        }
+    }
+
+    /**
+     * Copy the rest of a channel to out. From a file into a redirected file or the shell's
+     * stdout this is a transferTo (copy_file_range/sendfile), so the data never enters the
+     * heap; anything the file size didn't account for (e.g. /proc files) is read normally.
+     */
+    static void copy(ReadableByteChannel ch, OutputStream out) throws IOException {
+        if (ch instanceof FileChannel fc) {
+            WritableByteChannel target = transferTarget(out);
+            if (target != null) {
+                long pos = fc.position();
+                long size = fc.size();
+                while (pos < size) {
+                    long n = fc.transferTo(pos, size - pos, target);
+                    if (n <= 0) break;
+                    pos += n;
+                }
+                fc.position(pos);
+            }
+        }
+
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+        while (ch.read(bb) != -1) {
+            out.write(bb.array(), 0, bb.position());
+            bb.clear();
+        }
+    }
+
+    // Channel behind out that file data can be transferred into, or null
+    private static WritableByteChannel transferTarget(OutputStream out) throws IOException {
+        if (out instanceof Redirections.FileSink sink) return sink.channel();
+        if (ShellOutput.isStdout(out)) return ShellOutput.channel();
+        return null;
+    }
+
+    // ---- cat ----
+
+    private static int cat(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        int status = 0;
+        boolean discard = out == Redirections.DISCARDED;
+        for (String f : operandsOrStdin(o)) {
+            try (ReadableByteChannel ch = open(f, in)) {
+                // a file copied nowhere only needs opening; a pipe is still drained
+                if (!discard || !(ch instanceof FileChannel)) copy(ch, out);
+            } catch (IOException e) {
+                if (isBrokenPipe(e)) throw e;
+                err.println("cat: " + f + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        out.flush();
+        return status;
+    }
+
+    // ---- head ----
+
+    private static int head(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        // counts were checked by headOptions
+        long lines = 10, bytes = -1;
+        if (o.values().containsKey('c')) bytes = Long.parseLong(o.values().get('c'));
+        else if (o.values().containsKey('n')) lines = Long.parseLong(o.values().get('n'));
+
+        List<String> files = operandsOrStdin(o);
+        boolean headers = o.has('v') || (files.size() > 1 && !o.has('q'));
+        int status = 0;
+        boolean first = true;
+
+        for (String f : files) {
+            ReadableByteChannel ch;
+            try {
+                ch = open(f, in);
+            } catch (IOException e) {
+                err.println("head: cannot open '" + f + "' for reading: " + e.getMessage());
+                status = 1;
+                continue;
+            }
+            if (headers) {
+                out.write(((first ? "" : "\n") + "==> " + (f.equals("-") ? "standard input" : f) + " <==\n").getBytes(StandardCharsets.UTF_8));
+            }
+            first = false;
+
+            try (ch) {
+                if (bytes >= 0) {
+                    ByteBuffer bb = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(bytes, 1)));
+                    long left = bytes;
+                    while (left > 0) {
+                        bb.clear();
+                        bb.limit((int) Math.min(bb.capacity(), left));
+                        int n = ch.read(bb);
+                        if (n == -1) break;
+                        out.write(bb.array(), 0, n);
+                        left -= n;
+                    }
+                } else if (lines > 0) {
+                    long[] left = {lines};
+                    forEachLine(ch, (buf, s, e) -> {
+                        out.write(buf, s, e - s);
+                        return --left[0] > 0;
+                    });
+                }
+            }
+        }
+        out.flush();
+        return status;
+    }
+
+    // ---- tail ----
+
+    private static int tail(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        String spec = o.values().getOrDefault('n', "10");
+        boolean fromStart = spec.startsWith("+");
+        // checked by tailOptions; -n -N is -n N
+        long n = Math.abs(Long.parseLong(fromStart ? spec.substring(1) : spec));
+
+        List<String> files = operandsOrStdin(o);
+        boolean headers = o.has('v') || (files.size() > 1 && !o.has('q'));
+        int status = 0;
+        boolean first = true;
+
+        for (String f : files) {
+            ReadableByteChannel ch;
+            try {
+                ch = open(f, in);
+            } catch (IOException e) {
+                err.println("tail: cannot open '" + f + "' for reading: " + e.getMessage());
+                status = 1;
+                continue;
+            }
+            if (headers) {
+                out.write(((first ? "" : "\n") + "==> " + (f.equals("-") ? "standard input" : f) + " <==\n").getBytes(StandardCharsets.UTF_8));
+            }
+            first = false;
+
+            try (ch) {
+                if (fromStart) {
+                    long[] skip = {Math.max(n - 1, 0)};
+                    forEachLine(ch, (buf, s, e) -> {
+                        if (skip[0] > 0) skip[0]--;
+                        else out.write(buf, s, e - s);
+                        return true;
+                    });
+                } else if (ch instanceof FileChannel fc) {
+                    tailFile(fc, n, out);
+                } else {
+                    tailStream(ch, n, out);
+                }
+            }
+        }
+        out.flush();
+        return status;
+    }
+
+    // Regular file: read backwards from the end until n line breaks are found
+    private static void tailFile(FileChannel fc, long n, OutputStream out) throws IOException {
+        long size = fc.size();
+        if (n == 0 || size == 0) return;
+
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+        long pos = size;
+        long start = 0;
+        long newlines = 0;
+        boolean skipLast = true; // a trailing '\n' ends the last line, it does not start one
+
+        search:
+        while (pos > 0) {
+            int len = (int) Math.min(bb.capacity(), pos);
+            pos -= len;
+            bb.clear();
+            bb.limit(len);
+            while (bb.hasRemaining() && fc.read(bb, pos + bb.position()) != -1) {}
+            byte[] buf = bb.array();
+            for (int i = len - 1; i >= 0; i--) {
+                if (buf[i] != '\n') continue;
+                if (skipLast && pos + i == size - 1) continue;
+                if (++newlines == n) {
+                    start = pos + i + 1;
+                    break search;
+                }
+            }
+            skipLast = false;
+        }
+
+        fc.position(start);
+        copy(fc, out);
+    }
+
+    // Pipe: keep only the last n lines in a ring
+    private static void tailStream(ReadableByteChannel ch, long n, OutputStream out) throws IOException {
+        if (n == 0) {
+            forEachLine(ch, (buf, s, e) -> true);
+            return;
+        }
+        int cap = (int) Math.min(n, Integer.MAX_VALUE - 8);
+        ArrayDeque<byte[]> ring = new ArrayDeque<>(Math.min(cap, 1024));
+        forEachLine(ch, (buf, s, e) -> {
+            if (ring.size() == cap) ring.removeFirst();
+            ring.addLast(Arrays.copyOfRange(buf, s, e));
+            return true;
+        });
+        for (byte[] line : ring) out.write(line);
+    }
+
+    // ---- wc ----
+
+    private static int wc(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        boolean lines = o.has('l'), words = o.has('w'), bytes = o.has('c');
+        if (!lines && !words && !bytes) lines = words = bytes = true;
+
+        List<String> files = operandsOrStdin(o);
+        List<long[]> counts = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        long[] total = new long[3];
+        int status = 0;
+        long regularTotal = 0;
+        boolean nonRegular = false;
+
+        for (String f : files) {
+            try (ReadableByteChannel ch = open(f, in)) {
+                if (ch instanceof FileChannel fc) regularTotal += fc.size();
+                else nonRegular = true;
+
+                long[] c = count(ch, words);
+                counts.add(c);
+                names.add(f.equals("-") && o.operands().isEmpty() ? null : f);
+                for (int i = 0; i < 3; i++) total[i] += c[i];
+            } catch (IOException e) {
+                if (isBrokenPipe(e)) throw e;
+                err.println("wc: " + f + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+
+        // Column width as GNU wc computes it
+        int width = 1;
+        int selected = (lines ? 1 : 0) + (words ? 1 : 0) + (bytes ? 1 : 0);
+        if (!(selected == 1 && files.size() == 1)) {
+            for (long t = regularTotal; t >= 10; t /= 10) width++;
+            if (nonRegular && width < 7) width = 7;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.size(); i++) {
+            appendCounts(sb, counts.get(i), lines, words, bytes, width, names.get(i));
+        }
+        if (files.size() > 1) appendCounts(sb, total, lines, words, bytes, width, "total");
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return status;
+    }
+
+    // {lines, words, bytes}
+    private static long[] count(ReadableByteChannel ch, boolean countWords) throws IOException {
+        long lines = 0, words = 0, bytes = 0;
+        boolean inWord = false;
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+        int n;
+        while ((n = ch.read(bb)) != -1) {
+            byte[] buf = bb.array();
+            bytes += n;
+            for (int i = 0; i < n; i++) {
+                byte b = buf[i];
+                if (b == '\n') lines++;
+                if (countWords) {
+                    boolean space = b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == 0x0b || b == '\f';
+                    if (space) inWord = false;
+                    else if (!inWord) {
+                        inWord = true;
+                        words++;
+                    }
+                }
+            }
+            bb.clear();
+        }
+        return new long[] {lines, words, bytes};
+    }
+
+    private static void appendCounts(StringBuilder sb, long[] c, boolean lines, boolean words, boolean bytes, int width, String name) {
+        int start = sb.length();
+        if (lines) pad(sb, c[0], width, start);
+        if (words) pad(sb, c[1], width, start);
+        if (bytes) pad(sb, c[2], width, start);
+        if (name != null) sb.append(' ').append(name);
+        sb.append('\n');
+    }
+
+    private static void pad(StringBuilder sb, long v, int width, int lineStart) {
+        if (sb.length() > lineStart) sb.append(' ');
+        String s = Long.toString(v);
+        for (int i = s.length(); i < width; i++) sb.append(' ');
+        sb.append(s);
+    }
+
+    // ---- tee ----
+
+    private static int tee(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        List<OutputStream> sinks = new ArrayList<>();
+        int status = 0;
+        try {
+            for (String f : o.operands()) {
+                try {
+                    sinks.add(new BufferedOutputStream(new FileOutputStream(path(f).toFile(), o.has('a')), BUFFER_SIZE));
+                } catch (FileNotFoundException e) {
+                    err.println("tee: " + f + ": No such file or directory");
+                    status = 1;
+                }
+            }
+
+            ReadableByteChannel ch = new StreamChannel(in);
+            ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+            int n;
+            while ((n = ch.read(bb)) != -1) {
+                out.write(bb.array(), 0, n);
+                for (OutputStream s : sinks) s.write(bb.array(), 0, n);
+                // a pipe reader may be waiting for this chunk
+                out.flush();
+                bb.clear();
+            }
+        } finally {
+            for (OutputStream s : sinks) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+        return status;
+    }
+
+    // ---- grep ----
+
+    private static Options grepOptions(List<String> argv) {
+        Options o = getopt(argv, "FEGivcnqlhHx", "e", false);
+        if (o == null) return null;
+        if (!o.values().containsKey('e') && o.operands().isEmpty()) return null;
+        String pattern = o.values().containsKey('e') ? o.values().get('e') : o.operands().get(0);
+        return matcherFor(pattern, o) == null ? null : o;
+    }
+
+    /** Line predicate for the pattern, or null if this pattern needs the real grep. */
+    private static LinePredicate matcherFor(String pattern, Options o) {
+        boolean ignoreCase = o.has('i');
+        boolean whole = o.has('x');
+        boolean fixed = o.has('F') || !hasRegexChars(pattern, o.has('E'));
+
+        if (fixed && !ignoreCase && !whole) {
+            byte[] needle = pattern.getBytes(StandardCharsets.UTF_8);
+            return (buf, s, e) -> indexOf(buf, s, e, needle) >= 0;
+        }
+
+        String regex;
+        if (fixed) regex = Pattern.quote(pattern);
+        else if (o.has('E')) regex = ereToJava(pattern);
+        else regex = breToJava(pattern);
+        if (regex == null) return null;
+
+        try {
+            Pattern p = Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            return (buf, s, e) -> {
+                int end = (e > s && buf[e - 1] == '\n') ? e - 1 : e;
+                String line = new String(buf, s, end - s, StandardCharsets.UTF_8);
+                return whole ? p.matcher(line).matches() : p.matcher(line).find();
+            };
+        } catch (PatternSyntaxException ex) {
+            return null;
+        }
+    }
+
+    interface LinePredicate {
+        boolean test(byte[] buf, int start, int end);
+    }
+
+    private static boolean hasRegexChars(String p, boolean extended) {
+        String special = extended ? ".[]*^$\\+?|(){}" : ".[]*^$\\";
+        for (int i = 0; i < p.length(); i++) {
+            if (special.indexOf(p.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    // POSIX classes, back-references and word anchors are left to the real grep
+    private static boolean portable(String p) {
+        return !p.contains("[:") && !p.contains("\\<") && !p.contains("\\>") && !p.contains("\\b")
+                && !p.matches(".*\\\\[0-9wWsS].*");
+    }
+
+    private static String ereToJava(String p) {
+        return portable(p) ? p : null;
+    }
+
+    // In a BRE, + ? | ( ) { } are literal and their escaped forms are operators, and ^ and $
+    // only anchor at the start and the end of the pattern
+    private static String breToJava(String p) {
+        if (!portable(p) || p.startsWith("*") || p.startsWith("^*")) return null;
+        StringBuilder sb = new StringBuilder();
+        boolean inBracket = false;
+        for (int i = 0; i < p.length(); i++) {
+            char c = p.charAt(i);
+            if (inBracket) {
+                if (c == ']') inBracket = false;
+                sb.append(c);
+                continue;
+            }
+            if (c == '\\') {
+                if (i + 1 >= p.length()) return null;
+                char next = p.charAt(++i);
+                if ("(){}|+?".indexOf(next) >= 0) return null; // GNU BRE extensions
+                sb.append('\\').append(next);
+                continue;
+            }
+            if (c == '[') {
+                inBracket = true;
+                sb.append(c);
+                if (i + 1 < p.length() && p.charAt(i + 1) == ']') sb.append(p.charAt(++i));
+                continue;
+            }
+            if ("+?|(){}".indexOf(c) >= 0 || (c == '^' && i > 0) || (c == '$' && i < p.length() - 1)) {
+                sb.append('\\').append(c);
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte[] needle) {
+        if (needle.length == 0) return start;
+        byte first = needle[0];
+        int last = end - needle.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            if (buf[i] != first) continue;
+            for (int j = 1; j < needle.length; j++) {
+                if (buf[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int grep(Options o, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        List<String> operands = new ArrayList<>(o.operands());
+        String pattern = o.values().containsKey('e') ? o.values().get('e') : operands.remove(0);
+        LinePredicate matcher = matcherFor(pattern, o);
+        boolean invert = o.has('v'), count = o.has('c'), quiet = o.has('q'), listFiles = o.has('l'), numbers = o.has('n');
+
+        List<String> files = operands.isEmpty() ? List.of("-") : operands;
+        boolean prefix = o.has('H') || (files.size() > 1 && !o.has('h'));
+        boolean matched = false, failed = false;
+
+        for (String f : files) {
+            String label = f.equals("-") ? "(standard input)" : f;
+            byte[] labelBytes = (label + ":").getBytes(StandardCharsets.UTF_8);
+            long[] state = {0, 0}; // line number, matching lines
+
+            try (ReadableByteChannel ch = open(f, in)) {
+                forEachLine(ch, (buf, s, e) -> {
+                    state[0]++;
+                    if (matcher.test(buf, s, e) == invert) return true;
+                    state[1]++;
+                    if (quiet || listFiles) return false;
+                    if (count) return true;
+                    if (prefix) out.write(labelBytes);
+                    if (numbers) out.write((state[0] + ":").getBytes(StandardCharsets.US_ASCII));
+                    out.write(buf, s, e - s);
+                    if (buf[e - 1] != '\n') out.write('\n');
+                    return true;
+                });
+            } catch (IOException e) {
+                if (isBrokenPipe(e)) throw e;
+                err.println("grep: " + f + ": " + e.getMessage());
+                failed = true;
+                continue;
+            }
+
+            if (state[1] > 0) matched = true;
+            if (quiet && matched) break;
+            if (listFiles && state[1] > 0) out.write((label + "\n").getBytes(StandardCharsets.UTF_8));
+            if (count) {
+                if (prefix) out.write(labelBytes);
+                out.write((state[1] + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        out.flush();
+        if (quiet && matched) return 0;
+        if (failed) return 2;
+        return matched ? 0 : 1;
+    }
+
+    // ---- misc ----
+
+    private static boolean isBrokenPipe(IOException e) {
+        String m = e.getMessage();
+        return m != null && (m.contains("Broken pipe") || m.contains("Stream closed"));
+    }
+}
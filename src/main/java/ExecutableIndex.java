@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The names of the executables on PATH in a prefix trie, for completing command names.
+ *
+ * Built on a background thread when the line editor starts, then kept up to date
+ * rather than rebuilt: a WatchService reports files created, deleted or chmod'ed in
+ * the PATH directories, and when PATH itself changes only the directories new to it
+ * are scanned and the ones gone from it dropped. A completion walks down the prefix
+ * and over the names below it, so it costs the same with ten thousand executables
+ * elsewhere on PATH. Until a directory has been scanned its commands just don't
+ * complete yet.
+ */
+final class ExecutableIndex {
+
+    private static final class Instance {
+        static final ExecutableIndex INDEX = new ExecutableIndex();
+    }
+
+    static ExecutableIndex get() {
+        return Instance.INDEX;
+    }
+
+    private static final class Node {
+        char[] keys = {};
+        Node[] children = {};
+        int count;   // PATH directories with an executable of exactly this name
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node root = new Node();
+    // PATH directory -> the names from it in the trie (empty until scanned)
+    private final Map<String, Set<String>> dirs = new HashMap<>();
+    private final Map<String, WatchKey> keys = new HashMap<>();
+    private final Map<WatchKey, String> watched = new HashMap<>();
+    private WatchService watcher;
+    private String pathValue;
+
+    private ExecutableIndex() {}
+
+    /** Follow $PATH: scan directories new to it in the background, drop those gone from it. */
+    void sync() {
+        sync(Session.current().getenv("PATH"));
+    }
+
+    private void sync(String path) {
+        if (path == null) path = "";
+        List<String> added = new ArrayList<>();
+        lock.lock();
+        try {
+            if (path.equals(pathValue)) return;
+            pathValue = path;
+            Set<String> now = new LinkedHashSet<>(Arrays.asList(path.split(":")));
+            now.remove("");
+            for (String dir : new ArrayList<>(dirs.keySet())) {
+                if (!now.contains(dir)) drop(dir);
+            }
+            for (String dir : now) {
+                if (dirs.putIfAbsent(dir, new HashSet<>()) == null) added.add(dir);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!added.isEmpty()) {
+            Main.io().execute(() -> {
+                for (String dir : added) {
+                    watch(dir);
+                    scan(dir);
+                }
+            });
+        }
+    }
+
+    /** Pass every indexed executable name starting with prefix to out, in order. */
+    void complete(String prefix, Consumer<String> out) {
+        sync();
+        names(prefix, out);
+    }
+
+    private void names(String prefix, Consumer<String> out) {
+        lock.lock();
+        try {
+            Node n = root;
+            for (int i = 0; i < prefix.length() && n != null; i++) n = child(n, prefix.charAt(i));
+            if (n != null) collect(n, new StringBuilder(prefix), out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- directories
+
+    // Make the trie agree with the directory's listing (first scan, or events were lost)
+    private void scan(String dir) {
+        Set<String> found = new HashSet<>();
+        File[] files = new File(dir).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && f.canExecute()) found.add(f.getName());
+            }
+        }
+        lock.lock();
+        try {
+            Set<String> have = dirs.get(dir);
+            if (have == null) return;   // left PATH meanwhile
+            for (Iterator<String> it = have.iterator(); it.hasNext(); ) {
+                String name = it.next();
+                if (!found.contains(name)) {
+                    it.remove();
+                    remove(name);
+                }
+            }
+            for (String name : found) {
+                if (have.add(name)) insert(name);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One file in a watched directory appeared, disappeared or changed mode
+    private void update(String dir, String name) {
+        File f = new File(dir, name);
+        boolean executable = f.isFile() && f.canExecute();
+        lock.lock();
+        try {
+            Set<String> have = dirs.get(dir);
+            if (have == null) return;
+            if (executable && have.add(name)) insert(name);
+            else if (!executable && have.remove(name)) remove(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void drop(String dir) {
+        for (String name : dirs.remove(dir)) remove(name);
+        WatchKey key = keys.remove(dir);
+        if (key != null) {
+            key.cancel();
+            watched.remove(key);
+        }
+    }
+
+    // Registered before the directory is listed, so nothing created in between is missed
+    private void watch(String dir) {
+        try {
+            WatchService service;
+            lock.lock();
+            try {
+                if (watcher == null) {
+                    watcher = FileSystems.getDefault().newWatchService();
+                    Main.io().execute(this::events);
+                }
+                service = watcher;
+            } finally {
+                lock.unlock();
+            }
+            WatchKey key = Path.of(dir).register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            lock.lock();
+            try {
+                if (dirs.containsKey(dir)) {
+                    keys.put(dir, key);
+                    watched.put(key, dir);
+                } else {
+                    key.cancel();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            // not a directory, or no watching here: it is indexed as scanned
+        }
+    }
+
+    private void events() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String dir;
+            lock.lock();
+            try {
+                dir = watched.get(key);
+            } finally {
+                lock.unlock();
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (dir == null) continue;
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) scan(dir);
+                else update(dir, event.context().toString());
+            }
+            if (!key.reset() && dir != null) {
+                // the directory itself went away
+                scan(dir);
+            }
+        }
+    }
+
+    // ---- trie (lock held)
+
+    private static Node child(Node n, char c) {
+        int i = Arrays.binarySearch(n.keys, c);
+        return i >= 0 ? n.children[i] : null;
+    }
+
+    private void insert(String name) {
+        Node n = root;
+        for (int k = 0; k < name.length(); k++) {
+            char c = name.charAt(k);
+            int i = Arrays.binarySearch(n.keys, c);
+            if (i < 0) {
+                i = -i - 1;
+                char[] keys = new char[n.keys.length + 1];
+                Node[] children = new Node[keys.length];
+                System.arraycopy(n.keys, 0, keys, 0, i);
+                System.arraycopy(n.children, 0, children, 0, i);
+                System.arraycopy(n.keys, i, keys, i + 1, n.keys.length - i);
+                System.arraycopy(n.children, i, children, i + 1, n.keys.length - i);
+                keys[i] = c;
+                children[i] = new Node();
+                n.keys = keys;
+                n.children = children;
+            }
+            n = n.children[i];
+        }
+        n.count++;
+    }
+
+    private void remove(String name) {
+        remove(root, name, 0);
+    }
+
+    // Returns whether n is left with nothing, so the parent can unlink it
+    private static boolean remove(Node n, String name, int depth) {
+        if (depth == name.length()) {
+            if (n.count > 0) n.count--;
+        } else {
+            int i = Arrays.binarySearch(n.keys, name.charAt(depth));
+            if (i < 0) return false;
+            if (remove(n.children[i], name, depth + 1)) {
+                char[] keys = new char[n.keys.length - 1];
+                Node[] children = new Node[keys.length];
+                System.arraycopy(n.keys, 0, keys, 0, i);
+                System.arraycopy(n.children, 0, children, 0, i);
+                System.arraycopy(n.keys, i + 1, keys, i, keys.length - i);
+                System.arraycopy(n.children, i + 1, children, i, keys.length - i);
+                n.keys = keys;
+                n.children = children;
+            }
+        }
+        return n.count == 0 && n.keys.length == 0;
+    }
+
+    private static void collect(Node n, StringBuilder name, Consumer<String> out) {
+        if (n.count > 0) out.accept(name.toString());
+        for (int i = 0; i < n.keys.length; i++) {
+            name.append(n.keys[i]);
+            collect(n.children[i], name, out);
+            name.setLength(name.length() - 1);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calls of shell functions (name() { ...; }) and `return`.
+ *
+ * The body was parsed once, when the definition ran, and is kept in the session as an
+ * immutable tree: a call runs that tree, so nothing is tokenized again however often the
+ * function is called, and it dispatches in-process like a builtin.
+ *
+ * A plain call runs in the shell itself, so cd and assignments in the body stay; only
+ * $1... are the call's own. A call with redirections or NAME=value prefixes, in the
+ * background, or as a pipeline stage runs in a subshell copy of the session (see
+ * Session.subshell) with the call's streams, as bash runs pipeline stages.
+ */
+final class Functions {
+
+    private Functions() {}
+
+    // Deeper than this is a function calling itself without end
+    private static final int MAX_DEPTH = 1000;
+
+    /** Call f for a simple command: argv[0] is its name, the rest its parameters. */
+    static int call(Ast.Function f, List<String> argv, Redirections redirections, Map<String, String> environment) {
+        Session session = Session.current();
+        if (redirections == Redirections.NONE && environment.isEmpty() && !Jobs.inBackground()) {
+            return invoke(session, f, argv);
+        }
+        Jobs.launched();
+        try (redirections) {
+            InputStream in = redirections.stdin(Jobs.inBackground() ? InputStream.nullInputStream() : session.commandInput());
+            OutputStream out = redirections.stdout(ShellOutput.adaptive(), session.err());
+            OutputStream err = redirections.stderr(ShellOutput.adaptive(), session.err());
+            return call(f, argv, environment, in, out, err);
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    /** Call f in a subshell reading in and writing to out and err. */
+    static int call(Ast.Function f, List<String> argv, Map<String, String> environment,
+                    InputStream in, OutputStream out, OutputStream err) {
+        Session session = Session.current();
+        PrintStream o = printStream(out, session);
+        PrintStream e = printStream(err, session);
+        Session sub = session.subshell(in, o, e);
+        environment.forEach(sub::setVariable);
+        int status = sub.run(() -> {
+            try {
+                return invoke(sub, f, argv);
+            } catch (Session.Exit x) {
+                return x.status;
+            }
+        });
+        o.flush();
+        e.flush();
+        return status;
+    }
+
+    private static int invoke(Session session, Ast.Function f, List<String> argv) {
+        if (session.calls >= MAX_DEPTH) {
+            session.err().println(f.name() + ": maximum function nesting level exceeded (" + MAX_DEPTH + ")");
+            return 1;
+        }
+        List<String> saved = session.positional;
+        int loops = session.loops;
+        session.positional = List.copyOf(argv.subList(1, argv.size()));
+        session.calls++;
+        // the caller's loops are out of reach of break and continue
+        session.loops = 0;
+        try {
+            Main.run(f.body());
+            return session.lastStatus;
+        } catch (Session.Return r) {
+            return r.status;
+        } finally {
+            session.calls--;
+            session.loops = loops;
+            session.positional = saved;
+        }
+    }
+
+    // The session's own streams stay as they are; a builtin's PrintStream is flushed by call
+    private static PrintStream printStream(OutputStream out, Session session) {
+        if (ShellOutput.isStdout(out)) return session.out();
+        if (out instanceof PrintStream ps) return ps;
+        return new PrintStream(out, false);
+    }
+
+    /** `return [n]`: leaves the function being called with n, or else $?. */
+    static int ret(List<String> argv) {
+        Session session = Session.current();
+        if (session.calls == 0) {
+            session.err().println("return: can only `return' from a function");
+            return 1;
+        }
+        int status = session.lastStatus;
+        if (argv.size() > 1) {
+            try {
+                status = Integer.parseInt(argv.get(1));
+            } catch (NumberFormatException e) {
+                session.err().println("return: " + argv.get(1) + ": numeric argument required");
+                status = 2;
+            }
+        }
+        throw new Session.Return(status & 0xff);
+    }
+}
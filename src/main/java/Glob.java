@@ -0,0 +1,289 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Pathname expansion: `*`, `?`, `[...]` (`[!...]` negated) and `**` for any number of
+ * directories, relative to the session's directory. In a pattern, `\c` is the
+ * character c itself; Main escapes what was quoted on the command line that way.
+ *
+ * Each component is compiled to a regex once and matched against a DirectoryStream,
+ * so a huge directory is read as a stream and only its matches are kept and sorted.
+ * Listings of directories up to MAX_CACHED entries are remembered for a few seconds,
+ * checked against the directory's mtime, so a script globbing the same directory over
+ * and over reads it once. With a wildcard before the last component the matching
+ * subdirectories are walked in parallel on the fork-join pool.
+ */
+final class Glob {
+
+    private Glob() {}
+
+    private static final int MAX_CACHED = 4096;
+    private static final int MAX_DIRECTORIES = 256;
+    private static final long TTL_MILLIS = 5_000;
+    // A directory changed this recently may change again without its mtime moving
+    private static final long RACY_MILLIS = 1_000;
+
+    private static final class Listing {
+        final FileTime modified;
+        final long listed;
+        final String[] names;
+        volatile List<String> directories;   // those ** descends into, once it has asked
+
+        Listing(FileTime modified, long listed, String[] names) {
+            this.modified = modified;
+            this.listed = listed;
+            this.names = names;
+        }
+    }
+
+    private static final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+
+    /**
+     * Add the sorted paths matching pattern to out; false, with nothing added, when it
+     * matches nothing or has no wildcard at all.
+     */
+    static boolean expand(String pattern, File cwd, List<String> out) {
+        if (!isPattern(pattern)) return false;
+        boolean absolute = pattern.startsWith("/");
+        boolean dirsOnly = pattern.endsWith("/");
+        List<String> components = new ArrayList<>();
+        for (String c : pattern.split("/")) {
+            if (!c.isEmpty()) components.add(c);
+        }
+        if (components.isEmpty()) return false;
+
+        Walk walk = new Walk(components, dirsOnly, absolute ? Path.of("/") : cwd.toPath(), absolute ? "/" : "", 0);
+        // one directory to read: no point handing it to another thread
+        boolean deep = false;
+        for (int i = 0; i < components.size() - 1; i++) deep |= isPattern(components.get(i));
+        List<String> found = deep ? ForkJoinPool.commonPool().invoke(walk) : walk.walk();
+        if (found.isEmpty()) return false;
+        Collections.sort(found);
+        out.addAll(found);
+        return true;
+    }
+
+    /** True if the text has an unescaped `*` or `?`, or a `[` with its `]`. */
+    static boolean isPattern(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '*' || c == '?') return true;
+            else if (c == '[' && classEnd(s, i) > 0) return true;
+        }
+        return false;
+    }
+
+    // Matching the pattern's components from index on, below dir
+    private static final class Walk extends RecursiveTask<List<String>> {
+        private final List<String> components;
+        private final boolean dirsOnly;
+        private final Path dir;
+        private final String prefix;   // how dir is written in the results ("", "/" or ending with '/')
+        private final int index;
+
+        Walk(List<String> components, boolean dirsOnly, Path dir, String prefix, int index) {
+            this.components = components;
+            this.dirsOnly = dirsOnly;
+            this.dir = dir;
+            this.prefix = prefix;
+            this.index = index;
+        }
+
+        @Override
+        protected List<String> compute() {
+            return walk();
+        }
+
+        List<String> walk() {
+            List<String> found = new ArrayList<>();
+            List<Walk> below = new ArrayList<>();
+            String component = components.get(index);
+            boolean last = index == components.size() - 1;
+
+            if (component.equals("**")) {
+                // no directory at all, then every directory below and its subdirectories
+                if (!last) below.add(new Walk(components, dirsOnly, dir, prefix, index + 1));
+                else if (!dirsOnly) list(dir, null, false, name -> found.add(prefix + name));
+                for (String name : subdirectories(dir)) {
+                    if (last && dirsOnly) found.add(prefix + name + "/");
+                    below.add(new Walk(components, dirsOnly, dir.resolve(name), prefix + name + "/", index));
+                }
+            } else if (!isPattern(component)) {
+                String name = unescape(component);
+                Path p = dir.resolve(name);
+                if (!last) {
+                    if (Files.isDirectory(p)) below.add(new Walk(components, dirsOnly, p, prefix + name + "/", index + 1));
+                } else if (dirsOnly ? Files.isDirectory(p) : Files.exists(p, LinkOption.NOFOLLOW_LINKS)) {
+                    found.add(prefix + name + (dirsOnly ? "/" : ""));
+                }
+            } else {
+                Pattern matcher = compile(component);
+                boolean hidden = component.startsWith(".") || component.startsWith("\\.");
+                list(dir, matcher, hidden, name -> {
+                    Path p = dir.resolve(name);
+                    if (last) {
+                        if (!dirsOnly) found.add(prefix + name);
+                        else if (Files.isDirectory(p)) found.add(prefix + name + "/");
+                    } else if (Files.isDirectory(p)) {
+                        below.add(new Walk(components, dirsOnly, p, prefix + name + "/", index + 1));
+                    }
+                });
+            }
+
+            if (below.size() == 1 || (!below.isEmpty() && !ForkJoinTask.inForkJoinPool())) {
+                for (Walk w : below) found.addAll(w.walk());
+            } else if (!below.isEmpty()) {
+                for (Walk w : ForkJoinTask.invokeAll(below)) found.addAll(w.join());
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Pass the names in dir matching matcher (every name for null) to out; names starting
+     * with '.' only when hidden is set. From the cached listing when it is still good.
+     */
+    private static void list(Path dir, Pattern matcher, boolean hidden, Consumer<String> out) {
+        FileTime modified = modified(dir);
+        if (modified == null) return;
+        long now = System.currentTimeMillis();
+        Listing cached = cached(dir, modified, now);
+        if (cached != null) {
+            for (String name : cached.names) {
+                if (matches(name, matcher, hidden)) out.accept(name);
+            }
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (matches(name, matcher, hidden)) out.accept(name);
+                if (names != null) {
+                    names.add(name);
+                    if (names.size() > MAX_CACHED) names = null;   // too big to keep: streamed every time
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        if (names != null && now - modified.toMillis() > RACY_MILLIS) {
+            if (listings.size() >= MAX_DIRECTORIES) listings.clear();
+            listings.put(dir, new Listing(modified, now, names.toArray(new String[0])));
+        }
+    }
+
+    // The subdirectories ** descends into: not hidden, not symbolic links
+    private static List<String> subdirectories(Path dir) {
+        Listing before = cached(dir, modified(dir), System.currentTimeMillis());
+        if (before != null && before.directories != null) return before.directories;
+        List<String> dirs = new ArrayList<>();
+        list(dir, null, false, name -> {
+            if (Files.isDirectory(dir.resolve(name), LinkOption.NOFOLLOW_LINKS)) dirs.add(name);
+        });
+        // kept with the listing they were picked from
+        Listing after = cached(dir, modified(dir), System.currentTimeMillis());
+        if (after != null && (before == null || before == after)) after.directories = dirs;
+        return dirs;
+    }
+
+    private static FileTime modified(Path dir) {
+        try {
+            return Files.readAttributes(dir, BasicFileAttributes.class).lastModifiedTime();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The remembered listing of dir, if it is recent and dir hasn't changed since
+    private static Listing cached(Path dir, FileTime modified, long now) {
+        Listing l = listings.get(dir);
+        return l != null && l.modified.equals(modified) && now - l.listed < TTL_MILLIS ? l : null;
+    }
+
+    private static boolean matches(String name, Pattern matcher, boolean hidden) {
+        if (name.startsWith(".") && !hidden) return false;
+        return matcher == null || matcher.matcher(name).matches();
+    }
+
+    // The regex for one component
+    static Pattern compile(String component) {
+        StringBuilder re = new StringBuilder();
+        for (int i = 0; i < component.length(); i++) {
+            char c = component.charAt(i);
+            if (c == '\\' && i + 1 < component.length()) {
+                quote(component.charAt(++i), re);
+            } else if (c == '*') {
+                re.append(".*");
+            } else if (c == '?') {
+                re.append('.');
+            } else if (c == '[' && classEnd(component, i) > 0) {
+                int end = classEnd(component, i);
+                int j = i + 1;
+                re.append('[');
+                if (component.charAt(j) == '!' || component.charAt(j) == '^') {
+                    re.append('^');
+                    j++;
+                }
+                for (int first = j; j < end; j++) {
+                    char k = component.charAt(j);
+                    if (k == '\\' && j + 1 < end) quote(component.charAt(++j), re);
+                    else if (k == '-' && j > first && j < end - 1) re.append('-');
+                    else quote(k, re);
+                }
+                re.append(']');
+                i = end;
+            } else {
+                quote(c, re);
+            }
+        }
+        return Pattern.compile(re.toString(), Pattern.DOTALL);
+    }
+
+    // Index of the ']' closing the class opened at s[open], or -1 ("[]...]" has ']' as a member)
+    private static int classEnd(String s, int open) {
+        int j = open + 1;
+        if (j < s.length() && (s.charAt(j) == '!' || s.charAt(j) == '^')) j++;
+        if (j < s.length() && s.charAt(j) == ']') j++;
+        for (; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if (c == '\\') j++;
+            else if (c == ']') return j;
+        }
+        return -1;
+    }
+
+    private static void quote(char c, StringBuilder re) {
+        if (c < 0x80 && !Character.isLetterOrDigit(c)) re.append('\\');
+        re.append(c);
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) c = s.charAt(++i);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
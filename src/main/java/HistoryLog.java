@@ -0,0 +1,474 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Command history, kept across sessions in $HISTFILE (default ~/.mini_shell_history;
+ * set but empty: no history).
+ *
+ * The file is an append-only log, one command per line, so it stays readable with
+ * grep. Next to it, HISTFILE.idx holds the end offset of every line as an 8-byte
+ * number. Both are memory-mapped for reading, so entry n is two loads away and opening
+ * a history of millions of commands costs a few syscalls, and nothing at all until the
+ * history is first used. Any number of shells append to the same files: a line and its
+ * offset are written under an exclusive lock on the log, and readers only look at the
+ * lines the index covers. If the two disagree (the log was edited, or a shell died
+ * between the writes) the index is brought up to date from the log under the lock.
+ * Since every shell reads the files, commands from the others show up too.
+ *
+ * Substring and prefix searches (Ctrl-R, `history -g`) go through an in-memory index
+ * from trigrams to the entries containing them, built in the background once a line
+ * editor starts; entries it hasn't reached yet are scanned.
+ */
+final class HistoryLog {
+
+    static final String DEFAULT_FILE = ".mini_shell_history";
+
+    // Trigrams are hashed into this many posting lists; a collision only costs a
+    // candidate that fails the byte comparison
+    private static final int BUCKETS = 1 << 16;
+    private static final int INDEX_CHUNK = 8192;
+
+    private static final Map<Path, HistoryLog> open = new ConcurrentHashMap<>();
+    private static final HistoryLog NONE = new HistoryLog(null);
+
+    /** The history of the session's $HISTFILE; nothing is read until it is used. */
+    static HistoryLog of(Session session) {
+        String file = session.getenv("HISTFILE");
+        if (file == null) {
+            String home = session.getenv("HOME");
+            file = new File(home != null ? home : System.getProperty("user.home"), DEFAULT_FILE).getPath();
+        }
+        if (file.isEmpty()) return NONE;
+        Path path = Path.of(file);
+        if (!path.isAbsolute()) path = session.cwd.toPath().resolve(path);
+        return open.computeIfAbsent(path.normalize(), HistoryLog::new);
+    }
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private FileChannel log;
+    private FileChannel idx;
+    private boolean failed;
+    private MappedByteBuffer text;      // the log, up to the end of entry count - 1
+    private MappedByteBuffer offsets;   // count end offsets
+    private int count;
+
+    private int[][] postings;
+    private int[] postingCount;
+    private int indexed;                // entries [0, indexed) are in postings
+    private boolean indexing;
+
+    private HistoryLog(Path path) {
+        this.path = path;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return refresh() ? count : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Entry i (0 is the oldest), or null if there is no such entry. */
+    String get(int i) {
+        lock.lock();
+        try {
+            if (!refresh() || i < 0 || i >= count) return null;
+            int start = start(i);
+            byte[] b = new byte[end(i) - start];
+            text.get(start, b);
+            return new String(b, StandardCharsets.UTF_8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a command, subject to $HISTCONTROL (ignorespace, ignoredups, ignoreboth).
+     * Blank lines are never kept.
+     */
+    void add(String line) {
+        if (line.isBlank() || line.indexOf('\n') >= 0) return;
+        String control = Session.current().getenv("HISTCONTROL");
+        if (control == null) control = "";
+        boolean ignoreSpace = control.contains("ignorespace") || control.contains("ignoreboth");
+        boolean ignoreDups = control.contains("ignoredups") || control.contains("ignoreboth");
+        if (ignoreSpace && line.charAt(0) == ' ') return;
+
+        lock.lock();
+        try {
+            if (!opened()) return;
+            try (FileLock ignored = log.lock()) {
+                repair();
+                byte[] b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                long end = log.size();
+                if (ignoreDups && endsWith(log, end, b)) return;
+                write(log, ByteBuffer.wrap(b), end);
+                write(idx, ByteBuffer.allocate(8).putLong(0, end + b.length), idx.size());
+            }
+        } catch (IOException e) {
+            // history is a convenience; a full disk or a read-only home doesn't stop the shell
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Empty the history (for every shell using the file). */
+    void clear() throws IOException {
+        lock.lock();
+        try {
+            if (!opened()) return;
+            try (FileLock ignored = log.lock()) {
+                log.truncate(0);
+                idx.truncate(0);
+            }
+            forget();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The nearest entry before `from` (backward) or after it (forward) that contains
+     * term, or starts with it if prefix; -1 if there is none.
+     */
+    int search(String term, int from, boolean backward, boolean prefix) {
+        byte[] t = term.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            if (!refresh()) return -1;
+            // shorter terms have no trigram; they match so often that a scan stops early
+            int scanned = t.length < 3 ? 0 : indexed;
+            if (backward) {
+                int hi = Math.min(from, count);
+                for (int i = hi - 1; i >= scanned; i--) {
+                    if (matches(i, t, prefix)) return i;
+                }
+                return t.length < 3 ? -1 : indexedSearch(t, Math.min(hi, indexed), true, prefix);
+            }
+            int lo = Math.max(from + 1, 0);
+            if (t.length >= 3) {
+                int found = indexedSearch(t, lo, false, prefix);
+                if (found >= 0) return found;
+                lo = Math.max(lo, indexed);
+            }
+            for (int i = lo; i < count; i++) {
+                if (matches(i, t, prefix)) return i;
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Index the entries not yet indexed for search, in the background. */
+    void index() {
+        lock.lock();
+        try {
+            if (indexing || path == null) return;
+            indexing = true;
+        } finally {
+            lock.unlock();
+        }
+        Main.io().execute(() -> {
+            while (indexChunk()) {}
+        });
+    }
+
+    // Index a chunk of the remaining entries, so a search meanwhile waits for one chunk
+    // at most; false once there are none left
+    private boolean indexChunk() {
+        lock.lock();
+        try {
+            if (!refresh() || indexed >= count) {
+                indexing = false;
+                return false;
+            }
+            int to = Math.min(count, indexed + INDEX_CHUNK);
+            while (indexed < to) indexEntry(indexed++);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- files
+
+    private boolean opened() {
+        if (log != null) return true;
+        if (path == null || failed) return false;
+        try {
+            log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            idx = FileChannel.open(Path.of(path + ".idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try (FileLock ignored = log.lock()) {
+                repair();
+            }
+            return true;
+        } catch (IOException e) {
+            failed = true;
+            closeQuietly();
+            return false;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (log != null) log.close();
+            if (idx != null) idx.close();
+        } catch (IOException ignored) {}
+        log = null;
+        idx = null;
+    }
+
+    /**
+     * Make the index describe every line of the log, and the log end in a newline.
+     * Called with the file lock held.
+     */
+    private void repair() throws IOException {
+        long entries = idx.size() / 8;
+        if (idx.size() % 8 != 0) idx.truncate(entries * 8);
+        long end = entries == 0 ? 0 : readLong(idx, (entries - 1) * 8);
+        long size = log.size();
+        if (end > size || (end > 0 && readByte(log, end - 1) != '\n')) {
+            // the log was replaced or edited: index all of it again
+            idx.truncate(0);
+            end = 0;
+        }
+        if (end == size) return;
+
+        if (readByte(log, size - 1) != '\n') {
+            write(log, ByteBuffer.wrap(new byte[] {'\n'}), size);
+            size++;
+        }
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        long pos = end;
+        while (pos < size) {
+            in.clear();
+            int n = log.read(in, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (in.get(i) != '\n') continue;
+                if (!out.hasRemaining()) {
+                    write(idx, out.flip(), idx.size());
+                    out.clear();
+                }
+                out.putLong(pos + i + 1);
+            }
+            pos += n;
+        }
+        write(idx, out.flip(), idx.size());
+    }
+
+    /**
+     * Map whatever other shells (or this one) appended since the last look; false if
+     * there is no history file. Called with the lock held.
+     */
+    private boolean refresh() {
+        if (!opened()) return false;
+        try {
+            long entries = idx.size() / 8;
+            if (entries < count) {
+                // cleared or rewritten by another shell
+                forget();
+                try (FileLock ignored = log.lock()) {
+                    repair();
+                }
+                entries = idx.size() / 8;
+            }
+            // a mapping addresses 2 GB; entries beyond that are not read
+            entries = Math.min(entries, Integer.MAX_VALUE / 8);
+            if (entries == count) return true;
+            MappedByteBuffer o = idx.map(FileChannel.MapMode.READ_ONLY, 0, entries * 8);
+            long end = entries == 0 ? 0 : o.getLong((int) (entries - 1) * 8);
+            while (end > Integer.MAX_VALUE) end = --entries == 0 ? 0 : o.getLong((int) (entries - 1) * 8);
+            if (end > log.size()) return count > 0;
+            if (text == null || end > text.capacity()) text = log.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            offsets = o;
+            count = (int) entries;
+            return true;
+        } catch (IOException e) {
+            return count > 0;
+        }
+    }
+
+    private void forget() {
+        text = null;
+        offsets = null;
+        count = 0;
+        postings = null;
+        postingCount = null;
+        indexed = 0;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) position += ch.write(b, position);
+    }
+
+    private static long readLong(FileChannel ch, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        while (b.hasRemaining() && ch.read(b, position + b.position()) > 0) {}
+        return b.getLong(0);
+    }
+
+    // Whether the log ends with the bytes of line (the previous entry is the same command)
+    private static boolean endsWith(FileChannel ch, long size, byte[] line) throws IOException {
+        if (size < line.length || (size > line.length && readByte(ch, size - line.length - 1) != '\n')) return false;
+        ByteBuffer b = ByteBuffer.allocate(line.length);
+        while (b.hasRemaining() && ch.read(b, size - line.length + b.position()) > 0) {}
+        return Arrays.equals(b.array(), line);
+    }
+
+    private static byte readByte(FileChannel ch, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        ch.read(b, position);
+        return b.get(0);
+    }
+
+    // ---- entries and the trigram index (lock held)
+
+    private int start(int i) {
+        return i == 0 ? 0 : (int) offsets.getLong((i - 1) * 8);
+    }
+
+    // end of entry i, without its newline
+    private int end(int i) {
+        return (int) offsets.getLong(i * 8) - 1;
+    }
+
+    private boolean matches(int i, byte[] t, boolean prefix) {
+        int start = start(i);
+        int last = end(i) - t.length;
+        if (prefix) last = Math.min(last, start);
+        outer:
+        for (int p = start; p <= last; p++) {
+            for (int k = 0; k < t.length; k++) {
+                if (text.get(p + k) != t[k]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int bucket(byte a, byte b, byte c) {
+        return ((a & 0xff) << 16 | (b & 0xff) << 8 | (c & 0xff)) * 0x9E3779B1 >>> 16;
+    }
+
+    private void indexEntry(int i) {
+        if (postings == null) {
+            postings = new int[BUCKETS][];
+            postingCount = new int[BUCKETS];
+        }
+        int end = end(i);
+        for (int p = start(i); p + 3 <= end; p++) {
+            int b = bucket(text.get(p), text.get(p + 1), text.get(p + 2));
+            int n = postingCount[b];
+            int[] list = postings[b];
+            if (n > 0 && list[n - 1] == i) continue;
+            if (list == null) list = postings[b] = new int[4];
+            else if (n == list.length) list = postings[b] = Arrays.copyOf(list, n * 2);
+            list[n] = i;
+            postingCount[b] = n + 1;
+        }
+    }
+
+    // Candidates are the entries in every posting list of the term's trigrams; walk the
+    // shortest list from bound (exclusive going back, inclusive going forward)
+    private int indexedSearch(byte[] t, int bound, boolean backward, boolean prefix) {
+        if (postings == null) return -1;
+        int[] buckets = new int[t.length - 2];
+        int rarest = 0;
+        for (int g = 0; g < buckets.length; g++) {
+            buckets[g] = bucket(t[g], t[g + 1], t[g + 2]);
+            if (postingCount[buckets[g]] == 0) return -1;
+            if (postingCount[buckets[g]] < postingCount[buckets[rarest]]) rarest = g;
+        }
+        int[] list = postings[buckets[rarest]];
+        int n = postingCount[buckets[rarest]];
+        int k = Arrays.binarySearch(list, 0, n, bound);
+        if (k < 0) k = -k - 1;
+        if (backward) {
+            for (k--; k >= 0; k--) {
+                if (candidate(list[k], buckets) && matches(list[k], t, prefix)) return list[k];
+            }
+        } else {
+            for (; k < n; k++) {
+                if (candidate(list[k], buckets) && matches(list[k], t, prefix)) return list[k];
+            }
+        }
+        return -1;
+    }
+
+    private boolean candidate(int entry, int[] buckets) {
+        for (int b : buckets) {
+            if (Arrays.binarySearch(postings[b], 0, postingCount[b], entry) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The `history` builtin.
+     *   history            list all entries, numbered from 1
+     *   history n          the last n entries
+     *   history -g text    the entries containing text (through the search index)
+     *   history -c         clear the history
+     * Returns the exit status.
+     */
+    static int builtin(List<String> argv, PrintWriter out, PrintWriter err) {
+        HistoryLog history = of(Session.current());
+        String opt = argv.size() > 1 ? argv.get(1) : null;
+        if ("-c".equals(opt)) {
+            try {
+                history.clear();
+            } catch (IOException e) {
+                err.println("history: " + e.getMessage());
+                return 1;
+            }
+            return 0;
+        }
+        if ("-g".equals(opt)) {
+            if (argv.size() < 3) {
+                err.println("history: -g: option requires an argument");
+                return 2;
+            }
+            boolean found = false;
+            for (int i = history.search(argv.get(2), -1, false, false); i >= 0; i = history.search(argv.get(2), i, false, false)) {
+                out.printf("%5d  %s%n", i + 1, history.get(i));
+                found = true;
+            }
+            out.flush();
+            return found ? 0 : 1;
+        }
+
+        int size = history.size();
+        int from = 0;
+        if (opt != null) {
+            try {
+                from = Math.max(0, size - Integer.parseInt(opt));
+            } catch (NumberFormatException e) {
+                err.println("history: " + opt + ": numeric argument required");
+                return 2;
+            }
+        }
+        for (int i = from; i < size; i++) {
+            String line = history.get(i);
+            if (line != null) out.printf("%5d  %s%n", i + 1, line);
+        }
+        out.flush();
+        return 0;
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntSupplier;
+
+/**
+ * Background jobs started with '&', and the jobs/wait/kill builtins.
+ *
+ * A job's body runs on a virtual thread and waits for its processes through
+ * Process.onExit(), so hundreds of jobs cost no platform thread each and nothing polls.
+ * The table learns that a job finished from its status future; the notice is printed
+ * before the next prompt, the way bash does without `set -b`.
+ */
+final class Jobs {
+
+    static final class Job {
+        final int id;
+        final String text;
+        final List<Process> processes = new CopyOnWriteArrayList<>();
+        // completes once every process of the job has been started
+        final CompletableFuture<Void> launched = new CompletableFuture<>();
+        final CompletableFuture<Integer> status = new CompletableFuture<>();
+
+        Job(int id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        boolean isDone() {
+            return status.isDone();
+        }
+
+        /** Pid of the job's last process, as for $!; -1 if it started none. */
+        long pid() {
+            return processes.isEmpty() ? -1 : processes.get(processes.size() - 1).pid();
+        }
+    }
+
+    // The job table and the last job started are the session's (Session.jobs, lastJob)
+    private static final ThreadLocal<Job> current = new ThreadLocal<>();
+
+    private Jobs() {}
+
+    /** True while running the body of a background job (on its own thread). */
+    static boolean inBackground() {
+        return current.get() != null;
+    }
+
+    /** Record a process started by the current background job, if any. */
+    static void started(Process p) {
+        Job job = current.get();
+        if (job != null) job.processes.add(p);
+    }
+
+    /** The current background job has started all its processes. */
+    static void launched() {
+        Job job = current.get();
+        if (job != null) job.launched.complete(null);
+    }
+
+    /**
+     * Run body as a background job. Returns once its processes are started, so $! and
+     * "command not found" are in place before the next command runs.
+     */
+    static int launch(String text, IntSupplier body, boolean interactive) {
+        Session session = Session.current();
+        TreeMap<Integer, Job> table = session.jobs;
+        Job job;
+        synchronized (table) {
+            int id = table.isEmpty() ? 1 : table.lastKey() + 1;
+            job = new Job(id, text);
+            table.put(id, job);
+        }
+
+        Main.io().execute(() -> {
+            current.set(job);
+            int st = 1;
+            try {
+                st = body.getAsInt();
+            } finally {
+                job.launched.complete(null);
+                job.status.complete(st);
+            }
+        });
+
+        job.launched.join();
+        session.lastJob = job;
+        if (interactive) {
+            session.err().println("[" + job.id + "]" + (job.pid() >= 0 ? " " + job.pid() : ""));
+        }
+        return 0;
+    }
+
+    /** $!: pid of the most recent background job, or null if there is none. */
+    static String lastPid() {
+        Job job = Session.current().lastJob;
+        return job == null || job.pid() < 0 ? null : String.valueOf(job.pid());
+    }
+
+    /** Print and forget jobs that finished since the last prompt. */
+    static void reportDone(PrintStream out) {
+        TreeMap<Integer, Job> table = Session.current().jobs;
+        List<String> lines = new ArrayList<>();
+        synchronized (table) {
+            if (table.isEmpty()) return;
+            Iterator<Job> it = table.values().iterator();
+            while (it.hasNext()) {
+                Job job = it.next();
+                if (job.isDone()) {
+                    lines.add(line(job, marker(table, job)));
+                    it.remove();
+                }
+            }
+        }
+        for (String l : lines) out.println(l);
+    }
+
+    // ---- builtins ----
+
+    /** jobs [-l | -p]: list jobs; finished ones are reported once and removed. */
+    static int jobs(List<String> argv, PrintWriter out) {
+        boolean pids = argv.contains("-p"), longFormat = argv.contains("-l");
+        TreeMap<Integer, Job> table = Session.current().jobs;
+        synchronized (table) {
+            Iterator<Job> it = table.values().iterator();
+            while (it.hasNext()) {
+                Job job = it.next();
+                if (pids) {
+                    if (job.pid() >= 0) out.println(job.pid());
+                } else {
+                    String line = line(job, marker(table, job));
+                    if (longFormat && job.pid() >= 0) line = line.replaceFirst("  ", "  " + job.pid() + " ");
+                    out.println(line);
+                }
+                if (job.isDone()) it.remove();
+            }
+        }
+        return 0;
+    }
+
+    /** wait [%n | pid ...]: without arguments wait for every job and return 0. Waited-for jobs leave the table. */
+    static int await(List<String> argv, PrintWriter err) {
+        // Jobs write to the same stdout: what was buffered before the wait comes first
+        ShellOutput.flush();
+        if (argv.size() < 2) {
+            TreeMap<Integer, Job> table = Session.current().jobs;
+            List<Job> all;
+            synchronized (table) {
+                all = new ArrayList<>(table.values());
+            }
+            for (Job job : all) {
+                job.status.join();
+                forget(job);
+            }
+            return 0;
+        }
+
+        int status = 0;
+        for (String spec : argv.subList(1, argv.size())) {
+            Job job = find(spec);
+            if (job != null) {
+                status = job.status.join();
+                forget(job);
+                continue;
+            }
+            if (!spec.startsWith("%") && isPid(spec)) {
+                err.println("wait: pid " + spec + " is not a child of this shell");
+            } else {
+                err.println("wait: " + spec + ": no such job");
+            }
+            status = 127;
+        }
+        return status;
+    }
+
+    /**
+     * kill [-TERM | -KILL | -9 | -15 | -s SIG] %n|pid ...
+     * TERM and KILL are sent through ProcessHandle; any other signal (or -l) is left
+     * to the external kill with the jobs translated to pids.
+     */
+    static int kill(List<String> argv, PrintWriter err) {
+        List<String> args = new ArrayList<>(argv.subList(1, argv.size()));
+        if (!args.isEmpty() && args.get(0).equals("-l")) return external(argv, err);
+
+        String signal = "TERM";
+        if (!args.isEmpty() && args.get(0).equals("-s") && args.size() > 1) {
+            signal = args.get(1);
+            args = args.subList(2, args.size());
+        } else if (!args.isEmpty() && args.get(0).startsWith("-") && args.get(0).length() > 1) {
+            signal = args.get(0).substring(1);
+            args = args.subList(1, args.size());
+        }
+        signal = signal.toUpperCase(Locale.ROOT);
+        if (signal.startsWith("SIG")) signal = signal.substring(3);
+        boolean force = signal.equals("KILL") || signal.equals("9");
+        boolean direct = force || signal.equals("TERM") || signal.equals("15");
+
+        if (args.isEmpty()) {
+            err.println("kill: usage: kill [-s sigspec | -signum | -sigspec] pid | jobspec ...");
+            return 2;
+        }
+
+        int status = 0;
+        List<String> external = new ArrayList<>();
+        for (String spec : args) {
+            List<ProcessHandle> targets = new ArrayList<>();
+            Job job = spec.startsWith("%") ? find(spec) : null;
+            if (job != null) {
+                for (Process p : job.processes) targets.add(p.toHandle());
+            } else if (spec.startsWith("%")) {
+                err.println("kill: " + spec + ": no such job");
+                status = 1;
+                continue;
+            } else if (isPid(spec)) {
+                Optional<ProcessHandle> h = ProcessHandle.of(Long.parseLong(spec));
+                if (h.isEmpty()) {
+                    err.println("kill: (" + spec + ") - No such process");
+                    status = 1;
+                    continue;
+                }
+                targets.add(h.get());
+            } else {
+                err.println("kill: " + spec + ": arguments must be process or job IDs");
+                status = 1;
+                continue;
+            }
+
+            for (ProcessHandle h : targets) {
+                if (!direct) external.add(String.valueOf(h.pid()));
+                else if (!(force ? h.destroyForcibly() : h.destroy()) && h.isAlive()) status = 1;
+            }
+        }
+
+        if (!external.isEmpty()) {
+            List<String> cmd = new ArrayList<>(List.of("kill", "-" + signal));
+            cmd.addAll(external);
+            status = Math.max(status, external(cmd, err));
+        }
+        return status;
+    }
+
+    private static int external(List<String> cmd, PrintWriter err) {
+        err.flush();
+        return Main.runExternalCommand(cmd, Redirections.NONE);
+    }
+
+    // ---- helpers ----
+
+    // A job whose status was collected by wait is not reported again
+    private static void forget(Job job) {
+        TreeMap<Integer, Job> table = Session.current().jobs;
+        synchronized (table) {
+            table.remove(job.id, job);
+        }
+    }
+
+    // %n, %%, %+ (current), %- (previous), or the pid of a job's process
+    private static Job find(String spec) {
+        TreeMap<Integer, Job> table = Session.current().jobs;
+        synchronized (table) {
+            if (table.isEmpty()) return null;
+            switch (spec) {
+                case "%", "%%", "%+": return table.lastEntry().getValue();
+                case "%-": {
+                    Map.Entry<Integer, Job> prev = table.lowerEntry(table.lastKey());
+                    return prev == null ? table.lastEntry().getValue() : prev.getValue();
+                }
+            }
+            if (spec.startsWith("%")) {
+                try {
+                    return table.get(Integer.parseInt(spec.substring(1)));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            if (!isPid(spec)) return null;
+            long pid = Long.parseLong(spec);
+            for (Job job : table.values()) {
+                for (Process p : job.processes) {
+                    if (p.pid() == pid) return job;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static boolean isPid(String s) {
+        if (s.isEmpty() || s.length() > 18) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // '+' for the current (newest) job, '-' for the previous one; caller holds the table lock
+    private static char marker(TreeMap<Integer, Job> table, Job job) {
+        if (job.id == table.lastKey()) return '+';
+        Integer prev = table.lowerKey(table.lastKey());
+        return prev != null && prev == job.id ? '-' : ' ';
+    }
+
+    private static String line(Job job, char marker) {
+        String state = job.isDone() ? describe(job.status.join()) : "Running";
+        String text = job.isDone() ? job.text : job.text + " &";
+        return String.format("[%d]%c  %-24s%s", job.id, marker, state, text);
+    }
+
+    // Java reports death by signal as 128 + signal number
+    private static String describe(int status) {
+        return switch (status) {
+            case 0 -> "Done";
+            case 129 -> "Hangup";
+            case 130 -> "Interrupt";
+            case 137 -> "Killed";
+            case 143 -> "Terminated";
+            default -> "Exit " + status;
+        };
+    }
+}
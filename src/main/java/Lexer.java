@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass tokenizer for a command line.
+ *
+ * Quotes, backslashes and $parameters are resolved into {@link Ast.Word} parts while
+ * scanning, so nothing downstream ever looks at raw characters again; the commands in
+ * $(...) and `...` are parsed right away into the part. Operators are recognized only
+ * outside quotes: a quoted "|" or ">" is an ordinary argument. The input may be several
+ * lines joined with '\n', which separates commands like ';'.
+ */
+class Lexer {
+
+    enum Kind { WORD, PIPE, AMP, AND, OR, SEMI, NEWLINE, LPAREN, RPAREN, REDIRECT, EOF }
+
+    /** The fd of a REDIRECT token for `&>` and `&>>`: stdout and stderr both. */
+    static final int BOTH = -2;
+
+    record Token(Kind kind, Ast.Word word, Ast.RedirectOp op, int fd) {
+        static final Token PIPE = new Token(Kind.PIPE, null, null, -1);
+        static final Token AMP = new Token(Kind.AMP, null, null, -1);
+        static final Token AND = new Token(Kind.AND, null, null, -1);
+        static final Token OR = new Token(Kind.OR, null, null, -1);
+        static final Token SEMI = new Token(Kind.SEMI, null, null, -1);
+        static final Token NEWLINE = new Token(Kind.NEWLINE, null, null, -1);
+        static final Token LPAREN = new Token(Kind.LPAREN, null, null, -1);
+        static final Token RPAREN = new Token(Kind.RPAREN, null, null, -1);
+        static final Token EOF = new Token(Kind.EOF, null, null, -1);
+    }
+
+    // Changes only when an alias replaces a word (replaceToken)
+    private String input;
+    private final Map<String, String> aliases;
+    private int pos = 0;
+    private int tokenStart = 0;
+
+    // Scratch state reused for every word
+    private final StringBuilder text = new StringBuilder();
+    private final List<Ast.Part> parts = new ArrayList<>();
+    private boolean textQuoted = false;
+
+    Lexer(String input, Map<String, String> aliases) {
+        this.input = input;
+        this.aliases = aliases;
+    }
+
+    Token next() {
+        while (pos < input.length() && isBlank(input.charAt(pos))) pos++;
+        tokenStart = pos;
+        if (pos >= input.length()) return Token.EOF;
+
+        char c = input.charAt(pos);
+
+        // Comment: an unquoted '#' at the start of a word runs to the end of the line
+        if (c == '#') {
+            int eol = input.indexOf('\n', pos);
+            pos = eol < 0 ? input.length() : eol;
+            return next();
+        }
+
+        // && and ||
+        if ((c == '&' || c == '|') && pos + 1 < input.length() && input.charAt(pos + 1) == c) {
+            pos += 2;
+            return c == '&' ? Token.AND : Token.OR;
+        }
+
+        // &> and &>>: not a background `&` followed by a redirection
+        if (c == '&' && pos + 1 < input.length() && input.charAt(pos + 1) == '>') {
+            pos++;
+            return redirect(BOTH);
+        }
+
+        Token op = switch (c) {
+            case '|' -> Token.PIPE;
+            case '&' -> Token.AMP;
+            case ';' -> Token.SEMI;
+            case '\n' -> Token.NEWLINE;
+            case '(' -> Token.LPAREN;
+            case ')' -> Token.RPAREN;
+            default -> null;
+        };
+        if (op != null) {
+            pos++;
+            return op;
+        }
+
+        if (c == '>' || c == '<') return redirect(-1);
+
+        // io-number: digits directly followed by a redirection operator (2>, 1>>)
+        if (isDigit(c)) {
+            int end = pos;
+            while (end < input.length() && isDigit(input.charAt(end))) end++;
+            if (end < input.length() && (input.charAt(end) == '>' || input.charAt(end) == '<')) {
+                int fd = Integer.parseInt(input, pos, end, 10);
+                pos = end;
+                return redirect(fd);
+            }
+        }
+
+        return new Token(Kind.WORD, word(), null, -1);
+    }
+
+    /** Offset in the input where the token last returned by {@link #next()} starts. */
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    String source(int from, int to) {
+        return input.substring(from, to).strip();
+    }
+
+    /** Whether the next token starts with c (after blanks), without reading it. */
+    boolean nextIs(char c) {
+        int i = pos;
+        while (i < input.length() && isBlank(input.charAt(i))) i++;
+        return i < input.length() && input.charAt(i) == c;
+    }
+
+    /**
+     * Put text (an alias's value) in place of the word last returned, to be read again
+     * from its start by the next call to {@link #next()}; returns the replaced length.
+     */
+    int replaceToken(String text) {
+        int length = pos - tokenStart;
+        input = input.substring(0, tokenStart) + text + input.substring(pos);
+        pos = tokenStart;
+        return length;
+    }
+
+    private Token redirect(int fd) {
+        char c = input.charAt(pos++);
+        Ast.RedirectOp op;
+        if (c == '<') {
+            op = Ast.RedirectOp.READ;
+            if (fd < 0) fd = 0;
+        } else if (pos < input.length() && input.charAt(pos) == '>') {
+            pos++;
+            op = Ast.RedirectOp.APPEND;
+        } else if (pos < input.length() && input.charAt(pos) == '&') {
+            pos++;
+            op = Ast.RedirectOp.DUP;
+        } else {
+            op = Ast.RedirectOp.WRITE;
+        }
+        if (fd == -1) fd = 1;
+        return new Token(Kind.REDIRECT, null, op, fd);
+    }
+
+    private Ast.Word word() {
+        boolean inSingle = false, inDouble = false;
+
+        while (pos < input.length()) {
+            char c = input.charAt(pos);
+
+            if (inSingle) {
+                if (c == '\'') {
+                    inSingle = false;
+                    pos++;
+                    continue;
+                }
+                appendText(c, true);
+                pos++;
+                continue;
+            }
+
+            if (c == '\'' && !inDouble) {
+                inSingle = true;
+                markQuoted();
+                pos++;
+                continue;
+            }
+
+            if (c == '"') {
+                inDouble = !inDouble;
+                if (inDouble) markQuoted();
+                pos++;
+                continue;
+            }
+
+            if (c == '\\') {
+                if (pos + 1 >= input.length()) {
+                    appendText('\\', inDouble);
+                    pos++;
+                    continue;
+                }
+                char next = input.charAt(pos + 1);
+                if (inDouble && !(next == '"' || next == '\\' || next == '$' || next == '`')) {
+                    // inside double quotes other backslashes are kept
+                    appendText('\\', true);
+                    pos++;
+                    continue;
+                }
+                appendText(next, true);
+                pos += 2;
+                continue;
+            }
+
+            if (c == '`') {
+                backquote(inDouble);
+                continue;
+            }
+
+            if (c == '$' && param(inDouble)) continue;
+
+            if (!inDouble && (isBlank(c) || isOperator(c))) break;
+
+            appendText(c, inDouble);
+            pos++;
+        }
+        // An unterminated quote simply ends with the line
+
+        flushText();
+        Ast.Word w = new Ast.Word(parts);
+        parts.clear();
+        return w;
+    }
+
+    // Try to read a parameter at input[pos] == '$'; false if it is a literal '$'
+    private boolean param(boolean quoted) {
+        if (pos + 1 >= input.length()) return false;
+        char c = input.charAt(pos + 1);
+        String name;
+        int end;
+
+        if (c == '(') {
+            substitution(quoted);
+            return true;
+        }
+
+        if (c == '{') {
+            int close = input.indexOf('}', pos + 2);
+            if (close < 0) return false;
+            name = input.substring(pos + 2, close);
+            end = close + 1;
+        } else if (isDigit(c) || c == '?' || c == '#' || c == '@' || c == '*' || c == '$' || c == '!') {
+            name = String.valueOf(c);
+            end = pos + 2;
+        } else if (c == '_' || Character.isLetter(c)) {
+            end = pos + 2;
+            while (end < input.length() && (input.charAt(end) == '_' || Character.isLetterOrDigit(input.charAt(end)))) end++;
+            name = input.substring(pos + 1, end);
+        } else {
+            return false;
+        }
+
+        flushText();
+        parts.add(new Ast.Param(name, quoted));
+        pos = end;
+        return true;
+    }
+
+    // $(...) at input[pos]: the text up to the matching ')' is a command line of its own
+    private void substitution(boolean quoted) {
+        int start = pos + 2;
+        int depth = 1;
+        char quote = 0;
+        int i = start;
+        for (; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') quote = 0;
+            } else if (c == '\\') {
+                i++;
+            } else if (quote == '"') {
+                if (c == '"') quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                break;
+            }
+        }
+        if (i >= input.length()) throw new Parser.SyntaxError("unexpected EOF while looking for matching `)'");
+        flushText();
+        parts.add(new Ast.Substitution(Parser.parse(input.substring(start, i), aliases), quoted));
+        pos = i + 1;
+    }
+
+    // `...` at input[pos]: up to the next unescaped backquote, where \` \$ and \\ stand for the character
+    private void backquote(boolean quoted) {
+        StringBuilder body = new StringBuilder();
+        int i = pos + 1;
+        for (; i < input.length() && input.charAt(i) != '`'; i++) {
+            char c = input.charAt(i);
+            if (c == '\\' && i + 1 < input.length() && "`$\\".indexOf(input.charAt(i + 1)) >= 0) c = input.charAt(++i);
+            body.append(c);
+        }
+        if (i >= input.length()) throw new Parser.SyntaxError("unexpected EOF while looking for matching ``'");
+        flushText();
+        parts.add(new Ast.Substitution(Parser.parse(body.toString(), aliases), quoted));
+        pos = i + 1;
+    }
+
+    private void appendText(char c, boolean quoted) {
+        // a change of quoting starts a new part so later stages (globbing) can tell them apart
+        if (text.length() > 0 && quoted != textQuoted) flushText();
+        textQuoted = quoted;
+        text.append(c);
+    }
+
+    // Opening quotes make the word exist even if nothing is inside them ('' or "")
+    private void markQuoted() {
+        if (text.length() > 0 && !textQuoted) flushText();
+        textQuoted = true;
+        if (text.length() == 0) parts.add(new Ast.Literal("", true));
+    }
+
+    private void flushText() {
+        if (text.length() == 0) return;
+        // drop the empty placeholder a quote opening may have left
+        if (!parts.isEmpty() && parts.get(parts.size() - 1) instanceof Ast.Literal l && l.text().isEmpty()) {
+            parts.remove(parts.size() - 1);
+        }
+        parts.add(new Ast.Literal(text.toString(), textQuoted));
+        text.setLength(0);
+    }
+
+    static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    static boolean isOperator(char c) {
+        return c == '|' || c == '&' || c == '<' || c == '>' || c == ';' || c == '(' || c == ')' || c == '\n';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ListIterator;
+import org.jline.keymap.KeyMap;
+import org.jline.reader.Binding;
+import org.jline.reader.EndOfFileException;
+import org.jline.reader.History;
+import org.jline.reader.Macro;
+import org.jline.reader.Reference;
+import org.jline.reader.UserInterruptException;
+import org.jline.reader.Widget;
+import org.jline.reader.impl.LineReaderImpl;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import org.jline.utils.AttributedString;
+
+/**
+ * Line editing at the interactive prompt (JLine, emacs keys), over the persistent
+ * HistoryLog and with Tab completion (Completion). Only a prompt on a terminal
+ * creates one, so -c, scripts and server sessions never load any of it.
+ *
+ * JLine's own Ctrl-R and prefix search run a regex over every entry; here both go
+ * through HistoryLog.search and its trigram index instead. History expansion (`!`) is
+ * off: the shell doesn't have it, and `!` stays an ordinary character.
+ */
+final class LineEditor extends LineReaderImpl {
+
+    private final HistoryLog log;
+    private String lastTerm = "";
+
+    private LineEditor(Terminal terminal, HistoryLog log) throws IOException {
+        super(terminal, "mini-shell");
+        this.log = log;
+        setHistory(new Entries(log));
+        Completion completion = new Completion();
+        setParser(completion);
+        setCompleter(completion);
+        // as in bash: Tab inserts what the matches have in common, or lists them when that
+        // adds nothing; no menu to cycle through
+        option(Option.AUTO_MENU, false);
+        option(Option.LIST_AMBIGUOUS, true);
+        option(Option.DISABLE_EVENT_EXPANSION, true);
+        // HistoryLog.add applies $HISTCONTROL; lines are kept exactly as typed
+        option(Option.HISTORY_IGNORE_SPACE, false);
+        option(Option.HISTORY_IGNORE_DUPS, false);
+        option(Option.HISTORY_REDUCE_BLANKS, false);
+    }
+
+    static LineEditor open(HistoryLog log) throws IOException {
+        Terminal terminal = TerminalBuilder.builder().system(true).name("mini-shell").build();
+        // PATH is indexed for completion while the first prompt waits
+        ExecutableIndex.get().sync();
+        return new LineEditor(terminal, log);
+    }
+
+    /** The next line; "" after Ctrl-C, null at Ctrl-D on an empty line. */
+    String next(String prompt) {
+        // the log opens and entries added since the last prompt (here or by other shells)
+        // are indexed for search on another thread, while the user types
+        log.index();
+        try {
+            return readLine(prompt);
+        } catch (UserInterruptException e) {
+            return "";
+        } catch (EndOfFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected boolean historyIncrementalSearchBackward() {
+        return incrementalSearch(true);
+    }
+
+    @Override
+    protected boolean historyIncrementalSearchForward() {
+        return incrementalSearch(false);
+    }
+
+    @Override
+    protected boolean historySearchBackward() {
+        return prefixSearch(true);
+    }
+
+    @Override
+    protected boolean historySearchForward() {
+        return prefixSearch(false);
+    }
+
+    /**
+     * Ctrl-R / Ctrl-S, as in bash: typed characters extend the term, Ctrl-R and Ctrl-S
+     * step to the next match (with an empty term they repeat the last search),
+     * Backspace shortens the term, Ctrl-G gives up, and any other key leaves the match
+     * on the line and then does what it normally does.
+     */
+    private boolean incrementalSearch(boolean backward) {
+        History history = getHistory();
+        String original = buf.toString();
+        int originalCursor = buf.cursor();
+        int originalIndex = history.index();
+        int match = originalIndex;
+        StringBuilder term = new StringBuilder();
+        boolean failing = false;
+
+        KeyMap<Binding> local = new KeyMap<>();
+        local.bind(new Reference(HISTORY_INCREMENTAL_SEARCH_BACKWARD), KeyMap.ctrl('R'));
+        local.bind(new Reference(HISTORY_INCREMENTAL_SEARCH_FORWARD), KeyMap.ctrl('S'));
+        local.bind(new Reference(BACKWARD_DELETE_CHAR), KeyMap.del(), KeyMap.ctrl('H'));
+        local.bind(new Reference(SEND_BREAK), KeyMap.ctrl('G'));
+
+        try {
+            while (true) {
+                String status = (failing ? "failing " : "") + (backward ? "bck-i-search: " : "fwd-i-search: ") + term + "_";
+                post = () -> new AttributedString(status);
+                redisplay();
+
+                Binding binding = readBinding(getKeys(), local);
+                String name = binding instanceof Reference r ? r.name() : null;
+                int from;
+                if (HISTORY_INCREMENTAL_SEARCH_BACKWARD.equals(name) || HISTORY_INCREMENTAL_SEARCH_FORWARD.equals(name)) {
+                    backward = HISTORY_INCREMENTAL_SEARCH_BACKWARD.equals(name);
+                    if (term.isEmpty()) term.append(lastTerm);
+                    from = match;
+                } else if (BACKWARD_DELETE_CHAR.equals(name)) {
+                    if (!term.isEmpty()) term.setLength(term.length() - 1);
+                    match = originalIndex;
+                    from = originalIndex;
+                } else if (SELF_INSERT.equals(name)) {
+                    term.append(getLastBinding());
+                    // the current match may still do
+                    from = backward ? match + 1 : match - 1;
+                } else if (SEND_BREAK.equals(name)) {
+                    history.moveTo(originalIndex);
+                    if (originalIndex >= history.size()) history.moveToEnd();
+                    show(original, originalCursor);
+                    return true;
+                } else {
+                    post = null;
+                    dispatch(binding);
+                    return true;
+                }
+
+                if (term.isEmpty()) {
+                    failing = false;
+                    show(original, originalCursor);
+                    continue;
+                }
+                lastTerm = term.toString();
+                int found = log.search(lastTerm, from, backward, false);
+                failing = found < 0;
+                if (failing) {
+                    beep();
+                    continue;
+                }
+                match = found;
+                history.moveTo(found);
+                String line = log.get(found);
+                show(line, Math.max(0, line.indexOf(lastTerm)));
+            }
+        } finally {
+            post = null;
+        }
+    }
+
+    // Up/down through the entries starting with the text before the cursor
+    private boolean prefixSearch(boolean backward) {
+        History history = getHistory();
+        String prefix = buf.upToCursor();
+        String shown = buf.toString();
+        int cursor = buf.cursor();
+        int found = history.index();
+        do {
+            found = log.search(prefix, found, backward, true);
+        } while (found >= 0 && shown.equals(log.get(found)));
+        if (found < 0) return false;
+        history.moveTo(found);
+        show(log.get(found), cursor);
+        return true;
+    }
+
+    private void show(String line, int cursor) {
+        buf.clear();
+        buf.write(line);
+        buf.cursor(Math.min(cursor, line.length()));
+    }
+
+    private void dispatch(Binding binding) {
+        if (binding instanceof Reference r) callWidget(r.name());
+        else if (binding instanceof Widget w) w.apply();
+        else if (binding instanceof Macro m) runMacro(m.getSequence());
+    }
+
+    /**
+     * JLine's view of the log. Entries are read from the mapped file when asked for
+     * and the editor only keeps its position, so the prompt never waits for the log
+     * to be opened or indexed.
+     */
+    private static final class Entries implements History {
+        private final HistoryLog log;
+        private int index = Integer.MAX_VALUE;   // past the end, whatever the size is
+
+        Entries(HistoryLog log) {
+            this.log = log;
+        }
+
+        @Override public void attach(org.jline.reader.LineReader reader) {}
+        // the log is written as lines are added; there is nothing to load or save
+        @Override public void load() {}
+        @Override public void save() {}
+        @Override public void write(Path file, boolean incremental) {}
+        @Override public void append(Path file, boolean incremental) {}
+        @Override public void read(Path file, boolean checkDuplicates) {}
+
+        @Override
+        public void purge() throws IOException {
+            log.clear();
+            index = Integer.MAX_VALUE;
+        }
+
+        @Override public int size() { return log.size(); }
+        @Override public int index() { return position(); }
+        @Override public int first() { return 0; }
+        @Override public int last() { return size() - 1; }
+
+        @Override
+        public String get(int i) {
+            String line = log.get(i);
+            return line != null ? line : "";
+        }
+
+        @Override
+        public void add(Instant time, String line) {
+            log.add(line);
+            index = Integer.MAX_VALUE;
+        }
+
+        @Override
+        public ListIterator<Entry> iterator(int from) {
+            int size = size();
+            return new AbstractList<Entry>() {
+                @Override
+                public Entry get(int i) {
+                    String line = Entries.this.get(i);
+                    return new Entry() {
+                        @Override public int index() { return i; }
+                        // the log keeps no times
+                        @Override public Instant time() { return null; }
+                        @Override public String line() { return line; }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            }.listIterator(Math.min(from, size));
+        }
+
+        @Override
+        public String current() {
+            return position() < size() ? get(index) : "";
+        }
+
+        @Override
+        public boolean previous() {
+            if (position() == 0) return false;
+            index--;
+            return true;
+        }
+
+        @Override
+        public boolean next() {
+            if (position() >= size()) return false;
+            index++;
+            return true;
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            if (size() == 0 || position() == 0) return false;
+            index = 0;
+            return true;
+        }
+
+        @Override
+        public boolean moveToLast() {
+            int last = size() - 1;
+            if (last < 0 || last == position()) return false;
+            index = last;
+            return true;
+        }
+
+        @Override
+        public boolean moveTo(int i) {
+            if (i < 0 || i >= size()) return false;
+            index = i;
+            return true;
+        }
+
+        @Override
+        public void moveToEnd() {
+            index = Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void resetIndex() {
+            position();
+        }
+
+        // The index, no further than the end (the log may have shrunk, by `history -c`)
+        private int position() {
+            return index = Math.min(index, size());
+        }
+    }
+}
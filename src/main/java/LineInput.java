@@ -0,0 +1,74 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered, byte-level line reader for shell input.
+ *
+ * Scans for '\n' directly in a large byte buffer and only decodes the bytes of each
+ * finished line, which is much cheaper than java.util.Scanner's regex matching when a
+ * script has hundreds of thousands of lines.
+ */
+class LineInput implements Closeable {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    LineInput(InputStream in) {
+        this.in = in;
+    }
+
+    /** Next line without its terminator (a trailing '\r' is dropped too), or null at end of input. */
+    String readLine() throws IOException {
+        int scanFrom = pos;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    String line = decode(pos, i);
+                    pos = i + 1;
+                    return line;
+                }
+            }
+            if (eof) {
+                if (pos == limit) return null;
+                String line = decode(pos, limit);
+                pos = limit;
+                return line;
+            }
+            scanFrom = limit - pos;
+            fill();
+        }
+    }
+
+    // Move the unread tail to the front (growing the buffer for very long lines) and read more
+    private void fill() throws IOException {
+        int remaining = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        } else if (remaining == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, remaining);
+            buf = bigger;
+        }
+        pos = 0;
+        limit = remaining;
+
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n == -1) eof = true;
+        else limit += n;
+    }
+
+    private String decode(int from, int to) {
+        if (to > from && buf[to - 1] == '\r') to--;
+        return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.List;
+
+/**
+ * while, until and for loops, and `break` and `continue`.
+ *
+ * The condition and the body were parsed once with the rest of the line; every iteration
+ * runs those trees again, so nothing is tokenized per iteration and a body made of
+ * builtins never leaves the JVM. The words after `in` are expanded once, when the loop
+ * starts, as in bash.
+ *
+ * A loop in a subshell (a function as a pipeline stage) stops when what it writes to
+ * is gone, as bash is killed by SIGPIPE: otherwise `f | head -n 1` would never end.
+ */
+final class Loops {
+
+    private Loops() {}
+
+    // The status a process killed by SIGPIPE reports
+    private static final int BROKEN_PIPE = 128 + 13;
+
+    static void runWhile(Ast.While loop) {
+        Session session = Session.current();
+        int status = 0;
+        session.loops++;
+        try {
+            while (true) {
+                Main.run(loop.condition());
+                if ((session.lastStatus == 0) == loop.until()) break;
+                try {
+                    Main.run(loop.body());
+                    status = session.lastStatus;
+                } catch (Session.Break b) {
+                    status = 0;
+                    if (!next(b)) break;
+                }
+                if (ShellOutput.broken(session.out())) throw new Session.Exit(BROKEN_PIPE);
+            }
+        } finally {
+            session.loops--;
+        }
+        session.lastStatus = status;
+    }
+
+    static void runFor(Ast.For loop) {
+        Session session = Session.current();
+        List<String> items = loop.words() == null ? session.positional : Main.expandWords(loop.words());
+        int status = 0;
+        session.loops++;
+        try {
+            for (String item : items) {
+                session.setVariable(loop.name(), item);
+                try {
+                    Main.run(loop.body());
+                    status = session.lastStatus;
+                } catch (Session.Break b) {
+                    status = 0;
+                    if (!next(b)) break;
+                }
+                if (ShellOutput.broken(session.out())) throw new Session.Exit(BROKEN_PIPE);
+            }
+        } finally {
+            session.loops--;
+        }
+        session.lastStatus = status;
+    }
+
+    // Whether the loop that caught b goes on; a break for outer loops too goes up to them
+    private static boolean next(Session.Break b) {
+        if (b.levels > 1) throw new Session.Break(b.levels - 1, b.next);
+        return b.next;
+    }
+
+    /** `break [n]`, or `continue [n]` when next is set. */
+    static int leave(List<String> argv, boolean next) {
+        Session session = Session.current();
+        String name = argv.get(0);
+        if (session.loops == 0) {
+            session.err().println(name + ": only meaningful in a `for', `while', or `until' loop");
+            return 0;
+        }
+        int levels = 1;
+        if (argv.size() > 1) {
+            try {
+                levels = Integer.parseInt(argv.get(1));
+            } catch (NumberFormatException e) {
+                session.err().println(name + ": " + argv.get(1) + ": numeric argument required");
+                return 1;
+            }
+            if (levels < 1) {
+                session.err().println(name + ": " + argv.get(1) + ": loop count out of range");
+                return 1;
+            }
+        }
+        throw new Session.Break(Math.min(levels, session.loops), next);
+    }
+}
@@ -1,249 +1,634 @@
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
 
 public class Main {
 
-    // Global variable
-    static File currentDir = new File(System.getProperty("user.dir"));
+    // Shared virtual-thread executor for pipeline stages and pumps, created on first use
+    private static final class Io {
+        static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    static ExecutorService io() {
+        return Io.EXECUTOR;
+    }
+
+    /**
+     * Usage:
+     *   mini-shell                     interactive when stdin is a terminal, otherwise reads a script from stdin
+     *   mini-shell -c 'cmd' [name [args...]]
+     *   mini-shell script.sh [args...]
+     *   mini-shell -s [args...]        read commands from stdin
+     *   mini-shell -i                  force the interactive prompt
+     *   mini-shell --noediting         prompt without line editing (lines are read as they come)
+     *   mini-shell --server socket     serve sessions over a Unix domain socket (see ShellServer)
+     */
     public static void main(String[] args) throws Exception {
-        Scanner scanner = new Scanner(System.in);
+        if (args.length > 0 && args[0].equals("--server")) {
+            if (args.length != 2) {
+                System.err.println("mini-shell: usage: mini-shell --server socket");
+                System.exit(2);
+            }
+            System.exit(ShellServer.serve(args[1]));
+        }
+
+        ShellOutput.install();
+        int status = start(args, System.in);
+        ShellOutput.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Run the shell for a command line in the current session, with stdin as the script
+     * when there is no -c and no script file; returns the exit status.
+     */
+    static int start(String[] args, InputStream stdin) throws IOException {
+        Session session = Session.current();
+        String command = null;
+        boolean forceInteractive = false;
+        boolean fromStdin = false;
+        boolean editing = true;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-") && args[i].length() > 1) {
+            String opt = args[i++];
+            if (opt.equals("--")) break;
+            switch (opt) {
+                case "-c":
+                    if (i >= args.length) {
+                        session.err().println(session.scriptName + ": -c: option requires an argument");
+                        return 2;
+                    }
+                    command = args[i++];
+                    break;
+                case "-i":
+                    forceInteractive = true;
+                    break;
+                case "-s":
+                    fromStdin = true;
+                    break;
+                case "--noediting":
+                    editing = false;
+                    break;
+                default:
+                    session.err().println(session.scriptName + ": " + opt + ": invalid option");
+                    return 2;
+            }
+        }
+        if (forceInteractive && !session.inheritsStdio()) {
+            session.err().println(session.scriptName + ": -i: not available in a server session");
+            return 2;
+        }
+
+        try {
+            if (command != null) {
+                if (i < args.length) session.scriptName = args[i++];
+                session.positional = List.of(Arrays.copyOfRange(args, i, args.length));
+                return runLines(new LineInput(new ByteArrayInputStream(command.getBytes())), false);
+            }
+            if (i < args.length && !fromStdin) {
+                session.scriptName = args[i++];
+                session.positional = List.of(Arrays.copyOfRange(args, i, args.length));
+                File script = new File(session.scriptName);
+                if (!script.isAbsolute()) script = new File(session.cwd, session.scriptName);
+                if (!script.isFile()) {
+                    session.err().println(session.scriptName + ": No such file or directory");
+                    return 127;
+                }
+                try (LineInput in = new LineInput(new FileInputStream(script))) {
+                    return runLines(in, false);
+                }
+            }
+            session.positional = List.of(Arrays.copyOfRange(args, i, args.length));
+            boolean interactive = forceInteractive || session.terminal();
+            if (interactive && editing && session.terminal()) {
+                try {
+                    return runEditor(LineEditor.open(HistoryLog.of(session)));
+                } catch (IOException e) {
+                    // no usable terminal after all; read plain lines
+                }
+            }
+            return runLines(new LineInput(stdin), interactive);
+        } catch (Session.Exit e) {
+            return e.status;
+        }
+    }
+
+    /** Read and execute lines until end of input; returns the exit status of the last command. */
+    static int runLines(LineInput in, boolean interactive) throws IOException {
+        Session session = Session.current();
+        session.interactive = interactive;
         while (true) {
-            System.out.print("$ ");
-            if (!scanner.hasNextLine()) break;
-            String input = scanner.nextLine();
-            List<String> parsed = parseCommand(input);
-            String[] commands = parsed.toArray(new String[0]);
-
-            List<List<String>> pipeline = new ArrayList<>();
-            List<String> current = new ArrayList<>();
-            for (String token : parsed) {
-                if (token.equals("|")) {
-                    pipeline.add(new ArrayList<>(current));
-                    current.clear();
-                } else {
-                    current.add(token);
+            if (interactive) {
+                Jobs.reportDone(session.err());
+                session.out().print("$ ");
+                ShellOutput.flush();
+            }
+            String input = in.readLine();
+            if (input == null) break;
+            if (interactive) HistoryLog.of(session).add(input);
+            // a function definition or a pipe continued on the next lines
+            while (!execute(input, true)) {
+                if (interactive) {
+                    session.out().print("> ");
+                    ShellOutput.flush();
                 }
+                String more = in.readLine();
+                if (more == null) {
+                    execute(input, false);
+                    break;
+                }
+                if (interactive) HistoryLog.of(session).add(more);
+                input = input + "\n" + more;
             }
-            if (!current.isEmpty()) pipeline.add(current);
+        }
+        return session.lastStatus;
+    }
 
-            if (pipeline.size() > 1) {
-                runMultiPipeline(pipeline);
-                continue;
+    /** The interactive loop on a terminal, with line editing and history (the editor records each line). */
+    static int runEditor(LineEditor editor) {
+        Session session = Session.current();
+        session.interactive = true;
+        while (true) {
+            Jobs.reportDone(session.err());
+            ShellOutput.flush();
+            String input = editor.next("$ ");
+            if (input == null) break;
+            while (!execute(input, true)) {
+                String more = editor.next("> ");
+                if (more == null) {
+                    execute(input, false);
+                    break;
+                }
+                input = input + "\n" + more;
             }
+        }
+        return session.lastStatus;
+    }
 
+    /** Parse and run a single line, updating lastStatus. */
+    static void execute(String input) {
+        execute(input, false);
+    }
 
-            switch (commands[0]) {
-                case "exit":
-                    if (commands.length > 1) System.exit(Integer.parseInt(commands[1]));
-                    else System.exit(0);
-                    break;
+    /**
+     * Parse and run input, updating lastStatus. If it ends inside a construct (a function
+     * body, after a `|`) and more lines may follow, nothing runs and the result is false:
+     * call again with the next line appended.
+     */
+    static boolean execute(String input, boolean more) {
+        ShellEvents.CommandParsed parsed = ShellEvents.commandParsed();
+        Ast.Node node;
+        try {
+            node = parseCommand(input);
+        } catch (Parser.SyntaxError e) {
+            if (more && e.incomplete) return false;
+            ShellMetrics.parseErrors.increment();
+            parsed(parsed, input, true);
+            Session session = Session.current();
+            session.err().println(session.scriptName + ": " + e.getMessage());
+            session.lastStatus = 2;
+            return true;
+        }
+        parsed(parsed, input, false);
+        if (node == null) return true;
+
+        long start = System.nanoTime();
+        run(node);
+        ShellMetrics.commandLatency.observe(System.nanoTime() - start);
+        ShellOutput.commandDone();
+        return true;
+    }
 
-                case "echo": {
-                    // operate on a mutable list copy
-                    List<String> echoList = new ArrayList<>(Arrays.asList(commands));
-
-                    // flags & filenames
-                    boolean outAppend = false;
-                    boolean outRedirect = false;
-                    String outFileTmp = null;
-
-                    boolean errAppend = false;
-                    String errFileTmp = null;
-
-                    // detect markers at the end repeatedly (allow both stdout+stderr in any order)
-                    boolean changed = true;
-                    while (changed && echoList.size() >= 2) {
-                        changed = false;
-                        String marker = echoList.get(echoList.size() - 2);
-                        String fname = echoList.get(echoList.size() - 1);
-                        if (marker.equals("__APPEND__")) {
-                            outAppend = true;
-                            outFileTmp = fname;
-                            echoList = echoList.subList(0, echoList.size() - 2);
-                            changed = true;
-                        } else if (marker.equals("__REDIR__")) {
-                            outRedirect = true;
-                            outFileTmp = fname;
-                            echoList = echoList.subList(0, echoList.size() - 2);
-                            changed = true;
-                        } else if (marker.equals("__APPEND_ERR__")) {
-                            errAppend = true;
-                            errFileTmp = fname;
-                            echoList = echoList.subList(0, echoList.size() - 2);
-                            changed = true;
-                        } else if (marker.equals("__REDIR_ERR__")) {
-                            errAppend = false;
-                            errFileTmp = fname;
-                            echoList = echoList.subList(0, echoList.size() - 2);
-                            changed = true;
-                        }
-                    }
+    private static void parsed(ShellEvents.CommandParsed event, String line, boolean syntaxError) {
+        if (event != null && event.shouldCommit()) {
+            event.line = line;
+            event.syntaxError = syntaxError;
+            event.commit();
+        }
+    }
 
-                    // rebuild commands for printing
-                    commands = echoList.toArray(new String[0]);
+    static void run(Ast.Node node) {
+        Session session = Session.current();
+        switch (node) {
+            case Ast.Pipeline p -> session.lastStatus = p.background()
+                    ? Jobs.launch(p.text(), () -> runPipeline(p), session.interactive)
+                    : runPipeline(p);
+            case Ast.CommandList list -> {
+                for (Ast.Node item : list.items()) run(item);
+            }
+            case Ast.Function f -> {
+                session.functions.put(f.name(), f);
+                session.lastStatus = 0;
+            }
+            case Ast.AndOr a -> {
+                run(a.left());
+                if ((session.lastStatus == 0) == a.and()) run(a.right());
+            }
+            case Ast.Not n -> {
+                run(n.body());
+                session.lastStatus = session.lastStatus == 0 ? 1 : 0;
+            }
+            case Ast.If i -> {
+                run(i.condition());
+                if (session.lastStatus == 0) run(i.then());
+                else if (i.otherwise() != null) run(i.otherwise());
+                else session.lastStatus = 0;
+            }
+            case Ast.While w -> Loops.runWhile(w);
+            case Ast.For f -> Loops.runFor(f);
+        }
+    }
 
-                    // Build normal echo output
-                    StringBuilder echoOut = new StringBuilder();
-                    for (int i = 1; i < commands.length; i++) {
-                        if (i > 1) echoOut.append(" ");
-                        echoOut.append(commands[i]);
-                    }
-                    echoOut.append("\n");
-
-                    // stderr handling for builtin echo (tests expect builtins to write)
-                    if (errFileTmp != null) {
-                        File target = new File(errFileTmp);
-                        File parent = target.getParentFile();
-                        // POSIX behavior: if directory doesn’t exist, silently discard any stderr output
-                        if (parent == null || parent.exists()) {
-                            try {
-                                if (!target.exists()) {
-                                    target.createNewFile();
-                                }
-                            } catch (IOException ignored) {}
-                        }
-                    }
+    static int runPipeline(Ast.Pipeline pipeline) {
+        if (pipeline.time() != null) return Timing.time(pipeline);
+        return pipeline.commands().size() > 1
+                ? runMultiPipeline(pipeline)
+                : runSimpleCommand(pipeline.commands().get(0));
+    }
 
-                    // Always print to stdout unless stdout is redirected
-                    if (outFileTmp == null) {
-                        System.out.print(echoOut.toString());
-                    }
+    /** Run one command outside a pipeline and return its exit status. */
+    static int runSimpleCommand(Ast.SimpleCommand command) {
+        List<String> argv = expandWords(command.words());
 
-                    // stdout handling for builtin echo
-                    if (outFileTmp != null) {
-                        File target = new File(outFileTmp);
-                        File parent = target.getParentFile();
-
-                        if (parent != null && !parent.exists()) {
-                            // discard by writing to /dev/null
-                            try (FileWriter fw = new FileWriter("/dev/null", true)) {
-                                fw.write(echoOut.toString());
-                            } catch (IOException ignored) {}
-                        } else {
-                            writeToFile(outFileTmp, echoOut.toString(), outAppend);
-                        }
-                    }
+        Redirections redirections;
+        try {
+            redirections = Redirections.resolve(command.redirects(), expandTargets(command.redirects()), Session.current().cwd);
+        } catch (FileNotFoundException e) {
+            Session.current().err().println(Session.current().scriptName + ": " + e.getMessage());
+            return 1;
+        }
+        if (argv.isEmpty()) {
+            // only redirections and assignments: create the files, set the variables
+            try (redirections) {
+                redirections.stdout(OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+                redirections.stderr(OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+            } catch (IOException ignored) {}
+            Session session = Session.current();
+            for (Ast.Assignment a : command.assignments()) session.setVariable(a.name(), expandWord(a.value()));
+            // the status of the last command substitution, if there was one
+            return command.substitutes() ? session.lastStatus : 0;
+        }
 
-                    break;
-                }
-                case "type":
-                    type(commands);
-                    break;
+        String name = argv.get(0);
+        if (name.equals("return")) {
+            ShellMetrics.builtin(name);
+            return Functions.ret(argv);
+        }
+        if (name.equals("break") || name.equals("continue")) {
+            ShellMetrics.builtin(name);
+            return Loops.leave(argv, name.equals("continue"));
+        }
+        Ast.Function function = Session.current().functions.get(name);
+        if (function != null) return Functions.call(function, argv, redirections, environment(command));
+        // the usual loop and if conditions: no streams to set up when nothing is redirected
+        if (redirections == Redirections.NONE && (name.equals("true") || name.equals(":") || name.equals("false"))) {
+            ShellMetrics.builtin(name);
+            return name.equals("false") ? 1 : 0;
+        }
 
-                case "pwd":
-                    pwd();
-                    break;
+        // A background job is like a subshell: exit and cd don't touch the shell itself
+        if (!Jobs.inBackground()) {
+            switch (name) {
+                case "exit":
+                    ShellMetrics.builtin(name);
+                    return exit(argv);
 
                 case "cd":
-                    cd(commands);
-                    break;
+                    ShellMetrics.builtin(name);
+                    try (redirections) {
+                        // cd writes nothing, but a > file is still created
+                        redirections.stdout(OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+                        return cd(argv, redirections);
+                    } catch (IOException e) {
+                        return 1;
+                    }
+            }
+        }
 
-                default:
-                    runExternalCommand(commands);
-                    break;
+        if (!isBuiltin(name) && !CoreUtils.handles(argv)) return runExternalCommand(argv, redirections, environment(command));
+
+        Jobs.launched();
+        try (redirections) {
+            Session session = Session.current();
+            InputStream in = redirections.stdin(Jobs.inBackground() ? InputStream.nullInputStream() : session.commandInput());
+            OutputStream out = redirections.stdout(ShellOutput.adaptive(), session.err());
+            OutputStream err = redirections.stderr(ShellOutput.adaptive(), session.err());
+            return runBuiltinInPipeline(argv, in, out, err);
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    /** Ends the session: throws Session.Exit, which start() turns into the exit status. */
+    static int exit(List<String> argv) {
+        Session session = Session.current();
+        int code = session.lastStatus;
+        if (argv.size() > 1) {
+            try {
+                code = Integer.parseInt(argv.get(1));
+            } catch (NumberFormatException e) {
+                session.err().println("exit: " + argv.get(1) + ": numeric argument required");
+                code = 2;
             }
         }
+        ShellOutput.flush();
+        throw new Session.Exit(code & 0xff);
     }
 
-    static void runMultiPipeline(List<List<String>> cmds) {
-        List<Process> processes = new ArrayList<>();
-        List<Thread> threads = new ArrayList<>();
+    /** Run a pipeline; its exit status is the status of the last stage. */
+    static int runMultiPipeline(Ast.Pipeline pipeline) {
+        return runMultiPipeline(pipeline, null);
+    }
+
+    /**
+     * With timing, every stage is its own segment and all output passes through the
+     * shell, so each pipe can be measured (see Timing).
+     */
+    static int runMultiPipeline(Ast.Pipeline pipeline, Timing.Run timing) {
+        Session session = Session.current();
+        int n = pipeline.commands().size();
+        List<List<String>> cmds = new ArrayList<>();
+        // Each stage's own redirections, applied after the pipes; null where one failed
+        List<Redirections> redirs = new ArrayList<>();
+        for (Ast.SimpleCommand c : pipeline.commands()) {
+            cmds.add(expandWords(c.words()));
+            try {
+                redirs.add(Redirections.resolve(c.redirects(), expandTargets(c.redirects()), session.cwd));
+            } catch (FileNotFoundException e) {
+                session.err().println(session.scriptName + ": " + e.getMessage());
+                redirs.add(null);
+            }
+        }
+        // Stages run by the shell itself: builtins, those whose redirections failed, and
+        // commands that can't be found, which only report so (status 127)
+        boolean[] inShell = new boolean[n];
+        boolean[] notFound = new boolean[n];
+        List<List<String>> execs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            inShell[i] = redirs.get(i) == null || isBuiltinStage(cmds.get(i));
+            List<String> exec = inShell[i] ? null : execArgv(cmds.get(i), environment(pipeline.commands().get(i)));
+            if (!inShell[i] && exec == null) inShell[i] = notFound[i] = true;
+            execs.add(exec);
+        }
+
+        // What the first stage reads: the stdin of a subshell, or else nothing
+        InputStream pipelineIn = session.stdin();
+
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        int[] lastBuiltinStatus = {0};
+        Process lastProcess = null;
+        // The processes of each segment, null for a builtin's
+        List<List<Process>> started = new ArrayList<>();
 
         try {
-            InputStream prevOut = null; // output of previous stage (as InputStream)
-
-            for (int i = 0; i < cmds.size(); i++) {
-                List<String> cmd = cmds.get(i);
-                boolean isLast = (i == cmds.size() - 1);
-                boolean isBuiltin = isBuiltin(cmd.get(0));
-
-                if (isBuiltin) {
-                    // If builtin is the last stage, write directly to System.out
-                    if (isLast) {
-                        runBuiltinInPipeline(cmd, prevOut == null ? new ByteArrayInputStream(new byte[0]) : prevOut, System.out);
-                        // builtin wrote to stdout; set prevOut to null (no further stages)
-                        prevOut = null;
-                        continue;
+            // Split the pipeline into segments: a single builtin, or a run of consecutive
+            // external commands that are connected to each other with OS pipes (which a
+            // redirection of one's stdout or the next one's stdin interrupts)
+            List<List<List<String>>> segments = new ArrayList<>();
+            List<Integer> firsts = new ArrayList<>();
+            for (int i = 0; i < n; ) {
+                int end = i + 1;
+                if (!inShell[i] && timing == null) {
+                    while (end < n && !inShell[end] && redirs.get(end - 1).writesPipe() && redirs.get(end).readsPipe()) end++;
+                }
+                segments.add(cmds.subList(i, end));
+                firsts.add(i);
+                i = end;
+            }
+
+            if (timing != null) {
+                for (int i = 0; i < n; i++) {
+                    timing.stage(i).name = cmds.get(i).isEmpty() ? "" : cmds.get(i).get(0);
+                    timing.stage(i).builtin = inShell[i];
+                }
+            }
+
+            // Start every external segment first so builtins can write straight into
+            // their stdin and read straight from their stdout
+            for (int s = 0; s < segments.size(); s++) {
+                List<List<String>> segment = segments.get(s);
+                int firstStage = firsts.get(s);
+                if (inShell[firstStage]) {
+                    started.add(null);
+                    continue;
+                }
+                boolean segmentIsLast = (s == segments.size() - 1);
+
+                List<ProcessBuilder> builders = new ArrayList<>();
+                for (int k = 0; k < segment.size(); k++) {
+                    int stage = firstStage + k;
+                    // External command, found on the session's PATH (see execArgv)
+                    ProcessBuilder pb = session.processBuilder(execs.get(stage));
+                    Map<String, String> environment = environment(pipeline.commands().get(stage));
+                    if (!environment.isEmpty()) pb.environment().putAll(environment);
+                    // No previous stage, or one sending nothing: an empty stdin. The last
+                    // stage of the whole pipeline writes straight to the terminal.
+                    boolean pipeIn = stage > 0
+                            ? redirs.get(stage - 1) != null && redirs.get(stage - 1).reachesPipe()
+                            : pipelineIn != null;
+                    boolean pipeOut = stage < n - 1 || timing != null || !session.inheritsStdio();
+                    redirs.get(stage).applyToStage(pb, pipeIn, pipeOut, session.inheritsStdio());
+                    builders.add(pb);
+                }
+                if (segmentIsLast && timing == null && session.inheritsStdio()) ShellOutput.flush();
+
+                long spawnStart = System.nanoTime();
+                List<Process> procs;
+                try {
+                    procs = ProcessBuilder.startPipeline(builders);
+                } catch (IOException e) {
+                    ShellMetrics.spawnFailures.increment();
+                    spawnFailed(e, segment, firstStage, redirs);
+                    throw e;
+                }
+                long spawnNanos = System.nanoTime() - spawnStart;
+                ShellMetrics.spawned(procs.size(), spawnNanos);
+                if (timing != null) timing.stage(s).spawned(procs.get(0));
+                for (int k = 0; k < procs.size(); k++) {
+                    Process p = procs.get(k);
+                    ShellEvents.spawned(segment.get(k).get(0), p, firstStage + k, spawnNanos);
+                    pending.add(p.onExit());
+                    // Stderr on its own task, never in the way of the data
+                    if (!session.inheritsStdio()) pending.add(redirs.get(firstStage + k).forwardStderr(p, session));
+                    Jobs.started(p);
+                }
+                started.add(procs);
+                if (segmentIsLast) lastProcess = procs.get(procs.size() - 1);
+                if (s == 0 && pipelineIn != null && redirs.get(0).readsPipe()) {
+                    OutputStream first = procs.get(0).getOutputStream();
+                    io().execute(() -> streamCopy(pipelineIn, first, true));
+                }
+            }
+
+            Jobs.launched();
+
+            // Run the builtins concurrently with everything else. Each one reads from the
+            // previous stage and writes into the next one; two adjacent builtins are joined
+            // by a bounded pipe so a fast producer blocks instead of buffering everything.
+            InputStream nextIn = null;
+            Process upstream = null;   // the process nextIn comes from, if any
+            Runnable lastBuiltin = null;
+            for (int s = 0; s < segments.size(); s++) {
+                List<Process> procs = started.get(s);
+                boolean segmentIsLast = (s == segments.size() - 1);
+                int lastStage = firsts.get(s) + segments.get(s).size() - 1;
+
+                if (procs != null) {
+                    Process last = procs.get(procs.size() - 1);
+                    InputStream output = redirs.get(lastStage).stageOutput(last);
+                    Redirections reader = segmentIsLast ? null : redirs.get(lastStage + 1);
+                    OutputStream next = segmentIsLast || started.get(s + 1) == null ? null : started.get(s + 1).get(0).getOutputStream();
+                    Timing.Stage st = timing == null ? null : timing.stage(s);
+                    nextIn = null;
+                    upstream = null;
+                    // Sends nothing: the next stage was given an empty stdin
+                    if (output == null) continue;
+                    if (segmentIsLast) {
+                        // Metered, or a server session's stdout, which can't be inherited: copy it there
+                        if (st != null) {
+                            pending.add(CompletableFuture.runAsync(() -> {
+                                if (!Timing.pump(output, ShellOutput.adaptive(), st, false)) hangUp(last);
+                            }, io()));
+                        } else if (!session.inheritsStdio()) {
+                            pending.add(CompletableFuture.runAsync(() -> streamCopy(last, output, ShellOutput.adaptive()), io()));
+                        }
+                    } else if (reader == null || !reader.readsPipe()) {
+                        // nobody reads it: the next write gets SIGPIPE, as from a shell that never opened it
+                        output.close();
+                    } else if (next != null) {
+                        // the shell carries it to the next process: metered, or stderr after 2>&1 >file
+                        pending.add(CompletableFuture.runAsync(() -> {
+                            if (st != null ? Timing.pump(output, next, st, true) : pipe(output, next)) return;
+                            try { output.close(); } catch (IOException ignored) {}
+                            hangUp(last);
+                        }, io()));
                     } else {
-                        // Middle builtin: capture its output into prevOut for next stage
-                        ByteArrayOutputStream builtinOut = new ByteArrayOutputStream();
-                        runBuiltinInPipeline(cmd, prevOut == null ? new ByteArrayInputStream(new byte[0]) : prevOut, builtinOut);
-                        prevOut = new ByteArrayInputStream(builtinOut.toByteArray());
-                        continue;
+                        nextIn = st != null ? Timing.meterRead(output, st) : output;
+                        upstream = last;
                     }
+                    continue;
                 }
 
-                // External command
-                ProcessBuilder pb = new ProcessBuilder(cmd);
-                pb.directory(currentDir);
-                pb.redirectErrorStream(true); // merge stderr into stdout
-                Process p = pb.start();
-                processes.add(p);
-
-                // If there is output from previous stage, feed it into this process's stdin
-                if (prevOut != null) {
-                    OutputStream stdin = p.getOutputStream();
-                    InputStream finalPrevOut = prevOut;
-                    Thread feeder = new Thread(() -> {
-                        try {
-                            streamCopy(finalPrevOut, stdin, true); // close stdin after copying
-                        } finally {
-                            try { stdin.close(); } catch (IOException ignored) {}
-                        }
-                    });
-                    feeder.start();
-                    threads.add(feeder);
+                List<String> cmd = segments.get(s).get(0);
+                Redirections r = redirs.get(lastStage);
+                // only a pipe from the previous stage is this stage's to close
+                boolean ownsIn = nextIn != null;
+                InputStream in = ownsIn ? nextIn : s == 0 && pipelineIn != null ? pipelineIn : InputStream.nullInputStream();
+                Process producer = upstream;
+                upstream = null;
+                OutputStream out;
+                if (segmentIsLast) {
+                    out = ShellOutput.adaptive();
+                    nextIn = null;
+                } else if (started.get(s + 1) != null) {
+                    out = started.get(s + 1).get(0).getOutputStream();
+                    nextIn = null;
                 } else {
-                    // No previous output: close stdin so the process doesn't wait for input
-                    try { p.getOutputStream().close(); } catch (IOException ignored) {}
+                    BoundedPipe pipe = new BoundedPipe();
+                    out = pipe.sink();
+                    nextIn = pipe.source();
                 }
+                if (!segmentIsLast) out = ShellMetrics.piped(out, cmd.isEmpty() ? "" : cmd.get(0));
+                Timing.Stage metered = timing == null ? null : timing.stage(s);
+                if (metered != null) out = Timing.meterWrite(out, metered, true);
+                OutputStream stageOut = out;
+
+                boolean missing = notFound[lastStage];
+                Runnable stage = () -> {
+                    try {
+                        int st = 1;
+                        if (missing) {
+                            try (r) {
+                                diagnose(cmd.get(0) + ": command not found", r.stderr(stageOut, session.err()));
+                            }
+                            if (!r.readsPipe() && ownsIn) in.close();
+                            st = 127;
+                        } else if (r != null) {
+                            // Stdin redirected: let the upstream stage know right away
+                            if (!r.readsPipe() && ownsIn) in.close();
+                            try (r) {
+                                st = runBuiltinInPipeline(cmd, r.stdin(in), r.stdout(stageOut, session.err()), r.stderr(stageOut, session.err()));
+                            }
+                        }
+                        if (metered != null) metered.status = st;
+                        if (segmentIsLast) lastBuiltinStatus[0] = st;
+                    } catch (IOException ignored) {
+                        // downstream went away
+                    } finally {
+                        // Closing our input tells the upstream stage nobody is reading any more
+                        if (ownsIn) {
+                            try { in.close(); } catch (IOException ignored) {}
+                        }
+                        if (producer != null) hangUp(producer);
+                        try { stageOut.close(); } catch (IOException ignored) {}
+                    }
+                };
 
-                // Set prevOut to this process's stdout, so next iteration will consume it
-                prevOut = p.getInputStream();
-
-                // If last stage, stream its stdout to System.out
-                if (isLast) {
-                    InputStream finalPrevOut = prevOut;
-                    Thread outThread = new Thread(() -> {
-                        streamCopy(finalPrevOut, System.out, false); // don't close System.out
-                    });
-                    outThread.start();
-                    threads.add(outThread);
+                if (segmentIsLast) {
+                    lastBuiltin = stage;
+                } else {
+                    pending.add(CompletableFuture.runAsync(stage, io()));
                 }
             }
 
-            // Wait for all threads to finish
-            for (Thread t : threads) {
-                try { t.join(); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
-            }
+            // A builtin at the end writes to stdout from this thread
+            if (lastBuiltin != null) lastBuiltin.run();
 
-            // Wait for all processes to exit
-            for (Process p : processes) {
-                try { p.waitFor(); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
+            // Wait for every stage and process at once rather than one after another
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException ignored) {
+                // a failed stage has already closed its streams
             }
 
         } catch (IOException e) {
-            // silent per POSIX behavior in your program
+            // A segment failed to start (reported by spawnFailed): nothing runs without it.
+            // No builtin has started yet; the processes already started are stopped.
+            for (List<Process> procs : started) {
+                if (procs == null) continue;
+                for (Process p : procs) p.destroy();
+            }
+            Jobs.launched();
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException ignored) {}
+            return 127;
+        }
+        return lastProcess != null ? lastProcess.exitValue() : lastBuiltinStatus[0];
+    }
+
+    // A command resolved before the spawn didn't start (removed, or not executable after all)
+    private static void spawnFailed(IOException e, List<List<String>> segment, int firstStage, List<Redirections> redirs) {
+        boolean reported = false;
+        for (int k = 0; k < segment.size(); k++) {
+            String name = segment.get(k).get(0);
+            CommandHash.forget(name);
+            if (execArgv(segment.get(k), Map.of()) == null) {
+                diagnose(name + ": command not found", redirs.get(firstStage + k));
+                reported = true;
+            }
         }
+        Session session = Session.current();
+        if (!reported) session.err().println(session.scriptName + ": " + e.getMessage());
     }
 
     /**
      * Copy all data from in -> out.
      * If closeOutAfter is true, attempt to close the out stream after copying (use for process stdin).
      * If closeOutAfter is false, do not close out (use for System.out).
+     * Output is flushed only when the input has nothing more ready, so bursts are written
+     * in large chunks while a slow, interactive producer is still passed on immediately.
      */
     static void streamCopy(InputStream in, OutputStream out, boolean closeOutAfter) {
         try {
-            byte[] buf = new byte[8192];
-            int len;
-            while ((len = in.read(buf)) != -1) {
-                out.write(buf, 0, len);
-                out.flush();
-            }
-        } catch (IOException ignored) {
-            // ignore per POSIX-like behavior
+            copy(in, out);
         } finally {
             if (closeOutAfter) {
                 try { out.close(); } catch (IOException ignored) {}
@@ -251,17 +636,99 @@ public class Main {
         }
     }
 
+    /** Copy the output of process from (its stdout or stderr); hang it up if out fails. */
+    static void streamCopy(Process from, InputStream in, OutputStream out) {
+        if (!copy(in, out) || ShellOutput.broken(out)) {
+            try { in.close(); } catch (IOException ignored) {}
+            hangUp(from);
+        }
+    }
+
+    // Copy from one process into another's stdin and close it; false if that failed
+    private static boolean pipe(InputStream in, OutputStream to) {
+        boolean ok = copy(in, to);
+        try { to.close(); } catch (IOException ignored) {}
+        return ok;
+    }
+
+    // False if writing failed, i.e. whatever reads out has gone away
+    private static boolean copy(InputStream in, OutputStream out) {
+        byte[] buf = new byte[64 * 1024];
+        while (true) {
+            int len;
+            try {
+                len = in.read(buf);
+                if (len == -1) break;
+            } catch (IOException e) {
+                return true;   // ignore per POSIX-like behavior
+            }
+            try {
+                out.write(buf, 0, len);
+                if (in.available() == 0) out.flush();
+            } catch (IOException e) {
+                return false;
+            }
+            if (ShellOutput.broken(out)) return false;
+        }
+        try {
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // How long a stage whose output nobody reads any more gets to exit by itself
+    private static final long HANG_UP_GRACE_MILLIS = 100;
+
+    /**
+     * Nothing reads p's stdout any more (the next stage ended early or the output broke):
+     * close the pipe, so its next write fails with SIGPIPE, and if it hasn't exited a
+     * moment later (SIGPIPE ignored, or busy with other things than writing) terminate
+     * it and what it started, and then kill it. The pipeline doesn't wait for it meanwhile
+     * more than that.
+     */
+    static void hangUp(Process p) {
+        try { p.getInputStream().close(); } catch (IOException ignored) {}
+        if (!p.isAlive()) return;
+        Executor later = CompletableFuture.delayedExecutor(HANG_UP_GRACE_MILLIS, TimeUnit.MILLISECONDS, io());
+        later.execute(() -> {
+            if (!p.isAlive()) return;
+            p.descendants().forEach(ProcessHandle::destroy);
+            p.destroy();
+            later.execute(() -> {
+                if (p.isAlive()) p.destroyForcibly();
+            });
+        });
+    }
+
+    static final List<String> BUILTINS = List.of("echo", "type", "pwd", "cd", "exit", "hash", "enable", "jobs", "wait", "kill", "parallel", "metrics", "history",
+            "alias", "unalias", "return", "break", "continue", "true", "false", ":");
+
     static boolean isBuiltin(String cmd) {
-        return Arrays.asList("echo", "type", "pwd", "cd", "exit").contains(cmd);
+        return BUILTINS.contains(cmd);
+    }
+
+    // A stage with no words (only redirections) runs in-process and does nothing;
+    // functions, and enabled coreutils unless they use an option we don't implement, too
+    static boolean isBuiltinStage(List<String> argv) {
+        return argv.isEmpty() || isBuiltin(argv.get(0)) || Session.current().functions.containsKey(argv.get(0))
+                || CoreUtils.handles(argv);
     }
 
 
-    static void runBuiltinInPipeline(List<String> cmd, InputStream in, OutputStream out) throws IOException {
+    static int runBuiltinInPipeline(List<String> cmd, InputStream in, OutputStream out, OutputStream err) throws IOException {
+        if (cmd.isEmpty()) return 0;
         String name = cmd.get(0);
+        Ast.Function function = Session.current().functions.get(name);
+        if (function != null) return Functions.call(function, cmd, Map.of(), in, out, err);
+        ShellMetrics.builtin(name);
         PrintWriter writer = new PrintWriter(new OutputStreamWriter(out));
+        int status = 0;
 
         switch (name) {
             case "echo":
+                if (out == Redirections.DISCARDED) break;
                 StringBuilder sb = new StringBuilder();
                 for (int i = 1; i < cmd.size(); i++) {
                     if (i > 1) sb.append(" ");
@@ -269,455 +736,417 @@ public class Main {
                 }
                 sb.append("\n");
                 writer.print(sb.toString());
-                writer.flush();
                 break;
 
             case "pwd":
-                writer.println(currentDir.getAbsolutePath());
-                writer.flush();
+                pwd(writer);
                 break;
 
             case "type":
-                if (cmd.size() < 2) return;
-                String arg = cmd.get(1);
-                if (isBuiltin(arg)) writer.println(arg + " is a shell builtin");
-                else {
-                    String path = System.getenv("PATH");
-                    if (path == null) path = "";
-                    boolean found = false;
-                    for (String dir : path.split(":")) {
-                        File file = new File(dir, arg);
-                        if (file.exists() && file.canExecute()) {
-                            writer.println(arg + " is " + file.getAbsolutePath());
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) writer.println(arg + ": not found");
-                }
-                writer.flush();
+                status = type(cmd, writer);
+                break;
+
+            case "hash":
+                status = CommandHash.builtin(cmd, writer, new PrintWriter(err, true));
+                break;
+
+            case "enable":
+                status = CoreUtils.enable(cmd, writer, new PrintWriter(err, true));
+                break;
+
+            case "jobs":
+                status = Jobs.jobs(cmd, writer);
+                break;
+
+            case "wait":
+                status = Jobs.await(cmd, new PrintWriter(err, true));
+                break;
+
+            case "kill":
+                status = Jobs.kill(cmd, new PrintWriter(err, true));
+                break;
+
+            case "parallel":
+                status = Parallel.run(cmd, in, out, err);
+                break;
+
+            case "metrics":
+                status = ShellMetrics.dump(cmd, new PrintWriter(err, true), writer);
+                break;
+
+            case "history":
+                status = HistoryLog.builtin(cmd, writer, new PrintWriter(err, true));
+                break;
+
+            case "alias":
+                status = Aliases.alias(cmd, writer, new PrintWriter(err, true));
+                break;
+
+            case "unalias":
+                status = Aliases.unalias(cmd, new PrintWriter(err, true));
+                break;
+
+            case "true":
+            case ":":
+                break;
+
+            case "false":
+                status = 1;
                 break;
 
             case "exit":
+            case "return":
+            case "break":
+            case "continue":
                 // No-op in pipelines
                 break;
 
             case "cd":
                 // Do nothing in pipeline context
                 break;
+
+            default:
+                if (CoreUtils.handles(cmd)) status = CoreUtils.run(cmd, in, out, err);
+                break;
         }
+        writer.flush();
+        return status;
     }
 
-    static void type(String[] input) {
-        String[] validCommands = {"exit", "type", "echo", "pwd", "cd"};
-        if (search(validCommands, input[1])) {
-            System.out.println(input[1] + " is a shell builtin");
-            return;
+    private static final Set<String> KEYWORDS = Set.of("time", "{", "}", "!", "if", "then", "elif", "else", "fi",
+            "while", "until", "for", "in", "do", "done");
+
+    static int type(List<String> input, PrintWriter out) {
+        if (input.size() < 2) return 0;
+        String arg = input.get(1);
+        Session session = Session.current();
+        String alias = session.aliases.get(arg);
+        if (alias != null) {
+            out.println(arg + " is aliased to `" + alias + "'");
+            return 0;
         }
-        String path = System.getenv("PATH");
-        if (path == null) path = "";
-        String[] dirs = path.split(":");
-
-        for (String dir : dirs) {
-            if (dir.isEmpty()) continue;
-            File file = new File(dir, input[1]);
-            if (file.exists() && file.canExecute()) {
-                System.out.println(input[1] + " is " + file.getAbsolutePath());
-                return;
-            }
+        if (KEYWORDS.contains(arg)) {
+            out.println(arg + " is a shell keyword");
+            return 0;
+        }
+        Ast.Function function = session.functions.get(arg);
+        if (function != null) {
+            out.println(arg + " is a function");
+            out.println(function.text());
+            return 0;
+        }
+        if (isBuiltin(arg)) {
+            out.println(arg + " is a shell builtin");
+            return 0;
         }
-        System.out.println(input[1] + ": not found");
+        String found = CommandHash.lookup(arg);
+        if (CoreUtils.isEnabled(arg)) {
+            // in-process, with the binary kept for options it doesn't implement
+            out.println(arg + " is a shell builtin (in-process" + (found != null ? "; " + found + " for other options)" : ")"));
+            return 0;
+        }
+        if (found != null) {
+            out.println(arg + " is " + found);
+            return 0;
+        }
+        out.println(arg + ": not found");
+        return 1;
     }
 
-    static boolean search(String[] input, String command) {
-        for (String s : input) {
-            if (s.equals(command)) {
-                return true;
-            }
+    static void printCNF(String input, Redirections redirections) {
+        try (redirections) {
+            diagnose(input + ": command not found", redirections);
         }
-        return false;
     }
 
-    static void printCNF(String input) {
-        System.out.println(input + ": command not found");
+    // A message of the shell's about a command, to the command's stderr: 2>/dev/null silences it
+    private static void diagnose(String message, Redirections redirections) {
+        Session session = Session.current();
+        try {
+            diagnose(message, redirections.stderr(ShellOutput.adaptive(), session.err()));
+        } catch (IOException ignored) {}
     }
 
-    static void runExternalCommand(String[] commands) {
-        if (commands.length == 0) return;
-
-        String cmd = commands[0];
-        String path = System.getenv("PATH");
-        if (path == null) path = "";
-        String[] dirs = path.split(":");
-
-        boolean redirectOut = false;
-        boolean appendOut = false;
-        String outFileName = null;
-
-        boolean redirectErr = false;
-        boolean appendErr = false;
-        String errFileName = null;
-
-        List<String> cmdList = new ArrayList<>();
-
-        // Scan for redirection markers anywhere in the command
-        for (int i = 0; i < commands.length; ) {
-            String token = commands[i];
-
-            if (token.equals("__APPEND__") && i + 1 < commands.length) {
-                appendOut = true;
-                redirectOut = true;
-                outFileName = commands[i + 1];
-                i += 2;
-                continue;
-            }
+    private static void diagnose(String message, OutputStream err) {
+        PrintStream ps = err instanceof PrintStream p ? p : new PrintStream(err, false);
+        ps.println(message);
+        ps.flush();
+    }
 
-            if (token.equals("__REDIR__") && i + 1 < commands.length) {
-                appendOut = false;
-                redirectOut = true;
-                outFileName = commands[i + 1];
-                i += 2;
-                continue;
-            }
+    /** Run an external command in the foreground and return its exit status (127 if not found). */
+    static int runExternalCommand(List<String> argv, Redirections redirections) {
+        return runExternalCommand(argv, redirections, Map.of());
+    }
 
-            if (token.equals("__APPEND_ERR__") && i + 1 < commands.length) {
-                appendErr = true;
-                redirectErr = true;
-                errFileName = commands[i + 1];
-                i += 2;
-                continue;
-            }
+    /** As above, with NAME=value assignments written before the command added to its environment. */
+    static int runExternalCommand(List<String> argv, Redirections redirections, Map<String, String> environment) {
+        if (argv.isEmpty()) return 0;
 
-            if (token.equals("__REDIR_ERR__") && i + 1 < commands.length) {
-                appendErr = false;
-                redirectErr = true;
-                errFileName = commands[i + 1];
-                i += 2;
-                continue;
-            }
-
-            // Normal command tokens
-            cmdList.add(token);
-            i++;
+        String cmd = argv.get(0);
+        List<String> exec = execArgv(argv, environment);
+        if (exec == null) {
+            Jobs.launched();
+            printCNF(cmd, redirections);
+            return 127;
         }
 
-        // Build target File objects if present
-        File outTarget = (outFileName != null) ? new File(outFileName) : null;
-        File errTarget = (errFileName != null) ? new File(errFileName) : null;
-
         try {
-            ProcessBuilder pb = new ProcessBuilder(cmdList);
-            pb.directory(currentDir);
-
-            // stdout redirection
-            if (redirectOut && outTarget != null) {
-                File parent = outTarget.getParentFile();
-                if (parent != null && !parent.exists()) {
-                    // directory doesn't exist -> discard to /dev/null
-                    pb.redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null")));
-                } else {
-                    if (appendOut) {
-                        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(outTarget));
-                    } else {
-                        pb.redirectOutput(ProcessBuilder.Redirect.to(outTarget));
-                    }
-                }
-            } else {
-                pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            Session session = Session.current();
+            ProcessBuilder pb = session.processBuilder(exec);
+            if (!environment.isEmpty()) pb.environment().putAll(environment);
+            redirections.applyTo(pb, session.inheritsStdio());
+            // Background jobs don't read the terminal
+            if (Jobs.inBackground() && redirections.in.file() == null) {
+                pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
             }
+            // A subshell's stdin (a function in a pipeline) is fed to the command over a pipe
+            InputStream feed = redirections.readsPipe() ? session.stdin() : null;
+            if (feed != null) pb.redirectInput(ProcessBuilder.Redirect.PIPE);
 
-            // stderr redirection
-            if (redirectErr && errTarget != null) {
-                File parent = errTarget.getParentFile();
-                if (parent != null && !parent.exists()) {
-                    // directory doesn't exist -> discard to /dev/null
-                    pb.redirectError(ProcessBuilder.Redirect.to(new File("/dev/null")));
-                } else {
-                    try {
-                        if (appendErr && !errTarget.exists()) {
-                            errTarget.createNewFile();  // ensure file exists before append
-                        }
-                    } catch (IOException ignored) {}
-
-                    if (appendErr) {
-                        pb.redirectError(ProcessBuilder.Redirect.appendTo(errTarget));
-                    } else {
-                        pb.redirectError(ProcessBuilder.Redirect.to(errTarget));
-                    }
-                }
-            } else {
-                pb.redirectError(ProcessBuilder.Redirect.INHERIT);
-            }
+            // The child writes to the same stdout: everything we buffered goes first
+            ShellOutput.flush();
 
+            long spawnStart = System.nanoTime();
             Process p = pb.start();
-            p.waitFor();
-            return;
-
+            long spawnNanos = System.nanoTime() - spawnStart;
+            ShellMetrics.spawned(1, spawnNanos);
+            ShellEvents.spawned(cmd, p, -1, spawnNanos);
+            Jobs.started(p);
+            Jobs.launched();
+            if (feed != null) io().execute(() -> streamCopy(feed, p.getOutputStream(), true));
+            CompletableFuture<Void> copied = session.inheritsStdio() ? null : redirections.forward(p, session);
+            // onExit parks a virtual thread (background job) instead of pinning it like waitFor
+            int status = p.onExit().join().exitValue();
+            if (copied != null) copied.join();
+            return status;
         } catch (IOException e) {
-            // If not found directly (or other IO issue), try PATH search
-            for (String dir : dirs) {
-                if (dir.isEmpty()) continue;
-                File file = new File(dir, cmd);
-                if (file.exists() && file.canExecute()) {
-                    try {
-                        List<String> newCmd = new ArrayList<>(cmdList);
-                        newCmd.set(0, file.getAbsolutePath());
-
-                        ProcessBuilder pb2 = new ProcessBuilder(newCmd);
-                        pb2.directory(currentDir);
-
-                        // stdout redirection for fallback
-                        if (redirectOut && outTarget != null) {
-                            File parent = outTarget.getParentFile();
-                            if (parent != null && !parent.exists()) {
-                                pb2.redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null")));
-                            } else {
-                                if (appendOut) pb2.redirectOutput(ProcessBuilder.Redirect.appendTo(outTarget));
-                                else pb2.redirectOutput(ProcessBuilder.Redirect.to(outTarget));
-                            }
-                        } else {
-                            pb2.redirectOutput(ProcessBuilder.Redirect.INHERIT);
-                        }
-
-                        // stderr redirection for fallback
-                        if (redirectErr && errTarget != null) {
-                            File parent = errTarget.getParentFile();
-                            if (parent != null && !parent.exists()) {
-                                pb2.redirectError(ProcessBuilder.Redirect.to(new File("/dev/null")));
-                            } else  {
-                                try {
-                                    // Ensure file exists before appending (POSIX behavior for "2>>")
-                                    if (appendErr && !errTarget.exists()) {
-                                        errTarget.createNewFile();
-                                    }
-                                } catch (IOException ignored) {}
-
-                                if (appendErr) {
-                                    pb2.redirectError(ProcessBuilder.Redirect.appendTo(errTarget));
-                                } else {
-                                    pb2.redirectError(ProcessBuilder.Redirect.to(errTarget));
-                                }
-                            }
-                        } else {
-                            pb2.redirectError(ProcessBuilder.Redirect.INHERIT);
-                        }
+            ShellMetrics.spawnFailures.increment();
+            Jobs.launched();
+            // A hashed location may have gone stale (binary moved or deleted)
+            CommandHash.forget(cmd);
+            printCNF(cmd, redirections);
+            return 127;
+        }
+    }
 
-                        Process p2 = pb2.start();
-                        p2.waitFor();
-                        return;
-                    } catch (Exception ignored) {}
-                }
-            }
-            System.out.println(cmd + ": command not found");
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(ex);
+    /**
+     * Locate the program for a command name: names containing '/' are taken relative
+     * to the current directory, everything else goes through the hash table.
+     * Returns null when the command cannot be found.
+     */
+    static String resolveCommand(String cmd) {
+        if (cmd.indexOf('/') >= 0) {
+            File file = new File(cmd);
+            if (!file.isAbsolute()) file = new File(Session.current().cwd, cmd);
+            return file.getPath();
         }
+        return CommandHash.lookup(cmd);
+    }
+
+    // The PATH the JVM started with: ProcessBuilder searches that one, whatever the child's environment
+    private static final String JVM_PATH = System.getenv("PATH");
+
+    /**
+     * The argv to exec for a command, or null when it can't be found. A name without '/'
+     * is looked up on the session's PATH (or the PATH=... written before the command):
+     * argv[0] stays as typed when the JVM's own search finds the same file, and is the
+     * path found otherwise, so the session's PATH is the one that counts.
+     */
+    static List<String> execArgv(List<String> argv, Map<String, String> environment) {
+        String cmd = argv.get(0);
+        if (cmd.indexOf('/') >= 0) return resolveCommand(cmd) != null ? argv : null;
+        String path = environment.get("PATH");
+        if (path == null) path = Session.current().getenv("PATH");
+        if (path == null) path = "";
+        String found = CommandHash.lookup(cmd, path);
+        if (found == null) return null;
+        if (path.equals(JVM_PATH) || (JVM_PATH != null && found.equals(CommandHash.lookup(cmd, JVM_PATH)))) return argv;
+        List<String> exec = new ArrayList<>(argv);
+        exec.set(0, found);
+        return exec;
     }
 
-    static void pwd() {
-        System.out.println(currentDir.getAbsolutePath());
+    static void pwd(PrintWriter out) {
+        out.println(Session.current().cwd.getAbsolutePath());
     }
 
-    static void cd(String[] commands) {
-        if (commands.length < 2) {
-            return;
+    static int cd(List<String> commands, Redirections redirections) {
+        if (commands.size() < 2) {
+            return 0;
         }
 
-        String path = commands[1];
+        Session session = Session.current();
+        String path = commands.get(1);
         File newDir;
 
         // Absolute path
         if (path.startsWith("/")) {
             newDir = new File(path);
         } else if (path.startsWith("~")) {
-            String home = System.getenv("HOME");
+            String home = session.getenv("HOME");
             if (home == null) home = System.getProperty("user.home");
             newDir = new File(home);
         } else {
-            newDir = new File(currentDir, path);
+            newDir = new File(session.cwd, path);
         }
 
         try {
             if (newDir.exists() && newDir.isDirectory()) {
-                currentDir = newDir.getCanonicalFile(); // normalize path
-                System.setProperty("user.dir", currentDir.getAbsolutePath());
+                session.cwd = newDir.getCanonicalFile(); // normalize path
+                if (session.inheritsStdio()) System.setProperty("user.dir", session.cwd.getAbsolutePath());
+                return 0;
             } else {
-                System.out.println("cd: " + path + ": No such file or directory");
+                diagnose("cd: " + path + ": No such file or directory", redirections);
             }
         } catch (IOException e) {
-            System.out.println("cd: " + path + ": No such file or directory");
+            diagnose("cd: " + path + ": No such file or directory", redirections);
         }
+        return 1;
     }
 
-    static List<String> parseCommand(String input) {
-        List<String> tokens = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        boolean inSingle = false, inDouble = false;
-
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-
-            // toggle single quote
-            if (c == '\'' && !inDouble) {
-                inSingle = !inSingle;
-                if (!inSingle && cur.length() == 0) tokens.add("");
-                continue;
-            }
-
-            // toggle double quote
-            if (c == '"' && !inSingle) {
-                inDouble = !inDouble;
-                if (!inDouble && cur.length() == 0) tokens.add("");
-                continue;
-            }
-
-            // Backslash handling (only outside single quotes)
-            if (c == '\\' && !inSingle) {
-                if (inDouble) {
-                    if (i + 1 < input.length()) {
-                        char next = input.charAt(i + 1);
-                        if (next == '"' || next == '\\' || next == '$' || next == '`') {
-                            cur.append(next);
-                            i++;
-                            continue;
-                        }
-                    }
-                    cur.append('\\');
-                    continue;
-                }
+    /** Parse one line; null if there is nothing to run. */
+    static Ast.Node parseCommand(String input) {
+        return Parser.parse(input, Session.current().aliases);
+    }
 
-                if (i + 1 < input.length()) {
-                    char next = input.charAt(i + 1);
-                    if (next == ' ') {
-                        cur.append(' ');
-                        i++;
+    /**
+     * Expand words into an argument vector; unquoted words that expand to nothing disappear.
+     * The output of an unquoted command substitution is split into words at blanks and
+     * newlines, and a word with an unquoted `*`, `?` or `[` is replaced by the file names
+     * it matches (see Glob), or kept as it is when there are none.
+     */
+    static List<String> expandWords(List<Ast.Word> words) {
+        List<String> argv = new ArrayList<>(words.size());
+        for (Ast.Word w : words) {
+            if (w.splits() || w.globs()) {
+                Fields fields = new Fields(argv);
+                for (Ast.Part part : w.parts()) {
+                    if (part instanceof Ast.Param p && p.quoted() && p.name().equals("@")) {
+                        fields.params(Session.current().positional);
                         continue;
                     }
-                    cur.append(next);
-                    i++;
-                    continue;
+                    String value = expandPart(part);
+                    if (part.quoted() || part instanceof Ast.Literal) fields.append(value, part.quoted());
+                    else fields.split(value);
                 }
-
-                cur.append('\\');
+                fields.end();
                 continue;
             }
-
-            // Space ends token only when not quoted
-            if (c == ' ' && !inSingle && !inDouble) {
-                if (cur.length() > 0) {
-                    tokens.add(cur.toString());
-                    cur.setLength(0);
-                }
-                continue;
-            }
-
-            cur.append(c);
+            String s = expandWord(w);
+            if (!s.isEmpty() || w.hasQuotes()) argv.add(s);
         }
+        return argv;
+    }
 
-        if (cur.length() > 0) tokens.add(cur.toString());
-
-        // Final result + placeholders for internal redirection markers
-        List<String> cleaned = new ArrayList<>();
-        String out = null, err = null;
-        boolean appendOut = false, appendErr = false;
-
-        for (int i = 0; i < tokens.size(); i++) {
-            String t = tokens.get(i);
+    /** The words one shell word expands to, built up part by part. */
+    private static final class Fields {
+        private final List<String> argv;
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder pattern = new StringBuilder();   // text with quoted pattern characters escaped
+        private boolean keep;   // has quoted text, so it stays even if empty
+        private boolean glob;   // has an unquoted *, ? or [
 
-            // append stdout >> or 1>>
-            if (t.equals(">>") || t.equals("1>>")) {
-                appendOut = true;
-                out = tokens.get(++i);
-                cleaned.add("__APPEND__");
-                cleaned.add(out);
-                continue;
-            }
-            if (t.startsWith(">>")) {
-                appendOut = true;
-                out = t.substring(2);
-                cleaned.add("__APPEND__");
-                cleaned.add(out);
-                continue;
-            }
-            if (t.startsWith("1>>")) {
-                appendOut = true;
-                out = t.substring(3);
-                cleaned.add("__APPEND__");
-                cleaned.add(out);
-                continue;
-            }
+        Fields(List<String> argv) {
+            this.argv = argv;
+        }
 
-            // append stderr 2>>
-            if (t.equals("2>>")) {
-                appendErr = true;
-                err = tokens.get(++i);
-                cleaned.add("__APPEND_ERR__");
-                cleaned.add(err);
-                continue;
-            }
-            if (t.startsWith("2>>")) {
-                appendErr = true;
-                err = t.substring(3);
-                cleaned.add("__APPEND_ERR__");
-                cleaned.add(err);
-                continue;
-            }
+        void append(String s, boolean quoted) {
+            for (int i = 0; i < s.length(); i++) add(s.charAt(i), quoted);
+            keep |= quoted;
+        }
 
-            // normal stdout redirect > or 1>
-            if (t.equals(">") || t.equals("1>")) {
-                out = tokens.get(++i);
-                continue;
-            }
-            if (t.startsWith(">")) {
-                out = t.substring(1);
-                continue;
-            }
-            if (t.startsWith("1>")) {
-                out = t.substring(2);
-                continue;
+        // Unquoted parameter value or substitution output: blanks and newlines end the word
+        void split(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n') end();
+                else add(c, false);
             }
+        }
 
-            // stderr redirect 2>
-            if (t.equals("2>")) {
-                err = tokens.get(++i);
-                continue;
+        // "$@": one word per positional parameter, the first and last joined to the text around
+        // them; with none and nothing around it, no word at all (the quote alone doesn't keep one)
+        void params(List<String> values) {
+            if (values.isEmpty() && text.length() == 0) keep = false;
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) end();
+                append(values.get(i), true);
             }
-            if (t.startsWith("2>")) {
-                err = t.substring(2);
-                continue;
-            }
-
-            cleaned.add(t);
         }
 
-        // Handle stdout overwrite (>) if not append
-        if (out != null && !appendOut) {
-            cleaned.add("__REDIR__");
-            cleaned.add(out);
+        private void add(char c, boolean quoted) {
+            text.append(c);
+            if (!quoted && (c == '*' || c == '?' || c == '[')) glob = true;
+            else if (c == '\\' || (quoted && (c == '*' || c == '?' || c == '[' || c == ']'))) pattern.append('\\');
+            pattern.append(c);
         }
 
-        // Handle stderr overwrite (2>) if not append AND no stderr redirection exists
-        boolean hasErrRedir = cleaned.contains("__APPEND_ERR__") || cleaned.contains("__REDIR_ERR__");
-        if (err != null && !hasErrRedir) {
-            if (appendErr) {
-                cleaned.add("__APPEND_ERR__");
-                cleaned.add(err);
-            } else {
-                cleaned.add("__REDIR_ERR__");
-                cleaned.add(err);
+        void end() {
+            if (!(glob && Glob.expand(pattern.toString(), Session.current().cwd, argv)) && (keep || text.length() > 0)) {
+                argv.add(text.toString());
             }
+            text.setLength(0);
+            pattern.setLength(0);
+            keep = false;
+            glob = false;
         }
+    }
 
-        return cleaned;
+    // Environment for an external command from the assignments before it
+    private static Map<String, String> environment(Ast.SimpleCommand command) {
+        if (command.assignments().isEmpty()) return Map.of();
+        Map<String, String> env = new LinkedHashMap<>();
+        for (Ast.Assignment a : command.assignments()) env.put(a.name(), expandWord(a.value()));
+        return env;
     }
 
-    static void writeToFile(String file, String content, boolean append) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, append))) {
-            bw.write(content);
-            bw.flush(); // ensure it's written immediately
-        } catch (IOException e) {
-            // do NOT print errors to stdout, silent fail per POSIX shell
+    static List<String> expandTargets(List<Ast.Redirect> redirects) {
+        List<String> targets = new ArrayList<>(redirects.size());
+        for (Ast.Redirect r : redirects) targets.add(expandWord(r.target()));
+        return targets;
+    }
+
+    static String expandWord(Ast.Word word) {
+        List<Ast.Part> parts = word.parts();
+        if (parts.size() == 1 && parts.get(0) instanceof Ast.Literal l) return l.text();
+
+        StringBuilder sb = new StringBuilder();
+        for (Ast.Part part : parts) sb.append(expandPart(part));
+        return sb.toString();
+    }
+
+    private static String expandPart(Ast.Part part) {
+        return switch (part) {
+            case Ast.Literal l -> l.text();
+            case Ast.Param p -> {
+                String value = parameter(p.name());
+                yield value != null ? value : "";
+            }
+            case Ast.Substitution s -> Substitution.run(s.body());
+        };
+    }
+
+    /** Value of a special, positional or environment parameter, or null if unset. */
+    static String parameter(String name) {
+        Session session = Session.current();
+        List<String> positional = session.positional;
+        switch (name) {
+            case "?": return String.valueOf(session.lastStatus);
+            case "#": return String.valueOf(positional.size());
+            case "0": return session.scriptName;
+            case "$": return String.valueOf(ProcessHandle.current().pid());
+            case "!": return Jobs.lastPid();
+            case "@":
+            case "*": return String.join(" ", positional);
+        }
+        if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+            try {
+                int n = Integer.parseInt(name);
+                return n >= 1 && n <= positional.size() ? positional.get(n - 1) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
+        return session.getenv(name);
     }
 }
@@ -0,0 +1,268 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The `parallel` builtin: run a command template once per item, several at a time.
+ *
+ *   parallel [-j N] [-k] command [args...] [::: items...]
+ *
+ * Items come after ":::" or, without it, one per line from stdin. In the template
+ * {} is the item, {.} the item without extension, {/} its basename, {//} its directory,
+ * {/.} the basename without extension and {#} the job number; with no replacement
+ * string the item is appended as the last argument.
+ *
+ * Items are read only as job slots free up, so memory stays bounded by -j (default:
+ * available processors) however many items there are. Each job's stdout and stderr go
+ * to files of its own and are copied out in one piece when it ends, so output from
+ * different jobs never interleaves; -k prints it in input order. The exit status is
+ * the number of failed jobs, capped at 101 like GNU parallel.
+ */
+final class Parallel {
+
+    private Parallel() {}
+
+    static int run(List<String> argv, InputStream in, OutputStream out, OutputStream err) throws IOException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean keepOrder = false;
+
+        int i = 1;
+        for (; i < argv.size(); i++) {
+            String a = argv.get(i);
+            if (a.equals("--")) {
+                i++;
+                break;
+            }
+            if (a.equals("-k") || a.equals("--keep-order")) {
+                keepOrder = true;
+            } else if (a.equals("-j") || a.equals("--jobs")) {
+                if (i + 1 >= argv.size()) return usage(err);
+                jobs = parseJobs(argv.get(++i));
+            } else if (a.startsWith("-j")) {
+                jobs = parseJobs(a.substring(2));
+            } else {
+                break;
+            }
+        }
+        if (jobs <= 0) return usage(err);
+
+        List<String> template = new ArrayList<>();
+        List<String> items = null;
+        for (; i < argv.size(); i++) {
+            if (argv.get(i).equals(":::")) {
+                items = argv.subList(i + 1, argv.size());
+                break;
+            }
+            template.add(argv.get(i));
+        }
+        if (template.isEmpty()) return usage(err);
+
+        Iterator<String> source = items != null ? items.iterator() : lines(in);
+        return new Run(template, jobs, keepOrder, out, err).execute(source);
+    }
+
+    private static int parseJobs(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int usage(OutputStream err) {
+        PrintStream ps = new PrintStream(err, true);
+        ps.println("parallel: usage: parallel [-j N] [-k] command [args...] [::: items...]");
+        return 2;
+    }
+
+    // Lines of stdin, read one at a time as the loop asks for them
+    private static Iterator<String> lines(InputStream in) {
+        LineInput input = new LineInput(in);
+        return new Iterator<>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = input.readLine();
+                    } catch (IOException e) {
+                        next = null;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String s = next;
+                next = null;
+                return s;
+            }
+        };
+    }
+
+    /** Expand the template for one item. */
+    static List<String> expand(List<String> template, String item, int seq) {
+        List<String> argv = new ArrayList<>(template.size() + 1);
+        boolean replaced = false;
+        for (String t : template) {
+            if (t.indexOf('{') < 0) {
+                argv.add(t);
+                continue;
+            }
+            String s = t;
+            if (s.contains("{#}")) s = s.replace("{#}", String.valueOf(seq));
+            if (s.contains("{/.}")) s = s.replace("{/.}", stripExtension(basename(item)));
+            if (s.contains("{//}")) s = s.replace("{//}", dirname(item));
+            if (s.contains("{/}")) s = s.replace("{/}", basename(item));
+            if (s.contains("{.}")) s = s.replace("{.}", stripExtension(item));
+            if (s.contains("{}")) s = s.replace("{}", item);
+            if (!s.equals(t)) replaced = true;
+            argv.add(s);
+        }
+        if (!replaced) argv.add(item);
+        return argv;
+    }
+
+    private static String basename(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? path : path.substring(slash + 1);
+    }
+
+    private static String dirname(String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash < 0) return ".";
+        return slash == 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String stripExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') + 1 ? path.substring(0, dot) : path;
+    }
+
+    /** State of one parallel invocation. */
+    private static final class Run {
+        private final List<String> template;
+        private final Semaphore slots;
+        private final int jobs;
+        private final boolean keepOrder;
+        private final OutputStream out;
+        private final OutputStream err;
+        private final AtomicInteger failed = new AtomicInteger();
+        private Path spool;
+
+        // Output lock; with -k also the sequence number of the next job allowed to print
+        private final ReentrantLock printing = new ReentrantLock();
+        private final Condition turn = printing.newCondition();
+        private int nextToPrint = 1;
+
+        Run(List<String> template, int jobs, boolean keepOrder, OutputStream out, OutputStream err) {
+            this.template = template;
+            this.jobs = jobs;
+            this.slots = new Semaphore(jobs);
+            this.keepOrder = keepOrder;
+            this.out = out;
+            this.err = err;
+        }
+
+        int execute(Iterator<String> items) throws IOException {
+            spool = Files.createTempDirectory("mini-shell-parallel");
+            try {
+                int seq = 0;
+                while (items.hasNext()) {
+                    String item = items.next();
+                    slots.acquireUninterruptibly();
+                    int n = ++seq;
+                    Main.io().execute(() -> {
+                        try {
+                            job(n, item);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+                // every slot free again means every job has printed
+                slots.acquireUninterruptibly(jobs);
+            } finally {
+                try {
+                    Files.deleteIfExists(spool);
+                } catch (IOException ignored) {}
+            }
+            out.flush();
+            return Math.min(failed.get(), 101);
+        }
+
+        private void job(int seq, String item) {
+            List<String> argv = expand(template, item, seq);
+            Path stdout = spool.resolve(seq + ".out");
+            Path stderr = spool.resolve(seq + ".err");
+            int status;
+            try {
+                status = Main.isBuiltinStage(argv) ? builtin(argv, stdout, stderr) : external(argv, stdout, stderr);
+            } catch (IOException e) {
+                status = 1;
+            }
+            if (status != 0) failed.incrementAndGet();
+            print(seq, stdout, stderr);
+        }
+
+        private int builtin(List<String> argv, Path stdout, Path stderr) throws IOException {
+            try (OutputStream o = new Redirections.FileSink(stdout.toFile(), false);
+                 OutputStream e = new Redirections.FileSink(stderr.toFile(), false)) {
+                return Main.runBuiltinInPipeline(argv, InputStream.nullInputStream(), o, e);
+            }
+        }
+
+        private int external(List<String> argv, Path stdout, Path stderr) throws IOException {
+            List<String> exec = Main.execArgv(argv, Map.of());
+            if (exec == null) {
+                Files.writeString(stderr, argv.get(0) + ": command not found\n");
+                return 127;
+            }
+            ProcessBuilder pb = Session.current().processBuilder(exec);
+            pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+            pb.redirectOutput(stdout.toFile());
+            pb.redirectError(stderr.toFile());
+            try {
+                return pb.start().onExit().join().exitValue();
+            } catch (IOException e) {
+                CommandHash.forget(argv.get(0));
+                Files.writeString(stderr, argv.get(0) + ": command not found\n");
+                return 127;
+            }
+        }
+
+        // Copy one job's output in one piece; with -k wait for the jobs before it first
+        private void print(int seq, Path stdout, Path stderr) {
+            printing.lock();
+            try {
+                if (keepOrder) {
+                    while (nextToPrint != seq) turn.awaitUninterruptibly();
+                }
+                copy(stdout, out);
+                copy(stderr, err);
+            } catch (IOException ignored) {
+                // reader went away; keep going so the remaining jobs finish
+            } finally {
+                nextToPrint++;
+                turn.signalAll();
+                printing.unlock();
+            }
+        }
+
+        private static void copy(Path file, OutputStream to) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE)) {
+                if (ch.size() > 0) CoreUtils.copy(ch, to);
+            } catch (NoSuchFileException ignored) {
+                // nothing was written
+            }
+        }
+    }
+}
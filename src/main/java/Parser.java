@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds an {@link Ast} from the tokens of one command line, or of several lines joined
+ * with '\n' when a construct is continued on the next one.
+ *
+ *   list     := linebreak and_or (separator and_or)* [separator]
+ *   separator := (';' | '&' | NEWLINE) linebreak
+ *   and_or   := item (('&&' | '||') linebreak item)*
+ *   item     := '!' item | function | compound | pipeline
+ *   compound := group | if | while | for
+ *   function := NAME '(' ')' linebreak group
+ *   group    := '{' list '}'
+ *   if       := 'if' list 'then' list ('elif' list 'then' list)* ['else' list] 'fi'
+ *   while    := ('while' | 'until') list 'do' list 'done'
+ *   for      := 'for' NAME linebreak ['in' word*] [';'] linebreak 'do' list 'done'
+ *   pipeline := ['time' ['-p' | '-v' | '-j']*] command ('|' linebreak command)*
+ *   command  := assignment* (word | redirect)+ | assignment+
+ *   assignment := NAME=word   (before the command name only)
+ *   redirect := [n] ('>' | '>>' | '<' | '>&') word
+ *
+ * `{`, `}`, `!` and the words of if, while, until and for are reserved: only recognized
+ * where a command starts. Only a pipeline can run in the background; compound commands
+ * take no redirections and can't be pipeline stages. A command's
+ * first word that names an alias is replaced by the alias's text before it is looked
+ * at; an alias isn't expanded again inside its own text.
+ */
+class Parser {
+
+    /**
+     * Thrown for input that is not a valid command line; the message is bash-style.
+     * incomplete: the input ended inside a construct, and may be fine with more lines.
+     */
+    static final class SyntaxError extends RuntimeException {
+        final boolean incomplete;
+
+        SyntaxError(String message) {
+            this(message, false);
+        }
+
+        SyntaxError(String message, boolean incomplete) {
+            super(message);
+            this.incomplete = incomplete;
+        }
+    }
+
+    private final Lexer lexer;
+    private final Map<String, String> aliases;
+    private Lexer.Token token;
+
+    // Aliases being expanded, and where the text they put in the input ends
+    private final Set<String> expanding = new HashSet<>();
+    private int expandedEnd = -1;
+
+    private Parser(String input, Map<String, String> aliases) {
+        this.lexer = new Lexer(input, aliases);
+        this.aliases = aliases;
+        this.token = lexer.next();
+    }
+
+    /**
+     * Parse a line; returns null for a line with nothing to run (blank or a comment).
+     * A line with a single command gives that node, anything longer a CommandList.
+     */
+    static Ast.Node parse(String input, Map<String, String> aliases) {
+        Parser p = new Parser(input, aliases);
+        p.linebreak();
+        if (p.token.kind() == Lexer.Kind.EOF) return null;
+        Ast.Node node = p.list();
+        if (p.token.kind() != Lexer.Kind.EOF) throw p.unexpected();
+        return node;
+    }
+
+    // Items up to the end of the input, or when ends are given up to one of those words
+    private Ast.Node list(String... ends) {
+        List<Ast.Node> items = new ArrayList<>();
+        linebreak();
+        while (token.kind() != Lexer.Kind.EOF && !isKeyword(ends)) {
+            Ast.Node item = andOr();
+            if (token.kind() == Lexer.Kind.AMP) {
+                if (!(item instanceof Ast.Pipeline p)) throw unexpected();
+                item = new Ast.Pipeline(p.commands(), true, p.text(), p.time());
+            }
+            items.add(item);
+            Lexer.Kind k = token.kind();
+            if (k != Lexer.Kind.SEMI && k != Lexer.Kind.AMP && k != Lexer.Kind.NEWLINE) break;
+            advance();
+            linebreak();
+        }
+        if (ends.length > 0 && !isKeyword(ends)) throw token.kind() == Lexer.Kind.EOF ? incomplete() : unexpected();
+        if (items.isEmpty()) throw unexpected();
+        return items.size() == 1 ? items.get(0) : new Ast.CommandList(items);
+    }
+
+    private Ast.Node andOr() {
+        Ast.Node node = item();
+        while (token.kind() == Lexer.Kind.AND || token.kind() == Lexer.Kind.OR) {
+            boolean and = token.kind() == Lexer.Kind.AND;
+            advance();
+            linebreak();
+            if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+            node = new Ast.AndOr(node, and, item());
+        }
+        return node;
+    }
+
+    private Ast.Node item() {
+        alias();
+        if (isKeyword("!")) {
+            advance();
+            if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+            return new Ast.Not(item());
+        }
+        if (isKeyword("{")) {
+            // a group on its own runs its commands in place: nothing to keep of it
+            return compound(group());
+        }
+        if (isKeyword("if")) return compound(ifClause());
+        if (isKeyword("while") || isKeyword("until")) return compound(whileClause());
+        if (isKeyword("for")) return compound(forClause());
+        if (isKeyword(CLOSING)) throw unexpected();
+        if (isFunctionName()) return function();
+
+        int from = lexer.tokenStart();
+        Ast.TimeOptions time = time();
+        // `time` alone times nothing
+        List<Ast.SimpleCommand> commands = time != null && endsItem() ? List.of() : pipeline();
+        return new Ast.Pipeline(commands, false, lexer.source(from, lexer.tokenStart()), time);
+    }
+
+    // Reserved words that only continue or close a construct
+    private static final String[] CLOSING = {"}", "then", "elif", "else", "fi", "do", "done"};
+
+    // What may follow a compound command: no pipe, no redirection
+    private Ast.Node compound(Ast.Node node) {
+        if (token.kind() == Lexer.Kind.PIPE || token.kind() == Lexer.Kind.REDIRECT) throw unexpected();
+        return node;
+    }
+
+    private boolean endsItem() {
+        return switch (token.kind()) {
+            case EOF, AMP, AND, OR, SEMI, NEWLINE -> true;
+            default -> isKeyword(CLOSING);
+        };
+    }
+
+    // At '{': the list up to the matching '}'
+    private Ast.Node group() {
+        advance();
+        Ast.Node body = list("}");
+        advance();
+        return body;
+    }
+
+    // At `if` or `elif`: up to and including the `fi`
+    private Ast.If ifClause() {
+        advance();
+        Ast.Node condition = list("then");
+        advance();
+        Ast.Node then = list("elif", "else", "fi");
+        if (isKeyword("elif")) return new Ast.If(condition, then, ifClause());
+        Ast.Node otherwise = null;
+        if (isKeyword("else")) {
+            advance();
+            otherwise = list("fi");
+        }
+        advance();
+        return new Ast.If(condition, then, otherwise);
+    }
+
+    private Ast.While whileClause() {
+        boolean until = isKeyword("until");
+        advance();
+        Ast.Node condition = list("do");
+        advance();
+        Ast.Node body = list("done");
+        advance();
+        return new Ast.While(condition, body, until);
+    }
+
+    private Ast.For forClause() {
+        advance();
+        if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+        String name = token.kind() == Lexer.Kind.WORD && !token.word().hasQuotes() ? token.word().literal() : null;
+        if (name == null || !isName(name, name.length())) throw unexpected();
+        advance();
+        linebreak();
+        List<Ast.Word> words = null;
+        if (isKeyword("in")) {
+            advance();
+            words = new ArrayList<>();
+            while (token.kind() == Lexer.Kind.WORD) {
+                words.add(token.word());
+                advance();
+            }
+        }
+        if (token.kind() == Lexer.Kind.SEMI) advance();
+        linebreak();
+        if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+        if (!isKeyword("do")) throw unexpected();
+        advance();
+        Ast.Node body = list("done");
+        advance();
+        return new Ast.For(name, words, body);
+    }
+
+    private boolean isFunctionName() {
+        if (token.kind() != Lexer.Kind.WORD || token.word().hasQuotes()) return false;
+        String name = token.word().literal();
+        return name != null && isName(name, name.length()) && lexer.nextIs('(');
+    }
+
+    private Ast.Function function() {
+        int from = lexer.tokenStart();
+        String name = token.word().literal();
+        advance();
+        advance();
+        if (token.kind() != Lexer.Kind.RPAREN) throw unexpected();
+        advance();
+        linebreak();
+        if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+        if (!isKeyword("{")) throw unexpected();
+        Ast.Node body = group();
+        return new Ast.Function(name, body, lexer.source(from, lexer.tokenStart()));
+    }
+
+    // The reserved word `time` and its options, or null; a quoted "time" is an ordinary command
+    private Ast.TimeOptions time() {
+        if (!isKeyword("time")) return null;
+        advance();
+        boolean posix = false, stages = false, json = false;
+        while (token.kind() == Lexer.Kind.WORD && !token.word().hasQuotes()) {
+            String w = token.word().literal();
+            if ("-p".equals(w)) posix = true;
+            else if ("-v".equals(w)) stages = true;
+            else if ("-j".equals(w)) json = true;
+            else if ("--".equals(w)) {
+                advance();
+                break;
+            } else break;
+            advance();
+        }
+        return new Ast.TimeOptions(posix, stages, json);
+    }
+
+    private boolean isKeyword(String keyword) {
+        return token.kind() == Lexer.Kind.WORD && !token.word().hasQuotes() && keyword.equals(token.word().literal());
+    }
+
+    private boolean isKeyword(String... keywords) {
+        for (String k : keywords) {
+            if (isKeyword(k)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replace the current word by its alias's text, again while that starts with an alias
+     * not already being expanded; true if anything was replaced.
+     */
+    private boolean alias() {
+        boolean replaced = false;
+        while (!aliases.isEmpty() && token.kind() == Lexer.Kind.WORD && !token.word().hasQuotes()) {
+            int start = lexer.tokenStart();
+            if (start >= expandedEnd) expanding.clear();
+            String name = token.word().literal();
+            String value = name == null ? null : aliases.get(name);
+            if (value == null || !expanding.add(name)) break;
+            int delta = value.length() - lexer.replaceToken(value);
+            expandedEnd = start < expandedEnd ? expandedEnd + delta : start + value.length();
+            advance();
+            replaced = true;
+        }
+        return replaced;
+    }
+
+    private void linebreak() {
+        while (token.kind() == Lexer.Kind.NEWLINE) advance();
+    }
+
+    private List<Ast.SimpleCommand> pipeline() {
+        List<Ast.SimpleCommand> commands = new ArrayList<>();
+        commands.add(command());
+        while (token.kind() == Lexer.Kind.PIPE) {
+            advance();
+            linebreak();
+            if (token.kind() == Lexer.Kind.EOF) throw incomplete();
+            commands.add(command());
+        }
+        return commands;
+    }
+
+    private Ast.SimpleCommand command() {
+        List<Ast.Word> words = new ArrayList<>();
+        List<Ast.Redirect> redirects = new ArrayList<>();
+        List<Ast.Assignment> assignments = new ArrayList<>();
+
+        while (true) {
+            if (token.kind() == Lexer.Kind.WORD) {
+                Ast.Assignment a = words.isEmpty() ? assignment(token.word()) : null;
+                if (a != null) assignments.add(a);
+                else if (words.isEmpty() && alias()) continue;
+                else words.add(token.word());
+                advance();
+            } else if (token.kind() == Lexer.Kind.REDIRECT) {
+                Lexer.Token op = token;
+                if (op.fd() == Lexer.BOTH && op.op() == Ast.RedirectOp.DUP) throw unexpected();
+                advance();
+                if (token.kind() != Lexer.Kind.WORD) throw unexpected();
+                if (op.fd() == Lexer.BOTH) {
+                    // &>file is >file 2>&1
+                    redirects.add(new Ast.Redirect(1, op.op(), token.word()));
+                    redirects.add(new Ast.Redirect(2, Ast.RedirectOp.DUP, Ast.Word.of("1")));
+                } else {
+                    redirects.add(new Ast.Redirect(op.fd(), op.op(), token.word()));
+                }
+                advance();
+            } else {
+                break;
+            }
+        }
+
+        if (words.isEmpty() && redirects.isEmpty() && assignments.isEmpty()) throw unexpected();
+        return new Ast.SimpleCommand(words, redirects, assignments);
+    }
+
+    // NAME=value, when the word starts with an unquoted valid name and '='
+    private static Ast.Assignment assignment(Ast.Word word) {
+        if (word.parts().isEmpty() || !(word.parts().get(0) instanceof Ast.Literal first) || first.quoted()) return null;
+        String text = first.text();
+        int eq = text.indexOf('=');
+        if (eq <= 0 || !isName(text, eq)) return null;
+        List<Ast.Part> value = new ArrayList<>(word.parts().subList(1, word.parts().size()));
+        if (eq + 1 < text.length()) value.add(0, new Ast.Literal(text.substring(eq + 1), false));
+        return new Ast.Assignment(text.substring(0, eq), new Ast.Word(value));
+    }
+
+    // Whether text[0, end) is a NAME: letters, digits and '_', not starting with a digit
+    private static boolean isName(String text, int end) {
+        if (end == 0 || Lexer.isDigit(text.charAt(0))) return false;
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '_' && !Character.isLetterOrDigit(c)) return false;
+        }
+        return true;
+    }
+
+    private void advance() {
+        token = lexer.next();
+    }
+
+    private SyntaxError unexpected() {
+        String text = switch (token.kind()) {
+            case PIPE -> "|";
+            case AMP -> "&";
+            case AND -> "&&";
+            case OR -> "||";
+            case SEMI -> ";";
+            case LPAREN -> "(";
+            case RPAREN -> ")";
+            case NEWLINE, EOF -> "newline";
+            case REDIRECT -> switch (token.op()) {
+                case WRITE -> token.fd() == Lexer.BOTH ? "&>" : ">";
+                case APPEND -> token.fd() == Lexer.BOTH ? "&>>" : ">>";
+                case READ -> "<";
+                case DUP -> token.fd() == Lexer.BOTH ? "&>&" : ">&";
+            };
+            case WORD -> token.word().literal() != null ? token.word().literal() : "word";
+        };
+        return new SyntaxError("syntax error near unexpected token `" + text + "'");
+    }
+
+    private static SyntaxError incomplete() {
+        return new SyntaxError("syntax error: unexpected end of file", true);
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The stdin/stdout/stderr of one command after applying its redirections left to right.
+ *
+ * Follows the shell's existing rules: targets are relative to the current directory,
+ * and output aimed at a file whose directory does not exist is silently discarded.
+ * Builtins get streams from {@link #stdout}/{@link #stderr}; external commands get the
+ * same targets through {@link #applyTo(ProcessBuilder)}. A builtin's output file is a
+ * {@link FileSink}, so file data can be transferred into it without passing through the heap.
+ *
+ * In a pipeline the pipes are connected first, so fd 0 and 1 left alone are the pipes
+ * from and to the neighbouring stages (`2>&1 |` sends stderr down the pipe too), and
+ * stderr left alone is the shell's.
+ */
+final class Redirections implements Closeable {
+
+    /** Where one fd points: the shell's own fd, a file, or nowhere. */
+    record Target(int shellFd, File file, boolean append, boolean discard) {
+        static final Target STDIN = new Target(0, null, false, false);
+        static final Target STDOUT = new Target(1, null, false, false);
+        static final Target STDERR = new Target(2, null, false, false);
+        static final Target DISCARD = new Target(-1, null, false, true);
+    }
+
+    static final Redirections NONE = new Redirections(Target.STDIN, Target.STDOUT, Target.STDERR);
+
+    /** What a builtin writes to when its output is discarded; writers may check for it and skip the work. */
+    static final OutputStream DISCARDED = OutputStream.nullOutputStream();
+
+    /**
+     * Output file of a builtin: a FileChannel with a small buffer in front for the many
+     * short writes builtins make. {@link #channel()} exposes the channel for transferTo.
+     * An append target's channel comes from AppendTargets and goes back there on close.
+     */
+    static final class FileSink extends OutputStream {
+        private final FileChannel channel;
+        private final AppendTargets.Lease lease;
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        private boolean closed;
+
+        FileSink(File file, boolean append) throws IOException {
+            if (append) {
+                lease = AppendTargets.acquire(file.toPath());
+                channel = lease.channel;
+            } else {
+                lease = null;
+                AppendTargets.forget(file.toPath());
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buf.hasRemaining()) flush();
+            buf.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buf.remaining()) flush();
+            if (len >= buf.capacity()) {
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) channel.write(src);
+            } else {
+                buf.put(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        /** The underlying channel, with everything written so far already in it. */
+        FileChannel channel() throws IOException {
+            flush();
+            return channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                flush();
+            } finally {
+                if (lease != null) AppendTargets.release(lease);
+                else channel.close();
+            }
+        }
+    }
+
+    final Target in;
+    final Target out;
+    final Target err;
+
+    // Streams opened for a builtin, closed with the Redirections
+    private final List<Closeable> opened = new ArrayList<>();
+    private OutputStream openedOut = null;
+
+    private Redirections(Target in, Target out, Target err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Resolve a command's redirections (words already expanded).
+     * Output files that end up overridden by a later redirection are still created or
+     * truncated, like in any POSIX shell.
+     *
+     * @throws FileNotFoundException if an input file does not exist
+     */
+    static Redirections resolve(List<Ast.Redirect> redirects, List<String> targets, File cwd) throws FileNotFoundException {
+        if (redirects.isEmpty()) return NONE;
+
+        Target[] fds = {Target.STDIN, Target.STDOUT, Target.STDERR};
+        List<Target> files = new ArrayList<>();
+
+        for (int i = 0; i < redirects.size(); i++) {
+            Ast.Redirect r = redirects.get(i);
+            String name = targets.get(i);
+            if (r.fd() > 2) continue; // only the three standard fds exist here
+
+            Target t;
+            switch (r.op()) {
+                case DUP:
+                    if (name.equals("-")) t = Target.DISCARD;
+                    else if (name.equals("0") || name.equals("1") || name.equals("2")) t = fds[Integer.parseInt(name)];
+                    else continue;
+                    break;
+
+                case READ: {
+                    File f = file(name, cwd);
+                    if (!f.isFile()) throw new FileNotFoundException(name + ": No such file or directory");
+                    t = new Target(-1, f, false, false);
+                    break;
+                }
+
+                default: {
+                    File f = file(name, cwd);
+                    File parent = f.getParentFile();
+                    if (parent != null && !parent.exists()) {
+                        // directory doesn't exist -> discard
+                        t = Target.DISCARD;
+                    } else {
+                        t = new Target(-1, f, r.op() == Ast.RedirectOp.APPEND, false);
+                        files.add(t);
+                    }
+                    break;
+                }
+            }
+            fds[r.fd()] = t;
+        }
+
+        // create/truncate targets that no fd points to any more
+        for (Target t : files) {
+            if (t == fds[1] || t == fds[2]) continue;
+            ShellEvents.RedirectionOpened event = ShellEvents.redirectionOpened();
+            try (FileSink ignored = new FileSink(t.file(), t.append())) {
+                // opening is enough
+            } catch (IOException ignored) {}
+            opened(event, t, t.append() ? "append" : "write");
+        }
+
+        return new Redirections(fds[0], fds[1], fds[2]);
+    }
+
+    private static File file(String name, File cwd) {
+        File f = new File(name);
+        return f.isAbsolute() ? f : new File(cwd, name);
+    }
+
+    /**
+     * Configure an external process. stdin/stdout/stderr that are not redirected are
+     * inherited when the shell's stdio is this process's own; in a server session stdin
+     * is /dev/null and stdout/stderr are left as pipes for {@link #forward}.
+     */
+    void applyTo(ProcessBuilder pb, boolean inherit) {
+        if (in.file() != null) pb.redirectInput(ProcessBuilder.Redirect.from(in.file()));
+        else if (inherit) pb.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        else pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+
+        pb.redirectOutput(redirect(out, 1, inherit));
+
+        if (err == out) pb.redirectErrorStream(true);
+        else pb.redirectError(redirect(err, 2, inherit));
+    }
+
+    /**
+     * Configure an external pipeline stage. pipeIn: the previous stage sends something
+     * this way; pipeOut: stdout is read by the shell or the next stage rather than being
+     * the terminal. Output for the shell's stderr goes there directly when inherit is set,
+     * and is left as a pipe for {@link #forwardStderr} otherwise; a chatty stage never
+     * writes into the data going down the pipeline unless told to with 2>&1.
+     */
+    void applyToStage(ProcessBuilder pb, boolean pipeIn, boolean pipeOut, boolean inherit) {
+        if (in.file() != null) pb.redirectInput(ProcessBuilder.Redirect.from(in.file()));
+        else if (pipeIn && readsPipe()) pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+        else pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+
+        pb.redirectOutput(stageRedirect(out, 1, pipeOut, inherit));
+
+        if (err == out) pb.redirectErrorStream(true);
+        else pb.redirectError(stageRedirect(err, 2, pipeOut, inherit));
+    }
+
+    private static ProcessBuilder.Redirect stageRedirect(Target t, int fd, boolean pipeOut, boolean inherit) {
+        if (t == Target.STDOUT && pipeOut) return ProcessBuilder.Redirect.PIPE;
+        return redirect(t, fd, inherit);
+    }
+
+    // The child can't be given a pooled channel's descriptor (the JDK opens redirect
+    // targets itself), so it opens append targets on its own
+    private static ProcessBuilder.Redirect redirect(Target t, int fd, boolean inherit) {
+        if (t.discard()) return ProcessBuilder.Redirect.DISCARD;
+        if (t.file() != null) {
+            if (t.append()) return ProcessBuilder.Redirect.appendTo(t.file());
+            AppendTargets.forget(t.file().toPath());
+            return ProcessBuilder.Redirect.to(t.file());
+        }
+        if (!inherit) return ProcessBuilder.Redirect.PIPE;
+        if (t.shellFd() == fd) return ProcessBuilder.Redirect.INHERIT;
+        // fd pointing at the shell's other stream
+        return ProcessBuilder.Redirect.appendTo(new File(t.shellFd() == 2 ? "/dev/stderr" : "/dev/stdout"));
+    }
+
+    /** Whether stdin is left alone: the pipe from the previous stage, in a pipeline. */
+    boolean readsPipe() {
+        return in == Target.STDIN;
+    }
+
+    /** Whether stdout is the pipe to the next stage, so it can be joined by an OS pipe. */
+    boolean writesPipe() {
+        return out == Target.STDOUT;
+    }
+
+    /** Whether the stage sends anything to the next one: stdout, or stderr after 2>&1. */
+    boolean reachesPipe() {
+        return out == Target.STDOUT || err == Target.STDOUT;
+    }
+
+    /**
+     * What a stage started with applyToStage sends to the next stage (or, at the end of
+     * a pipeline the shell reads, to the shell's stdout): its stdout, or its stderr after
+     * `2>&1 >file`. Null if it sends nothing.
+     */
+    InputStream stageOutput(Process p) {
+        if (out == Target.STDOUT) return p.getInputStream();
+        if (err == Target.STDOUT) return p.getErrorStream();
+        return null;
+    }
+
+    /**
+     * Copy what a stage started with applyToStage(pb, ..., false) writes to the shell's
+     * stderr into the session's, each pipe on its own task so a full one never holds
+     * up the stage. Completes once they are drained.
+     */
+    CompletableFuture<Void> forwardStderr(Process p, Session session) {
+        CompletableFuture<Void> o = out == Target.STDERR
+                ? CompletableFuture.runAsync(() -> Main.streamCopy(p, p.getInputStream(), session.err()), Main.io())
+                : CompletableFuture.completedFuture(null);
+        if (err != Target.STDERR || err == out) return o;
+        CompletableFuture<Void> e = CompletableFuture.runAsync(
+                () -> Main.streamCopy(p, p.getErrorStream(), session.err()), Main.io());
+        return CompletableFuture.allOf(o, e);
+    }
+
+    /**
+     * Copy the output a process started with applyTo(pb, false) writes to the shell's
+     * stdout/stderr into the session's streams. Completes once both pipes are drained.
+     */
+    CompletableFuture<Void> forward(Process p, Session session) {
+        CompletableFuture<Void> o = CompletableFuture.runAsync(
+                () -> Main.streamCopy(p, p.getInputStream(), shellStream(out, session)), Main.io());
+        if (err == out) return o;
+        CompletableFuture<Void> e = CompletableFuture.runAsync(
+                () -> Main.streamCopy(p, p.getErrorStream(), shellStream(err, session)), Main.io());
+        return CompletableFuture.allOf(o, e);
+    }
+
+    private static OutputStream shellStream(Target t, Session session) {
+        return t.shellFd() == 2 ? session.err() : session.out();
+    }
+
+    /** stdin for a builtin. */
+    InputStream stdin(InputStream shellIn) throws IOException {
+        if (in.file() == null) return shellIn;
+        ShellEvents.RedirectionOpened event = ShellEvents.redirectionOpened();
+        InputStream s = new FileInputStream(in.file());
+        opened(event, in, "read");
+        opened.add(s);
+        return s;
+    }
+
+    /** stdout for a builtin, given the shell's stdout and stderr. */
+    OutputStream stdout(OutputStream shellOut, OutputStream shellErr) throws IOException {
+        return open(out, shellOut, shellErr);
+    }
+
+    /** stderr for a builtin; shares the stdout stream after 2>&1. */
+    OutputStream stderr(OutputStream shellOut, OutputStream shellErr) throws IOException {
+        if (err == out) return stdout(shellOut, shellErr);
+        return open(err, shellOut, shellErr);
+    }
+
+    private OutputStream open(Target t, OutputStream shellOut, OutputStream shellErr) throws IOException {
+        if (t.discard()) return DISCARDED;
+        if (t.file() == null) return t.shellFd() == 2 ? shellErr : shellOut;
+        if (t == out && openedOut != null) return openedOut;
+
+        ShellEvents.RedirectionOpened event = ShellEvents.redirectionOpened();
+        OutputStream s = new FileSink(t.file(), t.append());
+        opened(event, t, t.append() ? "append" : "write");
+        opened.add(s);
+        if (t == out) openedOut = s;
+        return s;
+    }
+
+    private static void opened(ShellEvents.RedirectionOpened event, Target t, String mode) {
+        if (event != null && event.shouldCommit()) {
+            event.path = t.file().getPath();
+            event.mode = mode;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Closeable c : opened) {
+            try { c.close(); } catch (IOException ignored) {}
+        }
+        opened.clear();
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Everything one shell instance owns: working directory, environment and shell
+ * variables, functions and aliases, $?, $0 and the positional parameters, stdio, the job
+ * table and the enabled in-process utilities.
+ *
+ * The process's own session (the command line) has no streams of its own: it uses
+ * System.in/out/err as they are at the time, so benchmarks may swap them, and its
+ * children inherit fds 0-2. Server sessions (ShellServer) write to their connection,
+ * so their children's output is piped and copied there, and their commands read
+ * /dev/null unless redirected.
+ *
+ * A thread runs in the session bound by {@link #run}; the threads it starts (pipeline
+ * stages, pumps, background jobs, all created by Main.io()) inherit it.
+ */
+final class Session {
+
+    /** Thrown by `exit` to end the session with a status. */
+    static class Exit extends RuntimeException {
+        final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /** Thrown by `return`: ends the innermost function call, or like exit a subshell it is in. */
+    static final class Return extends Exit {
+        Return(int status) {
+            super(status);
+        }
+    }
+
+    /**
+     * Thrown by `break n` and `continue n` (next set): leaves the n innermost loops, the
+     * last of them going on with its next iteration for continue.
+     */
+    static final class Break extends Exit {
+        final int levels;
+        final boolean next;
+
+        Break(int levels, boolean next) {
+            super(0);
+            this.levels = levels;
+            this.next = next;
+        }
+    }
+
+    private static final Session PROCESS = new Session(new File(System.getProperty("user.dir")), null, null, null);
+    private static final InheritableThreadLocal<Session> bound = new InheritableThreadLocal<>();
+
+    /** The session of the calling thread; the process's own one if none was bound. */
+    static Session current() {
+        Session s = bound.get();
+        return s != null ? s : PROCESS;
+    }
+
+    File cwd;
+    int lastStatus = 0;
+    // Whether lines come from a user at a prompt (job launch and completion notices)
+    boolean interactive = false;
+    String scriptName = "mini-shell";
+    List<String> positional = List.of();
+
+    final TreeMap<Integer, Jobs.Job> jobs = new TreeMap<>();
+    volatile Jobs.Job lastJob;
+    final Set<String> enabledUtils = ConcurrentHashMap.newKeySet();
+    final Map<String, Ast.Function> functions = new ConcurrentHashMap<>();
+    final Map<String, String> aliases = new ConcurrentHashMap<>();
+    int calls = 0;   // function calls in progress
+    int loops = 0;   // loops running, in the innermost function call
+
+    private final Map<String, String> env;   // null: the process environment
+    // Set by NAME=value; one named like an environment variable replaces it, for children too
+    private final Map<String, String> vars = new ConcurrentHashMap<>();
+    private final PrintStream out;
+    private final PrintStream err;
+    // A subshell's stdin when it runs as a pipeline stage or a redirected function call
+    private InputStream in;
+
+    Session(File cwd, Map<String, String> env, PrintStream out, PrintStream err) {
+        this.cwd = cwd;
+        this.env = env;
+        this.out = out;
+        this.err = err;
+    }
+
+    /** Run body with this session bound to the calling thread and the threads it starts. */
+    int run(IntSupplier body) {
+        Session previous = bound.get();
+        bound.set(this);
+        try {
+            return body.getAsInt();
+        } finally {
+            if (previous == null) bound.remove();
+            else bound.set(previous);
+        }
+    }
+
+    /** True for the process's own session, whose children share the shell's fds 0-2. */
+    boolean inheritsStdio() {
+        return this == PROCESS;
+    }
+
+    PrintStream out() {
+        return out != null ? out : System.out;
+    }
+
+    PrintStream err() {
+        return err != null ? err : System.err;
+    }
+
+    /** stdin of a foreground builtin that isn't redirected. */
+    InputStream commandInput() {
+        if (in != null) return in;
+        return inheritsStdio() ? System.in : InputStream.nullInputStream();
+    }
+
+    /**
+     * The stream a subshell was given as stdin, which its external commands are fed from
+     * over a pipe; null when stdin is the process's own fd 0 or there is none.
+     */
+    InputStream stdin() {
+        return in;
+    }
+
+    /** Whether stdout is a terminal, i.e. output should be flushed line by line. */
+    boolean terminal() {
+        return inheritsStdio() && ShellOutput.isTerminal();
+    }
+
+    /** A shell variable, or else an environment variable; null if neither is set. */
+    String getenv(String name) {
+        String value = vars.get(name);
+        if (value != null) return value;
+        return env != null ? env.get(name) : System.getenv(name);
+    }
+
+    void setVariable(String name, String value) {
+        vars.put(name, value);
+    }
+
+    /**
+     * A copy for a subshell writing to out: directory, variables, functions, aliases, $?,
+     * parameters and enabled utilities start out the same, and nothing done in it comes
+     * back here.
+     */
+    Session subshell(PrintStream out) {
+        return subshell(null, out, err());
+    }
+
+    /** A subshell with its own stdin (null: none) and stderr too. */
+    Session subshell(InputStream in, PrintStream out, PrintStream err) {
+        Session s = new Session(cwd, env, out, err);
+        s.in = in;
+        s.lastStatus = lastStatus;
+        s.scriptName = scriptName;
+        s.positional = positional;
+        s.calls = calls;
+        s.loops = loops;
+        s.vars.putAll(vars);
+        s.functions.putAll(functions);
+        s.aliases.putAll(aliases);
+        s.enabledUtils.addAll(enabledUtils);
+        return s;
+    }
+
+    /** A builder for an external command, in this session's directory and environment. */
+    ProcessBuilder processBuilder(List<String> argv) {
+        ProcessBuilder pb = new ProcessBuilder(argv);
+        pb.directory(cwd);
+        if (env != null) {
+            Map<String, String> e = pb.environment();
+            e.clear();
+            e.putAll(env);
+        }
+        if (!vars.isEmpty()) {
+            Map<String, String> e = pb.environment();
+            for (Map.Entry<String, String> v : vars.entrySet()) {
+                if (e.containsKey(v.getKey())) e.put(v.getKey(), v.getValue());
+            }
+        }
+        return pb;
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client for ShellServer.
+ *
+ *   java -cp mini-shell.jar ShellClient socket [shell arguments...]
+ *
+ * runs one session with this process's directory, environment, stdout and stderr (and
+ * stdin as the script when the arguments have no -c and no script file), then exits
+ * with the session's status. Programs on the JVM that start many shells call run()
+ * and pay a connect per shell instead of a process.
+ */
+final class ShellClient {
+
+    private ShellClient() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ShellClient socket [shell arguments...]");
+            System.exit(2);
+        }
+        List<String> shellArgs = List.of(args).subList(1, args.length);
+        int status = run(Path.of(args[0]), shellArgs, new File(System.getProperty("user.dir")), System.getenv(),
+                readsStdin(shellArgs) ? System.in : null, System.out, System.err);
+        System.out.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Run one session: send the request (and script, if not null) and copy the output
+     * frames to out and err. Returns the session's exit status.
+     */
+    static int run(Path socket, List<String> args, File cwd, Map<String, String> env,
+                   InputStream script, OutputStream out, OutputStream err) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            ShellServer.writeString(request, cwd.getAbsolutePath());
+            request.writeInt(env.size());
+            for (Map.Entry<String, String> e : env.entrySet()) ShellServer.writeString(request, e.getKey() + "=" + e.getValue());
+            request.writeInt(args.size());
+            for (String a : args) ShellServer.writeString(request, a);
+            request.flush();
+
+            if (script == null) {
+                channel.shutdownOutput();
+            } else {
+                // sent alongside reading the output, which the server produces as it goes
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        script.transferTo(request);
+                        request.flush();
+                        channel.shutdownOutput();
+                    } catch (IOException ignored) {
+                        // the session ended before reading all of it
+                    }
+                });
+            }
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(new ShellServer.ChannelInput(channel)));
+            byte[] buf = new byte[8192];
+            while (true) {
+                byte type;
+                try {
+                    type = response.readByte();
+                } catch (EOFException e) {
+                    err.write(("mini-shell: " + socket + ": connection closed\n").getBytes());
+                    err.flush();
+                    return 255;
+                }
+                int len = response.readInt();
+                if (type == ShellServer.EXIT) return response.readInt();
+                OutputStream to = type == ShellServer.STDERR ? err : out;
+                while (len > 0) {
+                    int n = response.read(buf, 0, Math.min(len, buf.length));
+                    if (n < 0) throw new EOFException();
+                    to.write(buf, 0, n);
+                    len -= n;
+                }
+                // the frame boundary is as far as the server has got; show it
+                if (response.available() == 0) {
+                    out.flush();
+                    err.flush();
+                }
+            }
+        }
+    }
+
+    // Stdin is the script unless there is -c or a script operand (as Main.start decides)
+    private static boolean readsStdin(List<String> args) {
+        int i = 0;
+        boolean fromStdin = false;
+        while (i < args.size() && args.get(i).startsWith("-") && args.get(i).length() > 1) {
+            String opt = args.get(i++);
+            if (opt.equals("--")) break;
+            if (opt.equals("-c")) return false;
+            if (opt.equals("-s")) fromStdin = true;
+        }
+        return fromStdin || i >= args.size();
+    }
+}
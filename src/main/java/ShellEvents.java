@@ -0,0 +1,172 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the command lifecycle.
+ *
+ * Record with `java -XX:StartFlightRecording=filename=shell.jfr ...` or attach with
+ * `jcmd <pid> JFR.start`. Call sites follow the usual pattern (begin, work, then fill in
+ * fields only if shouldCommit()), except that events are only created once Flight
+ * Recorder is up: the first event class to load registers with JFR and pulls in about
+ * a hundred classes, which would otherwise be paid on every shell start.
+ */
+final class ShellEvents {
+
+    private ShellEvents() {}
+
+    /** Whether Flight Recorder has started; asking loads nothing from jdk.jfr. */
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // Begun events, or null when no recording can want them
+
+    static CommandParsed commandParsed() {
+        if (!recording()) return null;
+        CommandParsed e = new CommandParsed();
+        e.begin();
+        return e;
+    }
+
+    static PathResolved pathResolved() {
+        if (!recording()) return null;
+        PathResolved e = new PathResolved();
+        e.begin();
+        return e;
+    }
+
+    static RedirectionOpened redirectionOpened() {
+        if (!recording()) return null;
+        RedirectionOpened e = new RedirectionOpened();
+        e.begin();
+        return e;
+    }
+
+    static PipeTransfer pipeTransfer() {
+        if (!recording()) return null;
+        PipeTransfer e = new PipeTransfer();
+        e.begin();
+        return e;
+    }
+
+    /** Record a started process, and its exit later if a recording wants that too. */
+    static void spawned(String command, Process p, int stage, long latencyNanos) {
+        if (!recording()) return;
+        ProcessSpawned spawned = new ProcessSpawned();
+        if (spawned.shouldCommit()) {
+            spawned.command = command;
+            spawned.pid = p.pid();
+            spawned.stage = stage;
+            spawned.spawnLatency = latencyNanos;
+            spawned.commit();
+        }
+
+        ProcessExited exited = new ProcessExited();
+        if (!exited.isEnabled()) return;
+        exited.begin();
+        p.onExit().thenAccept(done -> {
+            if (exited.shouldCommit()) {
+                exited.command = command;
+                exited.pid = done.pid();
+                exited.exitStatus = done.exitValue();
+                exited.commit();
+            }
+        });
+    }
+
+    @Name("minishell.CommandParsed")
+    @Label("Command Parsed")
+    @Category("Mini Shell")
+    @Description("A command line was tokenized and parsed")
+    static final class CommandParsed extends Event {
+        @Label("Line")
+        String line;
+
+        @Label("Syntax Error")
+        boolean syntaxError;
+    }
+
+    @Name("minishell.PathResolved")
+    @Label("Path Resolved")
+    @Category("Mini Shell")
+    @Description("A command name was looked up through the hash table and PATH")
+    static final class PathResolved extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Path")
+        @Description("Resolved location, or null if the command was not found")
+        String path;
+
+        @Label("Hash Hit")
+        boolean hashHit;
+    }
+
+    @Name("minishell.ProcessSpawned")
+    @Label("Process Spawned")
+    @Category("Mini Shell")
+    @Description("An external command was started")
+    static final class ProcessSpawned extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("PID")
+        long pid;
+
+        @Label("Pipeline Stage")
+        @Description("Index in the pipeline, -1 for a simple command")
+        int stage;
+
+        @Label("Spawn Latency")
+        @Description("Time to start the process; stages started together share it")
+        @Timespan(Timespan.NANOSECONDS)
+        long spawnLatency;
+    }
+
+    @Name("minishell.ProcessExited")
+    @Label("Process Exited")
+    @Category("Mini Shell")
+    @Description("An external command exited; the duration runs from spawn to exit")
+    static final class ProcessExited extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("PID")
+        long pid;
+
+        @Label("Exit Status")
+        int exitStatus;
+    }
+
+    @Name("minishell.PipeTransfer")
+    @Label("Pipe Transfer")
+    @Category("Mini Shell")
+    @Description("Data a builtin pipeline stage wrote to the next stage, over the stage's lifetime")
+    static final class PipeTransfer extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("minishell.RedirectionOpened")
+    @Label("Redirection Opened")
+    @Category("Mini Shell")
+    @Description("The shell opened a file for a redirection")
+    static final class RedirectionOpened extends Event {
+        @Label("File")
+        String path;
+
+        @Label("Mode")
+        @Description("read, write or append")
+        String mode;
+    }
+}
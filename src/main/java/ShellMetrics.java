@@ -0,0 +1,167 @@
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counters for the whole shell process, dumped in the Prometheus text format
+ * by the `metrics [file]` builtin (to stdout without a file, so a node exporter textfile
+ * collector can pick the file up). They are process-wide statics: in server mode every
+ * session adds to the same counters, so the dump covers all clients since the server
+ * started, one series per process as a scrape expects.
+ *
+ * Counters are LongAdders, cheap enough to stay on all the time: a command costs a
+ * couple of increments and two clock reads.
+ */
+final class ShellMetrics {
+
+    private ShellMetrics() {}
+
+    /** Latency buckets in seconds, from sub-millisecond builtins to slow pipelines. */
+    static final double[] BUCKETS = {0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /** Prometheus-style histogram: cumulative bucket counts are computed when dumped. */
+    static final class Histogram {
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        }
+
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i]) i++;
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        void write(PrintWriter out, String name) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += counts[i].sum();
+                out.println(name + "_bucket{le=\"" + BUCKETS[i] + "\"} " + cumulative);
+            }
+            cumulative += counts[BUCKETS.length].sum();
+            out.println(name + "_bucket{le=\"+Inf\"} " + cumulative);
+            out.println(name + "_sum " + sumNanos.sum() / 1e9);
+            out.println(name + "_count " + cumulative);
+        }
+    }
+
+    private static final Map<String, LongAdder> builtins = new ConcurrentHashMap<>();
+    static final LongAdder externalCommands = new LongAdder();
+    static final LongAdder spawnFailures = new LongAdder();
+    static final LongAdder pipedBytes = new LongAdder();
+    static final LongAdder parseErrors = new LongAdder();
+    static final Histogram commandLatency = new Histogram();
+    static final Histogram spawnLatency = new Histogram();
+
+    static void builtin(String name) {
+        LongAdder count = builtins.get(name);
+        if (count == null) count = builtins.computeIfAbsent(name, k -> new LongAdder());
+        count.increment();
+    }
+
+    /** count processes were started in latencyNanos (together, for a pipeline segment). */
+    static void spawned(int count, long latencyNanos) {
+        externalCommands.add(count);
+        spawnLatency.observe(latencyNanos);
+    }
+
+    /** The `metrics [file]` builtin. */
+    static int dump(List<String> argv, PrintWriter err, PrintWriter out) {
+        if (argv.size() < 2) {
+            write(out);
+            return 0;
+        }
+        File file = new File(argv.get(1));
+        if (!file.isAbsolute()) file = new File(Session.current().cwd, argv.get(1));
+        // write next to the target and rename, so a collector never reads half a file
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+            write(w);
+        } catch (IOException e) {
+            err.println("metrics: " + argv.get(1) + ": " + e.getMessage());
+            return 1;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            err.println("metrics: " + argv.get(1) + ": cannot write");
+            return 1;
+        }
+        return 0;
+    }
+
+    static void write(PrintWriter out) {
+        out.println("# HELP minishell_builtin_commands_total Builtin commands run, by name.");
+        out.println("# TYPE minishell_builtin_commands_total counter");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(builtins).entrySet()) {
+            out.println("minishell_builtin_commands_total{builtin=\"" + e.getKey() + "\"} " + e.getValue().sum());
+        }
+        counter(out, "minishell_external_commands_total", "External commands started.", externalCommands);
+        counter(out, "minishell_spawn_failures_total", "External commands that could not be started.", spawnFailures);
+        counter(out, "minishell_parse_errors_total", "Lines rejected with a syntax error.", parseErrors);
+        counter(out, "minishell_pipe_bytes_total", "Bytes written by builtin pipeline stages to the next stage.", pipedBytes);
+        counter(out, "minishell_hash_hits_total", "Command lookups answered by the hash table.", CommandHash.hits());
+        counter(out, "minishell_hash_misses_total", "Command lookups that searched PATH.", CommandHash.misses());
+
+        out.println("# HELP minishell_command_duration_seconds Wall time of each command line.");
+        out.println("# TYPE minishell_command_duration_seconds histogram");
+        commandLatency.write(out, "minishell_command_duration_seconds");
+        out.println("# HELP minishell_spawn_duration_seconds Time to start external processes.");
+        out.println("# TYPE minishell_spawn_duration_seconds histogram");
+        spawnLatency.write(out, "minishell_spawn_duration_seconds");
+        out.flush();
+    }
+
+    private static void counter(PrintWriter out, String name, String help, LongAdder value) {
+        counter(out, name, help, value.sum());
+    }
+
+    private static void counter(PrintWriter out, String name, String help, long value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " counter");
+        out.println(name + " " + value);
+    }
+
+    /**
+     * Wrap a builtin stage's output to the next stage: counts bytes and, when the stage
+     * ends, adds them to the total and records a PipeTransfer event.
+     */
+    static OutputStream piped(OutputStream out, String command) {
+        ShellEvents.PipeTransfer event = ShellEvents.pipeTransfer();
+        return new FilterOutputStream(out) {
+            private long bytes;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytes += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                pipedBytes.add(bytes);
+                if (event != null && event.shouldCommit()) {
+                    event.command = command;
+                    event.bytes = bytes;
+                    event.commit();
+                }
+                super.close();
+            }
+        };
+    }
+}
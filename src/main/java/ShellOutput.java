@@ -0,0 +1,131 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The shell's stdout.
+ *
+ * On a terminal output stays line-responsive: the stream flushes on every line and at
+ * the end of every command. When stdout is a file or a pipe (batch jobs, CI logs) a
+ * large buffer is used instead and it is only flushed when full, before another
+ * process is handed the same stdout, and when the shell exits, so many small writes
+ * turn into few syscalls. If stderr goes to the same file or pipe (a script run with
+ * 2>&1), the buffer is also flushed whenever a command finishes, so its output comes
+ * before whatever the next one writes to the unbuffered stderr.
+ */
+class ShellOutput {
+
+    static final int TERMINAL_BUFFER = 8 * 1024;
+    static final int BATCH_BUFFER = 64 * 1024;
+
+    private static boolean terminal = true;
+    private static boolean merged = false;   // stdout and stderr are the same file or pipe
+
+    // The stream install() put in System.out, and the fd 1 stream under it; its channel
+    // (for transfers) is only opened when first asked for, NIO isn't needed to start up
+    private static PrintStream installed;
+    private static FileOutputStream fdOut;
+
+    /** Replace System.out with a stream buffered for whatever stdout is connected to. */
+    static void install() {
+        Console console = System.console();
+        terminal = console != null && console.isTerminal();
+        merged = !terminal && sameFile("/proc/self/fd/1", "/proc/self/fd/2");
+
+        FileOutputStream fd = new FileOutputStream(FileDescriptor.out);
+        fdOut = fd;
+        PrintStream ps = terminal
+                ? new PrintStream(new BufferedOutputStream(fd, TERMINAL_BUFFER), true, System.out.charset())
+                : new PrintStream(new BufferedOutputStream(fd, BATCH_BUFFER), false, System.out.charset());
+        System.setOut(ps);
+        installed = ps;
+    }
+
+    static boolean isTerminal() {
+        return terminal;
+    }
+
+    /** Write out everything buffered, e.g. before a prompt or before a child inherits stdout. */
+    static void flush() {
+        Session.current().out().flush();
+    }
+
+    /** A command finished: make its output visible if anyone is watching. */
+    static void commandDone() {
+        commandDone(Session.current());
+    }
+
+    private static void commandDone(Session session) {
+        if (session.terminal() || (merged && session.inheritsStdio())) session.out().flush();
+    }
+
+    // Where that can't be told (no /proc), as if they were: order matters more than batching
+    private static boolean sameFile(String a, String b) {
+        try {
+            Object key = Files.readAttributes(Path.of(a), BasicFileAttributes.class).fileKey();
+            return key == null || key.equals(Files.readAttributes(Path.of(b), BasicFileAttributes.class).fileKey());
+        } catch (IOException | RuntimeException e) {
+            return true;
+        }
+    }
+
+    /**
+     * View of the session's stdout for builtins. Builtins flush their writers when done;
+     * through this stream that flush only reaches the real stdout on a terminal.
+     */
+    static OutputStream adaptive() {
+        return new Adaptive(Session.current());
+    }
+
+    /** True for a stream returned by {@link #adaptive()}. */
+    static boolean isStdout(OutputStream out) {
+        return out instanceof Adaptive;
+    }
+
+    /**
+     * Whether output to out, the stdout or stderr of a session without the process's own
+     * stdio (or adaptive() of one), has failed: the client of a server session went away.
+     * A PrintStream keeps such errors to itself, so a copy loop would never stop. May flush.
+     */
+    static boolean broken(OutputStream out) {
+        if (out instanceof Adaptive a) out = a.session.out();
+        return out instanceof PrintStream ps && ps != System.out && ps != System.err && ps.checkError();
+    }
+
+    /**
+     * Channel on fd 1 for transferTo, with everything buffered written out first.
+     * Null when System.out has been replaced since install() (tests, benchmarks), and in
+     * server sessions, whose stdout is a connection.
+     */
+    static FileChannel channel() {
+        if (!Session.current().inheritsStdio() || System.out != installed) return null;
+        flush();
+        return fdOut.getChannel();
+    }
+
+    private static final class Adaptive extends FilterOutputStream {
+        private final Session session;
+
+        Adaptive(Session session) {
+            super(session.out());
+            this.session = session;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            session.out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            commandDone(session);
+        }
+
+        @Override
+        public void close() {
+            commandDone(session);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * `mini-shell --server socket`: one long-lived shell process that runs sessions for
+ * ShellClient over a Unix domain socket, so starting a shell costs a connect instead
+ * of a JVM launch. Each connection is one session (see Session) on a virtual thread.
+ *
+ * Protocol, integers big-endian, strings as an int length and UTF-8 bytes:
+ *   request   str cwd; int n, n x str "NAME=value"; int m, m x str arg -- the
+ *             arguments the command line would take (-c 'cmd' [name args],
+ *             script [args], or -s [args] / nothing for a script on stdin). Then the
+ *             script for the stdin forms, until the client shuts down its output.
+ *   response  frames of byte type, int length, payload: STDOUT and STDERR data, and a
+ *             last EXIT frame holding the 4-byte exit status.
+ *
+ * File descriptors can't be handed over the socket, so commands in a session read
+ * /dev/null unless redirected, and -i (the prompt) is refused.
+ */
+final class ShellServer {
+
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    // Bounds for request fields, so a confused client can't make us allocate gigabytes
+    static final int MAX_STRING = 1 << 20;
+    static final int MAX_COUNT = 1 << 16;
+
+    private ShellServer() {}
+
+    /** Listen on socketPath until the process is stopped; returns 1 if it can't. */
+    static int serve(String socketPath) {
+        Path path = Path.of(socketPath).toAbsolutePath();
+        try {
+            removeStale(path);
+        } catch (IOException e) {
+            System.err.println("mini-shell: " + socketPath + ": " + e.getMessage());
+            return 1;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {}
+            }));
+            while (true) {
+                SocketChannel client = server.accept();
+                Main.io().execute(() -> session(client));
+            }
+        } catch (IOException e) {
+            System.err.println("mini-shell: " + socketPath + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // A socket file left by a server that died can be replaced; a live one or any other file can't
+    private static void removeStale(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        int mode = (Integer) Files.getAttribute(path, "unix:mode");
+        if ((mode & 0170000) != 0140000) throw new IOException("exists and is not a socket");
+        boolean live;
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+            live = true;
+        } catch (IOException refused) {
+            live = false;
+        }
+        if (live) throw new IOException("a server is already listening");
+        Files.delete(path);
+    }
+
+    private static void session(SocketChannel client) {
+        try (client) {
+            DataInputStream request = new DataInputStream(new BufferedInputStream(new ChannelInput(client)));
+            File cwd = new File(readString(request));
+            int n = readCount(request);
+            Map<String, String> env = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                String entry = readString(request);
+                int eq = entry.indexOf('=');
+                if (eq > 0) env.put(entry.substring(0, eq), entry.substring(eq + 1));
+            }
+            String[] args = new String[readCount(request)];
+            for (int i = 0; i < args.length; i++) args[i] = readString(request);
+
+            Frames frames = new Frames(client);
+            PrintStream out = new PrintStream(new BufferedOutputStream(frames.stream(STDOUT), ShellOutput.BATCH_BUFFER), false, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(new BufferedOutputStream(frames.stream(STDERR), 8192), true, StandardCharsets.UTF_8);
+            Session session = new Session(cwd, env, out, err);
+
+            int status;
+            if (!cwd.isDirectory()) {
+                err.println("mini-shell: " + cwd + ": No such file or directory");
+                status = 1;
+            } else {
+                status = session.run(() -> {
+                    try {
+                        return Main.start(args, request);
+                    } catch (IOException e) {
+                        return 1;
+                    }
+                });
+            }
+            out.flush();
+            err.flush();
+            frames.exit(status);
+        } catch (IOException ignored) {
+            // client went away or sent garbage; nothing to report to
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_STRING) throw new IOException("bad string length " + len);
+        return new String(in.readNBytes(len), StandardCharsets.UTF_8);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_COUNT) throw new IOException("bad count " + n);
+        return n;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Response writer. stdout and stderr are written from several threads (builtins,
+     * pumps for child output); a lock keeps each frame whole.
+     */
+    private static final class Frames {
+        private final SocketChannel channel;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteBuffer header = ByteBuffer.allocate(5);
+
+        Frames(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void frame(byte type, byte[] b, int off, int len) throws IOException {
+            ByteBuffer payload = ByteBuffer.wrap(b, off, len);
+            lock.lock();
+            try {
+                header.clear();
+                header.put(type).putInt(len).flip();
+                ByteBuffer[] both = {header, payload};
+                while (payload.hasRemaining() || header.hasRemaining()) channel.write(both);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void exit(int status) throws IOException {
+            frame(EXIT, ByteBuffer.allocate(4).putInt(status).array(), 0, 4);
+        }
+
+        OutputStream stream(byte type) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (len > 0) frame(type, b, off, len);
+                }
+            };
+        }
+    }
+
+    /** Blocking reads straight from the channel; holds no monitor while it waits. */
+    static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+}
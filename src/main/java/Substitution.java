@@ -0,0 +1,112 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Command substitution, $(...) and `...`: the commands run in a subshell copy of the
+ * session (Session.subshell, so cd, assignments and exit stay inside it) whose stdout
+ * is a buffer, and what they print, minus trailing newlines, is the value.
+ *
+ * Nothing is forked for the subshell. Builtins and in-process utilities write straight
+ * into the buffer; an external command's stdout is a pipe, copied into it as the
+ * output arrives. Trailing newlines are held back while writing instead of being
+ * stripped afterwards, and each thread keeps its buffer (with the PrintStream over it)
+ * for the next substitution, so `x=$(pwd)` allocates little beyond the string itself.
+ */
+final class Substitution {
+
+    private Substitution() {}
+
+    // Kept after use; a substitution nested in the expansion of another gets a new one
+    private static final ThreadLocal<Capture> spare = new ThreadLocal<>();
+
+    /** Run body and return its output; $? becomes its exit status. */
+    static String run(Ast.Node body) {
+        Session session = Session.current();
+        if (body == null) {
+            session.lastStatus = 0;
+            return "";
+        }
+        Capture capture = spare.get();
+        if (capture == null) capture = new Capture();
+        else spare.remove();
+        try {
+            Session sub = session.subshell(capture.stream);
+            session.lastStatus = sub.run(() -> {
+                try {
+                    Main.run(body);
+                } catch (Session.Exit e) {
+                    sub.lastStatus = e.status;
+                }
+                return sub.lastStatus;
+            });
+            capture.stream.flush();
+            return capture.text();
+        } finally {
+            capture.reset();
+            spare.set(capture);
+        }
+    }
+
+    /** A growable byte buffer that never keeps newlines at the end, only their count. */
+    private static final class Capture extends OutputStream {
+        private static final int INITIAL = 256;
+        // a buffer grown past this by a big substitution is not kept for the next one
+        private static final int KEEP = 64 * 1024;
+        private static final Charset CHARSET = Charset.defaultCharset();
+
+        final PrintStream stream = new PrintStream(this, false, CHARSET);
+        private byte[] buf = new byte[INITIAL];
+        private int count;
+        private int newlines;   // written after buf[count - 1], not (yet) followed by anything else
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                newlines++;
+                return;
+            }
+            ensure(newlines + 1);
+            pending();
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int end = off + len;
+            int last = end;
+            while (last > off && b[last - 1] == '\n') last--;
+            if (last == off) {
+                newlines += len;
+                return;
+            }
+            ensure(newlines + last - off);
+            pending();
+            System.arraycopy(b, off, buf, count, last - off);
+            count += last - off;
+            newlines = end - last;
+        }
+
+        // The held-back newlines turned out not to be trailing
+        private void pending() {
+            Arrays.fill(buf, count, count + newlines, (byte) '\n');
+            count += newlines;
+            newlines = 0;
+        }
+
+        private void ensure(int more) {
+            if (count + more > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + more));
+        }
+
+        String text() {
+            return new String(buf, 0, count, CHARSET);
+        }
+
+        void reset() {
+            count = 0;
+            newlines = 0;
+            if (buf.length > KEEP) buf = new byte[INITIAL];
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The `time` prefix: `time [-p] [-v] [-j] pipeline`.
+ *
+ * Always reports wall clock, user and sys time; user and sys cover the shell and the
+ * children it reaped meanwhile, from /proc/self/stat. That is the whole process, so in a
+ * server session they include every other session's work too, and the report says so. With -v a pipeline also runs
+ * metered: every stage's output passes through the shell (no direct OS pipes between
+ * external commands), which lets each pipe be measured at the cost of one copy. -p
+ * prints POSIX format, -j a single JSON object for dashboards. Reports go to stderr.
+ */
+final class Timing {
+
+    private Timing() {}
+
+    /** Run a timed pipeline and print its report; returns the pipeline's status. */
+    static int time(Ast.Pipeline pipeline) {
+        Ast.TimeOptions options = pipeline.time();
+        List<Ast.SimpleCommand> commands = pipeline.commands();
+        boolean metered = options.stages() && commands.size() > 1;
+
+        Run run = new Run(metered ? commands.size() : 0);
+        int status;
+        if (commands.isEmpty()) status = 0;
+        else if (commands.size() > 1) status = Main.runMultiPipeline(pipeline, metered ? run : null);
+        else status = Main.runSimpleCommand(commands.get(0));
+        run.finish(status);
+
+        ShellOutput.flush();
+        PrintStream err = Session.current().err();
+        err.print(options.json() ? run.json() : options.posix() ? run.posix() : run.table(options.stages()));
+        err.flush();
+        return status;
+    }
+
+    /** Measurements of one pipe: what a stage wrote to the next one (or to stdout). */
+    static final class Stage {
+        String name = "";
+        boolean builtin;
+        long spawnNanos = -1;      // since the run started
+        long firstByteNanos = -1;  // since the run started
+        volatile long bytesOut;
+        volatile long blockedNanos = -1; // inside write() on a full pipe; -1 if not seen
+        volatile long cpuNanos = -1;
+        private long lastCpuSample;
+        int status;
+        Process process;
+
+        private final long start;
+
+        Stage(long start) {
+            this.start = start;
+        }
+
+        void spawned(Process p) {
+            spawnNanos = System.nanoTime() - start;
+            process = p;
+        }
+
+        void bytes(int n) {
+            long now = System.nanoTime();
+            if (firstByteNanos < 0) firstByteNanos = now - start;
+            bytesOut += n;
+            if (now - lastCpuSample > CPU_SAMPLE_INTERVAL) {
+                lastCpuSample = now;
+                sampleCpu();
+            }
+        }
+
+        void blocked(long nanos) {
+            blockedNanos = Math.max(blockedNanos, 0) + nanos;
+        }
+
+        void outputClosed() {
+            sampleCpu();
+        }
+
+        // The JDK reaps a process the moment it exits, taking its CPU time with it, so the
+        // figure is the last sample seen while its output was flowing
+        private void sampleCpu() {
+            if (process != null) {
+                process.info().totalCpuDuration().ifPresent(d -> cpuNanos = d.toNanos());
+            }
+        }
+    }
+
+    static final long CPU_SAMPLE_INTERVAL = 10_000_000L;
+
+    /** One timed execution. */
+    static final class Run {
+        final long start = System.nanoTime();
+        final List<Stage> stages = new ArrayList<>();
+        private final long[] cpuBefore = cpuTicks();
+        // A server runs every session in one process: its CPU time isn't this session's alone
+        private final boolean processWide = !Session.current().inheritsStdio();
+        private long realNanos;
+        private long userNanos;
+        private long sysNanos;
+        private int status;
+
+        Run(int stageCount) {
+            for (int i = 0; i < stageCount; i++) stages.add(new Stage(start));
+        }
+
+        Stage stage(int i) {
+            return stages.get(i);
+        }
+
+        void finish(int status) {
+            realNanos = System.nanoTime() - start;
+            long[] after = cpuTicks();
+            userNanos = ticksToNanos(after[0] - cpuBefore[0]);
+            sysNanos = ticksToNanos(after[1] - cpuBefore[1]);
+            this.status = status;
+            for (Stage s : stages) {
+                if (s.process != null) {
+                    s.status = s.process.exitValue();
+                    if (s.cpuNanos < 0) s.outputClosed();
+                }
+            }
+        }
+
+        // bash's default format, plus the stage table for -v
+        String table(boolean withStages) {
+            StringBuilder sb = new StringBuilder();
+            sb.append('\n');
+            sb.append("real\t").append(minutes(realNanos)).append('\n');
+            sb.append("user\t").append(minutes(userNanos)).append('\n');
+            sb.append("sys\t").append(minutes(sysNanos)).append('\n');
+            if (processWide) sb.append("(user and sys: the whole server process, all sessions)\n");
+            if (withStages && !stages.isEmpty()) {
+                sb.append(String.format("%-5s %-16s %6s %9s %9s %12s %12s %9s %11s%n",
+                        "stage", "command", "status", "spawn_ms", "first_ms", "bytes_in", "bytes_out", "cpu_ms", "blocked_ms"));
+                for (int i = 0; i < stages.size(); i++) {
+                    Stage s = stages.get(i);
+                    sb.append(String.format(Locale.ROOT, "%-5d %-16s %6d %9s %9s %12d %12d %9s %11s%n",
+                            i, abbreviate(s.name + (s.builtin ? "*" : ""), 16), s.status,
+                            millis(s.spawnNanos), millis(s.firstByteNanos),
+                            bytesIn(i), s.bytesOut, millis(s.cpuNanos), millis(s.blockedNanos)));
+                }
+                boolean builtins = stages.stream().anyMatch(s -> s.builtin);
+                sb.append(builtins ? "(* builtin; " : "(")
+                        .append("cpu_ms is the last sample taken while the stage's output flowed)\n");
+            }
+            return sb.toString();
+        }
+
+        String posix() {
+            return String.format(Locale.ROOT, "real %.2f%nuser %.2f%nsys %.2f%n",
+                    realNanos / 1e9, userNanos / 1e9, sysNanos / 1e9);
+        }
+
+        String json() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "{\"real_ms\":%.3f,\"user_ms\":%.3f,\"sys_ms\":%.3f,\"process_wide\":%b,\"status\":%d",
+                    realNanos / 1e6, userNanos / 1e6, sysNanos / 1e6, processWide, status));
+            if (!stages.isEmpty()) {
+                sb.append(",\"stages\":[");
+                for (int i = 0; i < stages.size(); i++) {
+                    Stage s = stages.get(i);
+                    if (i > 0) sb.append(',');
+                    sb.append(String.format(Locale.ROOT,
+                            "{\"index\":%d,\"command\":\"%s\",\"kind\":\"%s\",\"status\":%d,\"spawn_ms\":%s,\"first_byte_ms\":%s,"
+                                    + "\"bytes_in\":%d,\"bytes_out\":%d,\"cpu_ms\":%s,\"blocked_ms\":%s}",
+                            i, jsonEscape(s.name), s.builtin ? "builtin" : "external", s.status,
+                            jsonMillis(s.spawnNanos), jsonMillis(s.firstByteNanos), bytesIn(i), s.bytesOut,
+                            jsonMillis(s.cpuNanos), jsonMillis(s.blockedNanos)));
+                }
+                sb.append(']');
+            }
+            sb.append("}\n");
+            return sb.toString();
+        }
+
+        // A stage reads what the one before it wrote; the first one reads nothing
+        private long bytesIn(int i) {
+            return i == 0 ? 0 : stages.get(i - 1).bytesOut;
+        }
+    }
+
+    /** Counts what a stage writes as it is read from the stage (external producers). */
+    static InputStream meterRead(InputStream in, Stage stage) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) stage.bytes(1);
+                else stage.outputClosed();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = in.read(buf, off, len);
+                if (n > 0) stage.bytes(n);
+                else if (n < 0) stage.outputClosed();
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Measures time spent in write() (backpressure from the next stage); counts the bytes
+     * too when the producer is a builtin, whose output is not read through meterRead.
+     */
+    static OutputStream meterWrite(OutputStream out, Stage stage, boolean countBytes) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) throws IOException {
+                if (countBytes && len > 0) stage.bytes(len);
+                long t = System.nanoTime();
+                out.write(buf, off, len);
+                stage.blocked(System.nanoTime() - t);
+            }
+        };
+    }
+
+    /**
+     * Copy a stage's output into the next stage (or stdout), measuring both sides; false
+     * if the next stage stopped reading before the end.
+     */
+    static boolean pump(InputStream from, OutputStream to, Stage stage, boolean closeTo) {
+        InputStream in = meterRead(from, stage);
+        OutputStream out = meterWrite(to, stage, false);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = read(in, buf)) > 0) out.write(buf, 0, n);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            // the reader went away
+            return false;
+        } finally {
+            try { from.close(); } catch (IOException ignored) {}
+            if (closeTo) {
+                try { to.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // A failed read counts as the end of the stage's output
+    private static int read(InputStream in, byte[] buf) {
+        try {
+            return in.read(buf);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // utime + cutime, stime + cstime of this process in clock ticks; zeros if /proc is missing
+    private static long[] cpuTicks() {
+        try {
+            String stat = Files.readString(Path.of("/proc/self/stat"));
+            // fields after the ")" closing the command name start at field 3
+            String[] f = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long utime = Long.parseLong(f[11]), stime = Long.parseLong(f[12]);
+            long cutime = Long.parseLong(f[13]), cstime = Long.parseLong(f[14]);
+            return new long[] {utime + cutime, stime + cstime};
+        } catch (IOException | RuntimeException e) {
+            return new long[] {0, 0};
+        }
+    }
+
+    // USER_HZ is 100 on every Linux configuration
+    private static long ticksToNanos(long ticks) {
+        return ticks * 10_000_000L;
+    }
+
+    private static String minutes(long nanos) {
+        long millis = nanos / 1_000_000;
+        return String.format(Locale.ROOT, "%dm%d.%03ds", millis / 60_000, (millis / 1000) % 60, millis % 1000);
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+
+    private static String jsonMillis(long nanos) {
+        return nanos < 0 ? "null" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String abbreviate(String s, int width) {
+        return s.length() <= width ? s : s.substring(0, width - 1) + "~";
+    }
+
+    private static String jsonEscape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Commands are found on the session's PATH, not on the one the JVM started with, and
+ * remembered by the `hash` builtin.
+ */
+class CommandPathTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void runsCommandFoundOnlyOnChangedPath() throws Exception {
+        Path tool = dir.resolve("only-here");
+        Files.writeString(tool, "#!/bin/sh\necho found \"$1\"\n");
+        assertTrue(tool.toFile().setExecutable(true));
+
+        String out = Shell.out("PATH=" + dir + ":$PATH; only-here a; echo status=$?; only-here b | cat; echo status=$?");
+
+        assertEquals("found a\nstatus=0\nfound b\nstatus=0\n", out);
+    }
+
+    @Test
+    void pathBeforeCommandIsUsedForThatCommand() throws Exception {
+        Path tool = dir.resolve("only-here");
+        Files.writeString(tool, "#!/bin/sh\necho found\n");
+        assertTrue(tool.toFile().setExecutable(true));
+
+        assertEquals("found\n", Shell.out("PATH=" + dir + ":$PATH only-here"));
+    }
+
+    @Test
+    void hashRemembersCommandsUntilReset() throws Exception {
+        String out = Shell.out("hash; ls >/dev/null; ls >/dev/null; hash; hash -r; hash");
+
+        assertTrue(out.matches("hash: hash table empty\nhits\tcommand\n   2\t/\\S*/ls\nhash: hash table empty\n"), out);
+    }
+
+    @Test
+    void commandAddedToPathDirIsFoundAfterMiss() throws Exception {
+        Path tool = dir.resolve("late");
+        String out = Shell.out("PATH=" + dir + ":$PATH; late 2>/dev/null; echo status=$?; "
+                + "printf '#!/bin/sh\\necho late\\n' > " + tool + "; chmod +x " + tool + "; late");
+
+        assertEquals("status=127\nlate\n", out);
+    }
+
+    @Test
+    void changedPathGetsATableOfItsOwn() throws Exception {
+        Path tool = dir.resolve("ls");
+        Files.writeString(tool, "#!/bin/sh\necho shadow\n");
+        assertTrue(tool.toFile().setExecutable(true));
+
+        String out = Shell.out("ls -d / ; PATH=" + dir + ":$PATH; ls; hash -r; ls");
+
+        assertEquals("/\nshadow\nshadow\n", out);
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.jline.reader.Candidate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tab completion, run in this JVM against the process's session: which word is being
+ * completed, and to what.
+ */
+class CompletionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void wordUnderCursorAndCommandPosition() {
+        Completion c = new Completion();
+
+        Completion.Words w = (Completion.Words) c.parse("ls -l | gr", 10, null);
+        assertEquals("gr", w.word());
+        assertTrue(w.command);
+
+        w = (Completion.Words) c.parse("cat 'my fi", 10, null);
+        assertEquals("my fi", w.word());
+        assertFalse(w.command);
+        assertEquals("'my file'", w.escape("my file", true).toString());
+    }
+
+    @Test
+    void commandsFromPathIncludingOnesAddedLater() throws Exception {
+        executable("zzq-first");
+        Session.current().setVariable("PATH", dir.toString());
+        Completion c = new Completion();
+
+        assertTrue(eventually(() -> complete(c, "zzq-").contains("zzq-first")));
+        executable("zzq-second");
+        assertTrue(eventually(() -> complete(c, "zzq-").equals(List.of("zzq-first", "zzq-second"))));
+        assertTrue(complete(c, "hist").contains("history"));
+    }
+
+    @Test
+    void fileNamesRelativeToSessionDirectory() throws Exception {
+        Files.createDirectory(dir.resolve("sub"));
+        Files.createFile(dir.resolve("sub/notes.txt"));
+        Files.createFile(dir.resolve("sub/.hidden"));
+        Session.current().cwd = dir.toFile();
+
+        assertEquals(List.of("sub/"), complete(new Completion(), "cat su"));
+        assertEquals(List.of("sub/notes.txt"), complete(new Completion(), "cat sub/"));
+        assertEquals(List.of("sub/.hidden"), complete(new Completion(), "cat sub/."));
+    }
+
+    private void executable(String name) throws Exception {
+        Path f = Files.createFile(dir.resolve(name));
+        assertTrue(f.toFile().setExecutable(true));
+    }
+
+    private static List<String> complete(Completion c, String line) {
+        List<Candidate> candidates = new ArrayList<>();
+        c.complete(null, c.parse(line, line.length(), null), candidates);
+        return candidates.stream().map(Candidate::value).sorted().toList();
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (condition.getAsBoolean()) return true;
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
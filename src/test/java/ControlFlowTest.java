@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * &&, ||, !, if and the loops, with break and continue.
+ */
+class ControlFlowTest {
+
+    @Test
+    void andOrAndNot() throws Exception {
+        assertEquals("and\nor\n1\n", Shell.out("true && echo and; false && echo no; false || echo or; ! true; echo $?"));
+    }
+
+    @Test
+    void ifElifElse() throws Exception {
+        String script = "for i in 1 2 3; do if [ $i = 1 ]; then echo one; elif [ $i = 2 ]; then echo two; else echo other; fi; done";
+
+        assertEquals("one\ntwo\nother\n", Shell.out(script));
+    }
+
+    @Test
+    void whileAndUntil() throws Exception {
+        String script = "i=0; while [ $i != 2 ]; do i=$(expr $i + 1); echo w$i; done; until [ $i = 0 ]; do i=$(expr $i - 1); echo u$i; done";
+
+        assertEquals("w1\nw2\nu1\nu0\n", Shell.out(script));
+    }
+
+    @Test
+    void breakAndContinue() throws Exception {
+        String script = "for i in 1 2 3 4; do if [ $i = 2 ]; then continue; fi; if [ $i = 4 ]; then break; fi; echo $i; done";
+
+        assertEquals("1\n3\n", Shell.out(script));
+    }
+
+    @Test
+    void breakLeavesOuterLoops() throws Exception {
+        assertEquals("a1\n", Shell.out("for a in 1 2; do for b in 1 2; do echo a$a; break 2; done; done"));
+    }
+
+    @Test
+    void loopInFunctionStageStopsWhenReaderIsGone() throws Exception {
+        assertEquals("y\n", Shell.out("f() { while true; do echo y; done; }; f | head -n 1"));
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The in-process utilities turned on with `enable`.
+ */
+class CoreUtilsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void enableListsOnStdoutAndReportsErrorsOnStderr() throws Exception {
+        Shell.Result r = Shell.run("enable -x; echo $?; enable nosuch; echo $?; enable cat; enable", null);
+
+        assertEquals("2\n1\nenable cat\n", r.out());
+        assertTrue(r.err().contains("enable: -x: invalid option"), r.err());
+        assertTrue(r.err().contains("enable: nosuch: not a shell builtin"), r.err());
+    }
+
+    @Test
+    void caretAndDollarInsideBasicRegexAreLiteral() throws Exception {
+        Files.writeString(dir.resolve("in"), "a^b\nab\nx$y\nxy\nend$\nstart\n");
+        String script = "grep 'a^b' in; grep 'x$y' in; grep 'd$$' in; grep '^st' in; grep 'y$' in";
+
+        String builtin = Shell.run("enable grep; " + script, dir).out();
+
+        assertEquals("a^b\nx$y\nend$\nstart\nx$y\nxy\n", builtin);
+        assertEquals(Shell.run(script, dir).out(), builtin);
+    }
+
+    @Test
+    void utilitiesAgreeWithTheBinaries() throws Exception {
+        Files.writeString(dir.resolve("a"), "one\ntwo\nthree\nfour\nfive\n");
+        Files.writeString(dir.resolve("b"), "Two\nno newline");
+        String script = "cat a b; echo; head -n 2 a; head -n -2 a; tail -n 2 a; tail -n +4 a; tail -n 1 b; echo; "
+                + "wc a; wc -l a b; seq 3 | tee t | cat; cat t; grep -c o a; grep -in two a b; grep -v -e e a; "
+                + "grep -l two a b; grep -q nothing a; echo q=$?; grep x nosuch; echo s=$?";
+
+        String builtin = Shell.run("enable cat head tail wc tee grep; " + script, dir).out();
+
+        assertEquals(Shell.run(script, dir).out(), builtin);
+    }
+
+    @Test
+    void unsupportedOptionsRunTheBinary() throws Exception {
+        Files.writeString(dir.resolve("a"), "one\ntwo\n");
+        String script = "cat -n a; head -c 3 a; echo; grep -o 'w.' a";
+
+        assertEquals(Shell.run(script, dir).out(), Shell.run("enable cat head grep; " + script, dir).out());
+    }
+}
@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Command substitution and parameters. An unquoted $param is split into words and
+ * globbed like $(...) output; a quoted one stays one word as it is.
+ */
+class ExpansionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void forLoopIteratesOverWordsOfUnquotedParameter() throws Exception {
+        assertEquals("a\nb\nc\n", Shell.out("list=\"a b c\"; for i in $list; do echo $i; done"));
+    }
+
+    @Test
+    void quotedParameterIsOneItem() throws Exception {
+        assertEquals("a b c\n", Shell.out("list=\"a b c\"; for i in \"$list\"; do echo $i; done"));
+    }
+
+    @Test
+    void unquotedParameterIsGlobbed() throws Exception {
+        Files.createFile(dir.resolve("a.log"));
+        Files.createFile(dir.resolve("b.log"));
+
+        assertEquals("a.log b.log\n*.log\n", Shell.run("x=\"*.log\"; echo $x; echo \"$x\"", dir).out());
+    }
+
+    @Test
+    void unquotedParameterLosesRepeatedBlanks() throws Exception {
+        assertEquals("a b\na  b\n", Shell.out("y=$(echo \"a  b\"); echo $y; echo \"$y\""));
+    }
+
+    @Test
+    void emptyUnquotedParameterIsNoWord() throws Exception {
+        assertEquals("0\n1\n", Shell.out("f() { echo $#; }; e=; f $e; f \"$e\""));
+    }
+
+    @Test
+    void substitutionNestsAndDropsTrailingNewlines() throws Exception {
+        assertEquals("x y\n[l]\n", Shell.out("echo $(echo $(echo x)) `echo y`; b=$(printf 'l\\n\\n\\n'); echo \"[$b]\""));
+    }
+
+    @Test
+    void substitutionRunsFunctionsInASubshell() throws Exception {
+        String script = "f() { echo in f $1; }; a=$(f 1); echo \"$a\"; c=$(x=5; cd /; echo $x); echo x=$x; pwd";
+
+        assertEquals("in f 1\nx=\n" + dir.toRealPath() + "\n", Shell.run(script, dir).out());
+    }
+
+    @Test
+    void statusOfSubstitution() throws Exception {
+        assertEquals("1\n0\n", Shell.out("d=$(false); echo $?; d=$(true); echo $?"));
+    }
+
+    @Test
+    void assignmentBeforeCommandIsOnlyInItsEnvironment() throws Exception {
+        assertEquals("V=1\nV=\n", Shell.out("V=1 sh -c 'echo V=$V'; echo V=$V"));
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Shell functions, their parameters and status, and aliases.
+ */
+class FunctionTest {
+
+    @Test
+    void parametersAndReturnStatus() throws Exception {
+        assertEquals("a-b 3\ns=3\nname\n", Shell.exec(null, "-c", "f() { echo \"$1-$2\" $#; return 3; }; f a b c; echo s=$?; echo $0", "name").out());
+    }
+
+    @Test
+    void quotedAtPassesEachParameterAsOneWord() throws Exception {
+        String script = "c() { echo $#; }; g() { c \"$@\"; c \"x$@y\"; c \"$*\"; c $@; }; g 'p q' '' r; g";
+
+        assertEquals("3\n3\n1\n3\n0\n1\n1\n0\n", Shell.out(script));
+    }
+
+    @Test
+    void forwardingThroughAnotherFunction() throws Exception {
+        assertEquals("1-2 2\na b-c 2\n", Shell.out("f() { echo \"$1-$2\" $#; }; h() { f \"$@\"; }; h 1 2; h 'a b' c"));
+    }
+
+    @Test
+    void redefinitionAndRecursion() throws Exception {
+        String script = "g() { echo g; }; g() { echo redefined; }; g; "
+                + "r() { echo $1; if [ $1 -lt 3 ]; then r $(expr $1 + 1); fi; }; r 1";
+
+        assertEquals("redefined\n1\n2\n3\n", Shell.out(script));
+    }
+
+    @Test
+    void typeShowsTheBody() throws Exception {
+        assertEquals("f is a function\nf() { echo hi; }\n", Shell.out("f() { echo hi; }; type f"));
+    }
+
+    @Test
+    void aliasAppliesFromTheNextLine() throws Exception {
+        assertEquals("listing -x\ns=127\n", Shell.withInput("alias ll='echo listing'\nll -x\nunalias ll\nll 2>/dev/null; echo s=$?\n", null));
+    }
+}
@@ -0,0 +1,54 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Glob patterns, expanded against the session's directory.
+ */
+class GlobTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void files() throws Exception {
+        Files.createDirectories(dir.resolve("d/e"));
+        for (String f : new String[] {"a.txt", "b.txt", "c.md", ".hid", "d/x.txt", "d/e/y.txt"}) {
+            Files.createFile(dir.resolve(f));
+        }
+    }
+
+    @Test
+    void wildcardsAndBrackets() throws Exception {
+        assertEquals("a.txt b.txt\nc.md\na.txt b.txt\nb.txt\n", glob("echo *.txt; echo ?.md; echo [ab].txt; echo [!a].txt"));
+    }
+
+    @Test
+    void doubleStarMatchesAnyDepth() throws Exception {
+        assertEquals("a.txt b.txt d/e/y.txt d/x.txt\n", glob("echo **/*.txt"));
+    }
+
+    @Test
+    void noMatchAndQuotedPatternStayAsTheyAre() throws Exception {
+        assertEquals("*.none\n*.txt\n", glob("echo *.none; echo \"*.txt\""));
+    }
+
+    @Test
+    void hiddenNamesOnlyForALeadingDot() throws Exception {
+        assertEquals("a.txt b.txt c.md d\n.hid\n", glob("echo *; echo .*"));
+    }
+
+    @Test
+    void followsCdAndSeesNewFiles() throws Exception {
+        assertEquals("d/e d/x.txt\nx.txt z.txt\n", glob("echo d/*; cd d; touch z.txt; echo *.txt"));
+    }
+
+    private String glob(String script) throws Exception {
+        return Shell.run(script, dir).out();
+    }
+}
@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The history log in $HISTFILE and the history builtin.
+ */
+class HistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void listsAndSearchesAnExistingLog() throws Exception {
+        Files.writeString(dir.resolve("h"), "ls -l\necho hello\ngrep foo bar\necho world\n");
+        String out = Shell.out("HISTFILE=" + dir.resolve("h") + "; history 2; history -g echo; history -g nothing; echo s=$?");
+
+        assertEquals("    3  grep foo bar\n    4  echo world\n    2  echo hello\n    4  echo world\ns=1\n", out);
+    }
+
+    @Test
+    void interactiveSessionAppendsToTheLog() throws Exception {
+        Path log = dir.resolve("h");
+        Files.writeString(log, "old\n");
+        Map<String, String> env = Map.of("HISTFILE", log.toString(), "HISTCONTROL", "ignoreboth");
+
+        Shell.withInput("echo a\necho a\n echo secret\nhistory -g a\n", env, dir, "-i");
+
+        assertEquals("old\necho a\nhistory -g a\n", Files.readString(log));
+    }
+
+    @Test
+    void clearEmptiesTheLog() throws Exception {
+        Path log = dir.resolve("h");
+        Files.writeString(log, "one\ntwo\n");
+
+        assertEquals("", Shell.out("HISTFILE=" + log + "; history -c; history"));
+        assertEquals("", Files.readString(log));
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Background jobs: $!, jobs, wait and kill.
+ */
+class JobsTest {
+
+    @Test
+    void waitReturnsTheJobsStatus() throws Exception {
+        assertEquals("s=3\n", Shell.out("sh -c 'exit 3' & wait $!; echo s=$?"));
+    }
+
+    @Test
+    void killedJobReportsTheSignal() throws Exception {
+        assertEquals("w=143\n", Shell.out("sleep 5 & p=$!; kill $p; wait $p; echo w=$?"));
+    }
+
+    @Test
+    void jobsListsRunningJobs() throws Exception {
+        String out = Shell.out("sleep 2 & sleep 2 & jobs; wait; echo done");
+
+        assertEquals("[1]-  Running                 sleep 2 &\n[2]+  Running                 sleep 2 &\ndone\n", out);
+    }
+
+    @Test
+    void waitForUnknownPidFails() throws Exception {
+        Shell.Result r = Shell.run("wait 99999; echo $?", null);
+
+        assertEquals("127\n", r.out());
+        assertTrue(r.err().contains("pid 99999 is not a child of this shell"), r.err());
+    }
+
+    @Test
+    void outputBeforeWaitComesBeforeTheJobs() throws Exception {
+        assertEquals("first\nlast\n", Shell.out("sh -c 'sleep 1; echo last' & echo first; wait"));
+    }
+}
@@ -0,0 +1,35 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The metrics builtin's Prometheus dump.
+ */
+class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsBuiltinsAndExternalCommands() throws Exception {
+        String out = Shell.out("ls >/dev/null; echo a | cat >/dev/null; metrics");
+
+        assertTrue(out.contains("# TYPE minishell_external_commands_total counter\n"), out);
+        assertTrue(out.contains("\nminishell_external_commands_total 2\n"), out);
+        assertTrue(out.contains("\nminishell_builtin_commands_total{builtin=\"echo\"} 1\n"), out);
+        assertTrue(out.contains("\nminishell_spawn_duration_seconds_count 2\n"), out);
+    }
+
+    @Test
+    void dumpToFileLeavesStdoutAlone() throws Exception {
+        Path file = dir.resolve("shell.prom");
+
+        assertEquals("", Shell.out("metrics " + file));
+        assertTrue(Files.readString(file).contains("minishell_builtin_commands_total{builtin=\"metrics\"} 1\n"));
+    }
+}
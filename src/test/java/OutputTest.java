@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Buffered stdout: nothing is lost or reordered, also when stderr goes to the same place.
+ */
+class OutputTest {
+
+    @Test
+    void bufferedOutputIsCompleteAtExit() throws Exception {
+        String out = Shell.out("for i in $(seq 20000); do echo line $i; done");
+
+        assertEquals(20000, out.lines().count());
+        assertEquals("line 20000", out.lines().reduce((a, b) -> b).orElse(""));
+    }
+
+    @Test
+    void stdoutAndStderrSharingAPipeStayInOrder() throws Exception {
+        String out = Shell.merged("echo a; cd /nonexistent; echo b; nosuchcommand; echo c");
+
+        assertEquals(5, out.lines().count(), out);
+        String[] lines = out.split("\n");
+        assertEquals("a", lines[0]);
+        assertEquals("b", lines[2]);
+        assertEquals("c", lines[4]);
+    }
+
+    @Test
+    void builtinOutputPrecedesLaterExternalOutput() throws Exception {
+        assertEquals("1\n2\n3\n", Shell.out("echo 1; printf '2\\n'; echo 3"));
+    }
+}
@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The parallel builtin: placeholders, input order with -k, and its exit status.
+ */
+class ParallelTest {
+
+    @Test
+    void placeholdersInInputOrder() throws Exception {
+        assertEquals("d/a.txt d/a a.txt d a 1\nb.c b b.c . b 2\n",
+                Shell.out("parallel -k echo {} {.} {/} {//} {/.} {#} ::: d/a.txt b.c"));
+    }
+
+    @Test
+    void itemsFromStdin() throws Exception {
+        assertEquals("in x\nin y\n", Shell.out("printf 'x\\ny\\n' | parallel -k echo in {}"));
+    }
+
+    @Test
+    void eachJobsOutputInOnePiece() throws Exception {
+        String out = Shell.out("parallel -j 8 sh -c 'echo {}; sleep 0.01; echo {}' ::: $(seq 16)");
+
+        String[] lines = out.split("\n");
+        assertEquals(32, lines.length);
+        for (int i = 0; i < lines.length; i += 2) assertEquals(lines[i], lines[i + 1]);
+    }
+
+    @Test
+    void statusCountsFailedJobs() throws Exception {
+        assertEquals("s=2\n", Shell.out("parallel sh -c 'exit {}' ::: 0 1 3; echo s=$?"));
+    }
+
+    @Test
+    void commandNotFoundFailsEachJob() throws Exception {
+        Shell.Result r = Shell.run("parallel nosuchcmd ::: 1 2; echo n=$?", null);
+
+        assertEquals("n=2\n", r.out());
+        assertTrue(r.err().contains("nosuchcmd: command not found"), r.err());
+    }
+}
@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Quoting, comments and syntax errors of the command line parser.
+ */
+class ParserTest {
+
+    @Test
+    void quotedOperatorsAreArguments() throws Exception {
+        assertEquals("a|b c > d e;f\n", Shell.out("echo 'a|b' \"c > d\" e\\;f # comment"));
+    }
+
+    @Test
+    void singleQuotesKeepDollarDoubleQuotesExpandIt() throws Exception {
+        assertEquals("x-v-y $V\n", Shell.out("V=v; echo \"x-$V-y\" '$V'"));
+    }
+
+    @Test
+    void ioNumberOnlyAsAWordOfItsOwn() throws Exception {
+        assertEquals("", Shell.out("echo a2>/dev/null b"));
+        assertEquals("a 2\n", Shell.out("echo a 2 2>/dev/null"));
+    }
+
+    @Test
+    void unexpectedTokenIsSyntaxError() throws Exception {
+        Shell.Result r = Shell.run("echo a; | b", null);
+
+        assertEquals("", r.out());
+        assertEquals(2, r.status());
+        assertTrue(r.err().contains("syntax error near unexpected token `|'"), r.err());
+    }
+
+    @Test
+    void missingCommandAfterPipeIsSyntaxError() throws Exception {
+        Shell.Result r = Shell.run("echo a |", null);
+
+        assertEquals(2, r.status());
+        assertTrue(r.err().contains("syntax error"), r.err());
+    }
+}
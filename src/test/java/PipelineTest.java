@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pipelines of external commands and builtins: the data, the exit status and how they end.
+ */
+class PipelineTest {
+
+    @Test
+    void externalStagesPassAllData() throws Exception {
+        assertEquals("200000\n", Shell.out("seq 200000 | cat | wc -l").stripLeading());
+        assertEquals("100000\n", Shell.out("seq 1 100000 | sort -n | tail -n 1"));
+    }
+
+    @Test
+    void statusIsTheLastStages() throws Exception {
+        assertEquals("1\n0\n", Shell.out("true | false; echo $?; false | true; echo $?"));
+    }
+
+    @Test
+    void builtinStagesStreamBetweenExternalOnes() throws Exception {
+        assertEquals("200000\n", Shell.out("enable cat wc; seq 200000 | cat | wc -l"));
+        assertEquals("a\n", Shell.out("enable cat; echo a | cat | cat | cat"));
+    }
+
+    @Test
+    void builtinStageReadingEndlessInputStopsWithItsReader() throws Exception {
+        assertEquals("y\ny\n", Shell.out("enable cat head; yes | cat | head -n 2"));
+    }
+
+    @Test
+    void longPipelineOfMixedStages() throws Exception {
+        String stages = " | cat | tr a b | tr b a".repeat(30);
+
+        assertEquals("a\n", Shell.out("enable cat; echo a" + stages));
+    }
+
+    @Test
+    void endlessProducersStopWhenTheReaderExits() throws Exception {
+        long start = System.nanoTime();
+
+        assertEquals("n\n0\n", Shell.out("yes | tr y n | head -n 1; echo $?"));
+        assertEquals("1\n", Shell.out("seq 1000000000 | cat | head -n 1"));
+        assertEquals("y\n", Shell.out("enable cat; yes | cat | cat | head -n 1"));
+        assertTrue(System.nanoTime() - start < 20_000_000_000L);
+    }
+
+    @Test
+    void stderrOfStagesStaysOutOfTheData() throws Exception {
+        Shell.Result r = Shell.run("sh -c 'seq 100000 >&2; echo data' | cat | sh -c 'cat; echo err >&2'", null);
+
+        assertEquals("data\n", r.out());
+        assertEquals(100001, r.err().lines().count());
+    }
+
+    @Test
+    void stageStderrSentDownThePipe() throws Exception {
+        assertEquals("2\n", Shell.out("sh -c 'echo out; echo err >&2' 2>&1 | wc -l").stripLeading());
+        assertEquals("1\n", Shell.out("sh -c 'echo out; echo err >&2' 2>&1 >/dev/null | wc -l").stripLeading());
+    }
+}
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Redirections of builtins, external commands and pipeline stages.
+ */
+class RedirectionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndAppend() throws Exception {
+        Shell.run("echo a > f; echo b >> f; ls f 1>> f", dir);
+
+        assertEquals("a\nb\nf\n", Files.readString(dir.resolve("f")));
+    }
+
+    @Test
+    void readFromFile() throws Exception {
+        Files.writeString(dir.resolve("in"), "x\ny\n");
+
+        assertEquals("2", Shell.run("wc -l < in", dir).out().strip());
+    }
+
+    @Test
+    void ampersandRedirectsStdoutAndStderr() throws Exception {
+        Shell.Result r = Shell.run("ls f nosuch &> all; echo x &>> all; echo status=$?", dir);
+
+        assertEquals("status=0\n", r.out());
+        String all = Files.readString(dir.resolve("all"));
+        assertTrue(all.contains("nosuch"), all);
+        assertTrue(all.endsWith("x\n"), all);
+    }
+
+    @Test
+    void ampersandRedirectionIsNotBackground() throws Exception {
+        assertEquals("after\n", Shell.run("f() { echo out; echo err 1>&2; }; f &>/dev/null; echo after", dir).out());
+    }
+
+    @Test
+    void ampersandDuplicationIsSyntaxError() throws Exception {
+        Shell.Result r = Shell.run("echo hi &>&2", dir);
+
+        assertEquals("", r.out());
+        assertTrue(r.err().contains("syntax error near unexpected token `&>&'"), r.err());
+    }
+
+    @Test
+    void stageRedirectionsApplyAfterPipes() throws Exception {
+        assertEquals("1", Shell.run("ls nosuch 2>&1 >/dev/null | wc -l", dir).out().strip());
+        assertEquals("0", Shell.run("ls nosuch 2>/dev/null | wc -l", dir).out().strip());
+    }
+
+    @Test
+    void builtinErrorsFollowRedirection() throws Exception {
+        Shell.Result r = Shell.run("cd nosuch 2>/dev/null; nosuchcommand 2>/dev/null; echo $?", dir);
+
+        assertEquals("127\n", r.out());
+        assertEquals("", r.err());
+    }
+
+    @Test
+    void builtinCatCopiesFilesIntoRedirections() throws Exception {
+        Shell.run("seq 100000 > big; enable cat; cat big > copy; echo x > both; cat big >> both; cat big | cat > piped", dir);
+
+        String big = Files.readString(dir.resolve("big"));
+        assertEquals(big, Files.readString(dir.resolve("copy")));
+        assertEquals("x\n" + big, Files.readString(dir.resolve("both")));
+        assertEquals(big, Files.readString(dir.resolve("piped")));
+    }
+
+    @Test
+    void appendTargetReopenedWhenDeletedOrReplaced() throws Exception {
+        Shell.run("echo a >> log; rm log; echo b >> log; echo c >> log2; mv log2 moved; echo d >> log2", dir);
+
+        assertEquals("b\n", Files.readString(dir.resolve("log")));
+        assertEquals("c\n", Files.readString(dir.resolve("moved")));
+        assertEquals("d\n", Files.readString(dir.resolve("log2")));
+    }
+
+    @Test
+    void moreAppendTargetsThanKeptOpen() throws Exception {
+        Shell.run("for i in $(seq 100); do echo $i >> f$i; echo $i >> all; done", dir);
+
+        assertEquals("100\n", Files.readString(dir.resolve("f100")));
+        assertEquals(100, Files.readAllLines(dir.resolve("all")).size());
+    }
+}
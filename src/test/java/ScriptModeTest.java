@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * `-c`, a script file and a script on stdin: $0 and the arguments, and the exit status.
+ */
+class ScriptModeTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void commandStringTakesNameAndArguments() throws Exception {
+        assertEquals("name one two 2\n", Shell.exec(null, "-c", "echo $0 $1 $2 $#", "name", "one", "two").out());
+    }
+
+    @Test
+    void exitStatusOfCommandString() throws Exception {
+        assertEquals(4, Shell.run("exit 4", null).status());
+        assertEquals(1, Shell.run("true; false", null).status());
+    }
+
+    @Test
+    void scriptFileRunsLineByLine() throws Exception {
+        Path script = dir.resolve("s.sh");
+        Files.writeString(script, "echo $0 $1\nif true\nthen\n  echo multi-line\nfi\nexit 3\necho not reached\n");
+
+        Shell.Result r = Shell.exec(dir, script.toString(), "arg");
+
+        assertEquals(script + " arg\nmulti-line\n", r.out());
+        assertEquals(3, r.status());
+    }
+
+    @Test
+    void scriptOnStdin() throws Exception {
+        assertEquals("from stdin\n1\n", Shell.withInput("echo from stdin\nx=1\necho $x\n", dir));
+    }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Sessions run by a server over its Unix domain socket, through ShellClient.
+ */
+class ServerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sessionsKeepOutputStatusAndStateApart() throws Exception {
+        Process server = Shell.server(dir.resolve("s.sock"));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+            int status = ShellClient.run(dir.resolve("s.sock"), List.of("-c", "cd /; pwd; x=1; ls nosuch; exit 5"),
+                    dir.toFile(), Map.of("PATH", System.getenv("PATH")), null, out, err);
+
+            assertEquals(5, status);
+            assertEquals("/\n", out.toString(StandardCharsets.UTF_8));
+            assertTrue(err.toString(StandardCharsets.UTF_8).contains("nosuch"));
+
+            out.reset();
+            status = ShellClient.run(dir.resolve("s.sock"), List.of("-c", "pwd; echo x=$x; echo $HOME"),
+                    dir.toFile(), Map.of("PATH", System.getenv("PATH"), "HOME", "/home/test"), null, out, err);
+
+            assertEquals(0, status);
+            assertEquals(dir.toRealPath() + "\nx=\n/home/test\n", out.toString(StandardCharsets.UTF_8));
+        } finally {
+            server.destroy();
+        }
+    }
+
+    @Test
+    void scriptOnStdinAndExternalOutput() throws Exception {
+        Process server = Shell.server(dir.resolve("s.sock"));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+            byte[] script = "echo one\nseq 3 | tail -n 1\nprintf 'two\\n'\n".getBytes(StandardCharsets.UTF_8);
+            int status = ShellClient.run(dir.resolve("s.sock"), List.of(), dir.toFile(),
+                    Map.of("PATH", System.getenv("PATH")), new ByteArrayInputStream(script), out, err);
+
+            assertEquals(0, status);
+            assertEquals("one\n3\ntwo\n", out.toString(StandardCharsets.UTF_8));
+        } finally {
+            server.destroy();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the shell in a JVM of its own, so nothing of one test's session, hash table or
+ * stdout leaks into the next.
+ */
+final class Shell {
+
+    private Shell() {}
+
+    /** What `Main -c script` printed, stdout and stderr. */
+    record Result(String out, String err, int status) {}
+
+    /** stdout of `Main -c script`. */
+    static String out(String script) throws Exception {
+        return run(script, null).out();
+    }
+
+    /** `Main -c script` in dir (the JVM's directory when null). */
+    static Result run(String script, Path dir) throws Exception {
+        return exec(dir, "-c", script);
+    }
+
+    /** Main with the given arguments, stdin from /dev/null. */
+    static Result exec(Path dir, String... args) throws Exception {
+        ProcessBuilder pb = command(dir, args).redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+        File err = File.createTempFile("shell", ".err");
+        try {
+            pb.redirectError(err);
+            Process p = pb.start();
+            String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(p.waitFor(30, TimeUnit.SECONDS));
+            return new Result(out, Files.readString(err.toPath()), p.exitValue());
+        } finally {
+            err.delete();
+        }
+    }
+
+    /** stdout and stderr of `Main -c script` as one stream, both going to the same pipe. */
+    static String merged(String script) throws Exception {
+        ProcessBuilder pb = command(null, "-c", script)
+                .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+                .redirectErrorStream(true);
+        Process p = pb.start();
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(p.waitFor(30, TimeUnit.SECONDS));
+        return out;
+    }
+
+    /** stdout of Main with the given arguments, reading input on stdin. */
+    static String withInput(String input, Path dir, String... args) throws Exception {
+        return withInput(input, Map.of(), dir, args);
+    }
+
+    /** The same, with env added to the JVM's environment. */
+    static String withInput(String input, Map<String, String> env, Path dir, String... args) throws Exception {
+        ProcessBuilder pb = command(dir, args).redirectError(ProcessBuilder.Redirect.DISCARD);
+        pb.environment().putAll(env);
+        Process p = pb.start();
+        try (var in = p.getOutputStream()) {
+            in.write(input.getBytes(StandardCharsets.UTF_8));
+        }
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(p.waitFor(30, TimeUnit.SECONDS));
+        return out;
+    }
+
+    /** `Main --server socket`, once it accepts connections; the caller destroys it. */
+    static Process server(Path socket) throws Exception {
+        Process p = command(null, "--server", socket.toString())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        for (int i = 0; i < 300 && !Files.exists(socket); i++) Thread.sleep(50);
+        assertTrue(Files.exists(socket));
+        return p;
+    }
+
+    private static ProcessBuilder command(Path dir, String... args) {
+        String jvm = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String[] command = new String[5 + args.length];
+        command[0] = jvm;
+        command[1] = "--enable-preview";
+        command[2] = "-cp";
+        command[3] = System.getProperty("java.class.path");
+        command[4] = "Main";
+        System.arraycopy(args, 0, command, 5, args.length);
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (dir != null) pb.directory(dir.toFile());
+        return pb;
+    }
+}
@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The `time` report, which goes to stderr and leaves the command's output alone.
+ */
+class TimingTest {
+
+    @Test
+    void reportGoesToStderr() throws Exception {
+        Shell.Result r = Shell.run("time echo hi", null);
+
+        assertEquals("hi\n", r.out());
+        assertTrue(r.err().contains("real\t"), r.err());
+    }
+
+    @Test
+    void builtinFootnoteOnlyWithBuiltinStage() throws Exception {
+        String external = Shell.run("time -v printf 'a\\n' | cat", null).err();
+        String builtin = Shell.run("time -v echo a | cat", null).err();
+
+        assertFalse(external.contains("* builtin"), external);
+        assertTrue(builtin.contains("echo*"), builtin);
+        assertTrue(builtin.contains("(* builtin; "), builtin);
+    }
+
+    @Test
+    void jsonSaysWhetherCpuTimeIsProcessWide() throws Exception {
+        String err = Shell.run("time -j true", null).err();
+
+        assertTrue(err.startsWith("{\"real_ms\":"), err);
+        assertTrue(err.contains("\"process_wide\":false"), err);
+    }
+}